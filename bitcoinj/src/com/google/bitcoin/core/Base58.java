@@ -35,57 +35,81 @@ import java.util.Arrays;
  */
 public class Base58 {
     private static final String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
-    private static final BigInteger BASE = BigInteger.valueOf(58);
+    private static final char[] DIGITS = ALPHABET.toCharArray();
+    // The value of each ASCII character as a base 58 digit, or -1 if it isn't one.
+    private static final int[] INDEXES = new int[128];
+    static {
+        Arrays.fill(INDEXES, -1);
+        for (int i = 0; i < DIGITS.length; i++)
+            INDEXES[DIGITS[i]] = i;
+    }
 
+    /**
+     * Encodes the given bytes in base58. Each leading zero byte becomes a leading '1'. This works on the bytes
+     * directly, dividing the whole number by 58 in place once for each digit.
+     */
     public static String encode(byte[] input) {
-        // TODO: This could be a lot more efficient.
-        BigInteger bi = new BigInteger(1, input);
-        StringBuffer s = new StringBuffer();
-        while (bi.compareTo(BASE) >= 0) {
-            BigInteger mod = bi.mod(BASE);
-            s.insert(0, ALPHABET.charAt(mod.intValue()));
-            bi = bi.subtract(mod).divide(BASE);
-        }
-        s.insert(0, ALPHABET.charAt(bi.intValue()));
-        // Convert leading zeros too.
-        for (byte anInput : input) {
-            if (anInput == 0)
-                s.insert(0, ALPHABET.charAt(0));
-            else
-                break;
+        if (input.length == 0)
+            return "";
+        int zeros = 0;
+        while (zeros < input.length && input[zeros] == 0)
+            zeros++;
+        // Base 58 takes log(256) / log(58) = 1.37 digits per byte, so 138 digits are enough for 100 bytes.
+        byte[] number = Arrays.copyOf(input, input.length);
+        char[] digits = new char[input.length * 138 / 100 + 1];
+        int next = digits.length;
+        for (int start = zeros; start < number.length; ) {
+            digits[--next] = DIGITS[divmod(number, start, 256, 58)];
+            // The number gets shorter as it is divided, skip the bytes that have become zero.
+            if (number[start] == 0)
+                start++;
         }
-        return s.toString();
+        for (int i = 0; i < zeros; i++)
+            digits[--next] = DIGITS[0];
+        return new String(digits, next, digits.length - next);
+    }
+
+    /**
+     * Encodes the given bytes and the first four bytes of their double SHA-256 hash in base58, the way addresses and
+     * dumped private keys are encoded. See {@link #decodeChecked(String)}.
+     */
+    public static String encodeChecked(byte[] input) {
+        byte[] checked = new byte[input.length + Digests.SHA256_LENGTH];
+        System.arraycopy(input, 0, checked, 0, input.length);
+        Digests.doubleSha256(checked, 0, input.length, checked, input.length);
+        return encode(Arrays.copyOf(checked, input.length + 4));
     }
 
     public static byte[] decode(String input) throws AddressFormatException {
-        byte[] bytes = decodeToBigInteger(input).toByteArray();
-        // We may have got one more byte than we wanted, if the high bit of the next-to-last byte was not zero. This
-        // is because BigIntegers are represented with twos-compliment notation, thus if the high bit of the last
-        // byte happens to be 1 another 8 zero bits will be added to ensure the number parses as positive. Detect
-        // that case here and chop it off.
-        boolean stripSignByte = bytes.length > 1 && bytes[0] == 0 && bytes[1] < 0;
-        // Count the leading zeros, if any.
-        int leadingZeros = 0;
-        for (int i = 0; input.charAt(i) == ALPHABET.charAt(0); i++) {
-            leadingZeros++;
+        if (input.length() == 0)
+            return new byte[0];
+        byte[] number = new byte[input.length()];
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            int digit = c < 128 ? INDEXES[c] : -1;
+            if (digit < 0)
+                throw new AddressFormatException("Illegal character " + c + " at " + i);
+            number[i] = (byte) digit;
         }
-        // Now cut/pad correctly. Java 6 has a convenience for this, but Android can't use it.
-        byte[] tmp = new byte[bytes.length - (stripSignByte ? 1 : 0) + leadingZeros];
-        System.arraycopy(bytes, stripSignByte ? 1 : 0, tmp, leadingZeros, tmp.length - leadingZeros);
-        return tmp;
+        int zeros = 0;
+        while (zeros < number.length && number[zeros] == 0)
+            zeros++;
+        // A base 58 digit is less than a byte, so the bytes take no more room than the digits did.
+        byte[] bytes = new byte[input.length()];
+        int next = bytes.length;
+        for (int start = zeros; start < number.length; ) {
+            bytes[--next] = (byte) divmod(number, start, 58, 256);
+            if (number[start] == 0)
+                start++;
+        }
+        // The division can leave zero bytes in front of the number, they are not part of it.
+        while (next < bytes.length && bytes[next] == 0)
+            next++;
+        return Arrays.copyOfRange(bytes, next - zeros, bytes.length);
     }
 
     public static BigInteger decodeToBigInteger(String input) throws AddressFormatException {
-        BigInteger bi = BigInteger.valueOf(0);
-        // Work backwards through the string.
-        for (int i = input.length() - 1; i >= 0; i--) {
-            int alphaIndex = ALPHABET.indexOf(input.charAt(i));
-            if (alphaIndex == -1) {
-                throw new AddressFormatException("Illegal character " + input.charAt(i) + " at " + i);
-            }
-            bi = bi.add(BigInteger.valueOf(alphaIndex).multiply(BASE.pow(input.length() - 1 - i)));
-        }
-        return bi;
+        return new BigInteger(1, decode(input));
     }
 
     /**
@@ -98,15 +122,28 @@ public class Base58 {
         byte[] tmp = decode(input);
         if (tmp.length < 4)
             throw new AddressFormatException("Input too short");
-        byte[] checksum = new byte[4];
-        System.arraycopy(tmp, tmp.length - 4, checksum, 0, 4);
-        byte[] bytes = new byte[tmp.length - 4];
-        System.arraycopy(tmp, 0, bytes, 0, tmp.length - 4);
-        tmp = Utils.doubleDigest(bytes);
-        byte[] hash = new byte[4];
-        System.arraycopy(tmp, 0, hash, 0, 4);
-        if (!Arrays.equals(hash, checksum))
-            throw new AddressFormatException("Checksum does not validate");
-        return bytes;
+        int length = tmp.length - 4;
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.doubleSha256(tmp, 0, length, hash, 0);
+        for (int i = 0; i < 4; i++) {
+            if (hash[i] != tmp[length + i])
+                throw new AddressFormatException("Checksum does not validate");
+        }
+        return Arrays.copyOf(tmp, length);
+    }
+
+    /**
+     * Divides the number held in the given digits from index start on, most significant first, by the divisor. The
+     * quotient is written over the digits and the remainder returned.
+     */
+    private static int divmod(byte[] number, int start, int base, int divisor) {
+        int remainder = 0;
+        for (int i = start; i < number.length; i++) {
+            int digit = number[i] & 0xFF;
+            int temp = remainder * base + digit;
+            number[i] = (byte) (temp / divisor);
+            remainder = temp % divisor;
+        }
+        return remainder;
     }
 }
@@ -236,6 +236,14 @@ public class BitcoinSerializer {
         return new BitcoinPacketHeader(usesChecksumming, in);
     }
 
+    /**
+     * Deserializes a header that is already in memory, starting offset bytes into the given array and just after the
+     * magic bytes. The array must hold at least {@link #getHeaderLength()} - 4 bytes from there.
+     */
+    public BitcoinPacketHeader deserializeHeader(byte[] buf, int offset) throws ProtocolException {
+        return new BitcoinPacketHeader(usesChecksumming, buf, offset);
+    }
+
     /**
      * Deserialize payload only.  You must provide a header, typically obtained by calling
      * {@link BitcoinSerializer#deserializeHeader}. If the deduping feature is active, may return NULL if the
@@ -244,14 +252,23 @@ public class BitcoinSerializer {
     public Message deserializePayload(BitcoinPacketHeader header, InputStream in) throws ProtocolException, IOException {
         int readCursor = 0;
         byte[] payloadBytes = new byte[header.size];
-        while (readCursor < payloadBytes.length - 1) {
+        while (readCursor < payloadBytes.length) {
             int bytesRead = in.read(payloadBytes, readCursor, header.size - readCursor);
             if (bytesRead == -1) {
                 throw new IOException("Socket is disconnected");
             }
             readCursor += bytesRead;
         }
+        return deserializePayload(header, payloadBytes, 0);
+    }
 
+    /**
+     * Deserializes a payload that is already in memory, starting offset bytes into the given array. The array is not
+     * copied: in lazy parse or retain mode the returned message keeps referring to it, so it must not be changed
+     * afterwards. Otherwise the message is done with it by the time this method returns. If the deduping feature is
+     * active, may return NULL if the message was seen before.
+     */
+    public Message deserializePayload(BitcoinPacketHeader header, byte[] buf, int offset) throws ProtocolException {
         // Check for duplicates. This is to avoid the cost (cpu and memory) of parsing the message twice, which can
         // be an issue on constrained devices.
 
@@ -266,7 +283,7 @@ public class BitcoinSerializer {
             synchronized (dedupeList) {
                 // Calculate hash inside the lock to avoid unnecessary battery power spent on hashing messages arriving
                 // on different threads simultaneously.
-                singleHash = Sha256Hash.create(payloadBytes);
+                singleHash = new Sha256Hash(singleDigest(buf, offset, header.size));
                 Integer count = dedupeList.get(singleHash);
                 if (count != null) {
                     int newCount = count + 1;
@@ -285,7 +302,7 @@ public class BitcoinSerializer {
             if (singleHash != null) {
                 hash = singleDigest(singleHash.getBytes(), 0, 32);
             } else {
-                hash = doubleDigest(payloadBytes);
+                hash = doubleDigest(buf, offset, header.size);
             }
             if (header.checksum[0] != hash[0] || header.checksum[1] != hash[1] ||
                     header.checksum[2] != hash[2] || header.checksum[3] != hash[3]) {
@@ -299,52 +316,78 @@ public class BitcoinSerializer {
             log.debug("Received {} byte '{}' message: {}", new Object[]{
                     header.size,
                     header.command,
-                    Utils.bytesToHexString(payloadBytes)
+                    Utils.bytesToHexString(copyOfRange(buf, offset, header.size))
             });
         }
 
         try {
-            return makeMessage(header.command, header.size, payloadBytes, hash, header.checksum);
+            return makeMessage(header.command, header.size, buf, offset, hash, header.checksum);
         } catch (Exception e) {
-            throw new ProtocolException("Error deserializing message " + Utils.bytesToHexString(payloadBytes) + "\n", e);
+            throw new ProtocolException("Error deserializing message " +
+                    Utils.bytesToHexString(copyOfRange(buf, offset, header.size)) + "\n", e);
         }
     }
 
-    private Message makeMessage(String command, int length, byte[] payloadBytes, byte[] hash, byte[] checksum) throws ProtocolException {
-        // We use an if ladder rather than reflection because reflection is very slow on Android.
+    private Message makeMessage(String command, int length, byte[] buf, int offset, byte[] hash, byte[] checksum)
+            throws ProtocolException {
+        // We use an if ladder rather than reflection because reflection is very slow on Android. The common messages
+        // are parsed where they lie, the rest get a copy of their own.
         Message message;
         if (command.equals("version")) {
-            return new VersionMessage(params, payloadBytes);
+            return new VersionMessage(params, copyOfRange(buf, offset, length));
         } else if (command.equals("inv")) {
-            message = new InventoryMessage(params, payloadBytes, parseLazy, parseRetain, length);
+            message = new InventoryMessage(params, buf, offset, parseLazy, parseRetain, length);
         } else if (command.equals("block")) {
-            message = new Block(params, payloadBytes, parseLazy, parseRetain, length);
+            message = new Block(params, buf, offset, parseLazy, parseRetain, length);
         } else if (command.equals("getdata")) {
-            message = new GetDataMessage(params, payloadBytes, parseLazy, parseRetain, length);
+            message = new GetDataMessage(params, buf, offset, parseLazy, parseRetain, length);
         } else if (command.equals("tx")) {
-            Transaction tx = new Transaction(params, payloadBytes, null, parseLazy, parseRetain, length);
+            Transaction tx = new Transaction(params, buf, offset, null, parseLazy, parseRetain, length);
             if (hash != null)
                 tx.setHash(new Sha256Hash(Utils.reverseBytes(hash)));
             message = tx;
         } else if (command.equals("addr")) {
-            message = new AddressMessage(params, payloadBytes, parseLazy, parseRetain, length);
+            message = new AddressMessage(params, buf, offset, parseLazy, parseRetain, length);
         } else if (command.equals("ping")) {
             return new Ping();
         } else if (command.equals("verack")) {
-            return new VersionAck(params, payloadBytes);
+            return new VersionAck(params, copyOfRange(buf, offset, length));
         } else if (command.equals("headers")) {
-            return new HeadersMessage(params, payloadBytes);
+            return new HeadersMessage(params, copyOfRange(buf, offset, length));
         } else if (command.equals("alert")) {
-            return new AlertMessage(params, payloadBytes);
+            return new AlertMessage(params, copyOfRange(buf, offset, length));
         } else {
             log.warn("No support for deserializing message with name {}", command);
-            return new UnknownMessage(params, command, payloadBytes);
+            return new UnknownMessage(params, command, copyOfRange(buf, offset, length));
         }
         if (checksum != null)
             message.setChecksum(checksum);
         return message;
     }
 
+    private static byte[] readHeader(int length, InputStream in) throws IOException {
+        byte[] header = new byte[length];
+        int readCursor = 0;
+        while (readCursor < header.length) {
+            int bytesRead = in.read(header, readCursor, header.length - readCursor);
+            if (bytesRead == -1) {
+                // There's no more data to read.
+                throw new IOException("Incomplete packet in underlying stream");
+            }
+            readCursor += bytesRead;
+        }
+        return header;
+    }
+
+    /** Returns the given range of the array, which is the array itself if the range covers all of it. */
+    private static byte[] copyOfRange(byte[] buf, int offset, int length) {
+        if (offset == 0 && length == buf.length)
+            return buf;
+        byte[] copy = new byte[length];
+        System.arraycopy(buf, offset, copy, 0, length);
+        return copy;
+    }
+
     public void seekPastMagicBytes(InputStream in) throws IOException {
         int magicCursor = 3;  // Which byte of the magic we're looking for currently.
         while (true) {
@@ -392,16 +435,11 @@ public class BitcoinSerializer {
         final byte[] checksum;
 
         BitcoinPacketHeader(boolean usesCheckSumminng, InputStream in) throws ProtocolException, IOException {
-            header = new byte[COMMAND_LEN + 4 + (usesChecksumming ? 4 : 0)];
-            int readCursor = 0;
-            while (readCursor < header.length) {
-                int bytesRead = in.read(header, readCursor, header.length - readCursor);
-                if (bytesRead == -1) {
-                    // There's no more data to read.
-                    throw new IOException("Incomplete packet in underlying stream");
-                }
-                readCursor += bytesRead;
-            }
+            this(usesCheckSumminng, readHeader(COMMAND_LEN + 4 + (usesCheckSumminng ? 4 : 0), in), 0);
+        }
+
+        BitcoinPacketHeader(boolean usesCheckSumminng, byte[] buf, int offset) throws ProtocolException {
+            header = copyOfRange(buf, offset, COMMAND_LEN + 4 + (usesChecksumming ? 4 : 0));
 
             int cursor = 0;
 
@@ -421,8 +459,9 @@ public class BitcoinSerializer {
             size = (int) readUint32(header, cursor);
             cursor += 4;
 
-            if (size > Message.MAX_SIZE)
-                throw new ProtocolException("Message size too large: " + size);
+            // A uint32 above the int range comes out negative.
+            if (size > Message.MAX_SIZE || size < 0)
+                throw new ProtocolException("Message size too large: " + (size & 0xFFFFFFFFL));
 
             // Old clients don't send the checksum.
             checksum = new byte[4];
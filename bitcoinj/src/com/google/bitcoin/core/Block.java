@@ -29,9 +29,6 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
-import static com.google.bitcoin.core.Utils.doubleDigest;
-import static com.google.bitcoin.core.Utils.doubleDigestTwoBuffers;
-
 /**
  * A block is the foundation of the BitCoin system. It records a set of {@link Transaction}s together with some data
  * that links it into a place in the global block chain, and proves that a difficult calculation was done over its
@@ -105,7 +102,16 @@ public class Block extends Message {
      */
     public Block(NetworkParameters params, byte[] payloadBytes, boolean parseLazy, boolean parseRetain, int length)
             throws ProtocolException {
-        super(params, payloadBytes, 0, parseLazy, parseRetain, length);
+        this(params, payloadBytes, 0, parseLazy, parseRetain, length);
+    }
+
+    /**
+     * Contructs a block object from the BitCoin wire format, starting offset bytes into the given array. The array
+     * may hold other data after the block, in which case the length must be given.
+     */
+    public Block(NetworkParameters params, byte[] payloadBytes, int offset, boolean parseLazy, boolean parseRetain,
+                 int length) throws ProtocolException {
+        super(params, payloadBytes, offset, parseLazy, parseRetain, length);
     }
 
     private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
@@ -128,7 +134,7 @@ public class Block extends Message {
         difficultyTarget = readUint32();
         nonce = readUint32();
 
-        hash = new Sha256Hash(Utils.reverseBytes(Utils.doubleDigest(bytes, offset, cursor)));
+        hash = new Sha256Hash(Utils.reverseBytes(Utils.doubleDigest(bytes, offset, HEADER_SIZE)));
 
         headerParsed = true;
         headerBytesValid = parseRetain;
@@ -140,7 +146,8 @@ public class Block extends Message {
             return;
 
         cursor = offset + HEADER_SIZE;
-        if (bytes.length == cursor) {
+        int end = length == UNKNOWN_LENGTH ? bytes.length : offset + length;
+        if (cursor == end) {
             // This message is just a header, it has no transactions.
             transactionsParsed = true;
             transactionBytesValid = false;
@@ -418,10 +425,16 @@ public class Block extends Message {
      * resulting bytes.
      */
     private Sha256Hash calculateHash() {
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.doubleSha256(serializeHeader(), 0, HEADER_SIZE, hash, 0);
+        return new Sha256Hash(Utils.reverseBytes(hash));
+    }
+
+    private byte[] serializeHeader() {
         try {
             ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(HEADER_SIZE);
             writeHeader(bos);
-            return new Sha256Hash(Utils.reverseBytes(doubleDigest(bos.toByteArray())));
+            return bos.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException(e); // Cannot happen.
         }
@@ -508,16 +521,26 @@ public class Block extends Message {
      */
     void solve() {
         maybeParseHeader();
-        while (true) {
-            try {
+        try {
+            BigInteger target = getDifficultyTargetAsInteger();
+            // Only the nonce changes from here on, so the first 64 bytes of the header need hashing just once.
+            byte[] header = serializeHeader();
+            Digests.HeaderMidstate midstate = new Digests.HeaderMidstate(header, 0);
+            byte[] hash = new byte[Digests.SHA256_LENGTH];
+            long nonce = getNonce();
+            while (true) {
+                Utils.uint32ToByteArrayLE(nonce, header, HEADER_SIZE - 4);
+                midstate.doubleSha256(header, 0, hash, 0);
                 // Is our proof of work valid yet?
-                if (checkProofOfWork(false))
+                if (new BigInteger(1, Utils.reverseBytes(hash)).compareTo(target) <= 0) {
+                    setNonce(nonce);
                     return;
+                }
                 // No, so increment the nonce and try again.
-                setNonce(getNonce() + 1);
-            } catch (VerificationException e) {
-                throw new RuntimeException(e); // Cannot happen.
+                nonce++;
             }
+        } catch (VerificationException e) {
+            throw new RuntimeException(e); // Cannot happen.
         }
     }
 
@@ -575,63 +598,23 @@ public class Block extends Message {
     }
 
     private Sha256Hash calculateMerkleRoot() {
-        List<byte[]> tree = buildMerkleTree();
-        return new Sha256Hash(tree.get(tree.size() - 1));
+        return MerkleTree.calculateRoot(getTransactionHashes());
     }
 
-    private List<byte[]> buildMerkleTree() {
-        // The Merkle root is based on a tree of hashes calculated from the transactions:
-        //
-        //     root
-        //      / \
-        //   A      B
-        //  / \    / \
-        // t1 t2 t3 t4
-        //
-        // The tree is represented as a list: t1,t2,t3,t4,A,B,root where each
-        // entry is a hash.
-        //
-        // The hashing algorithm is double SHA-256. The leaves are a hash of the serialized contents of the transaction.
-        // The interior nodes are hashes of the concenation of the two child hashes.
-        //
-        // This structure allows the creation of proof that a transaction was included into a block without having to
-        // provide the full block contents. Instead, you can provide only a Merkle branch. For example to prove tx2 was
-        // in a block you can just provide tx2, the hash(tx1) and B. Now the other party has everything they need to
-        // derive the root, which can be checked against the block header. These proofs aren't used right now but
-        // will be helpful later when we want to download partial block contents.
-        //
-        // Note that if the number of transactions is not even the last tx is repeated to make it so (see
-        // tx3 above). A tree with 5 transactions would look like this:
-        //
-        //         root
-        //        /    \
-        //       1      \
-        //     /   \     \
-        //    2     3    4
-        //  / \   / \   / \
-        // t1 t2 t3 t4 t5 t5
+    private List<Sha256Hash> getTransactionHashes() {
         maybeParseTransactions();
-        ArrayList<byte[]> tree = new ArrayList<byte[]>();
-        // Start by adding all the hashes of the transactions as leaves of the tree.
-        for (Transaction t : transactions) {
-            tree.add(t.getHash().getBytes());
-        }
-        int levelOffset = 0; // Offset in the list where the currently processed level starts.
-        // Step through each level, stopping when we reach the root (levelSize == 1).
-        for (int levelSize = transactions.size(); levelSize > 1; levelSize = (levelSize + 1) / 2) {
-            // For each pair of nodes on that level:
-            for (int left = 0; left < levelSize; left += 2) {
-                // The right hand node can be the same as the left hand, in the case where we don't have enough
-                // transactions.
-                int right = Math.min(left + 1, levelSize - 1);
-                byte[] leftBytes = Utils.reverseBytes(tree.get(levelOffset + left));
-                byte[] rightBytes = Utils.reverseBytes(tree.get(levelOffset + right));
-                tree.add(Utils.reverseBytes(doubleDigestTwoBuffers(leftBytes, 0, 32, rightBytes, 0, 32)));
-            }
-            // Move to the next level.
-            levelOffset += levelSize;
-        }
-        return tree;
+        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>(transactions.size());
+        for (Transaction t : transactions)
+            hashes.add(t.getHash());
+        return hashes;
+    }
+
+    /**
+     * Returns the merkle branch of the transaction at the given index, which is what it takes to check that the
+     * transaction is in a block that only the header is known of. See {@link MerkleTree#rootFromBranch}.
+     */
+    public List<Sha256Hash> getMerkleBranch(int index) {
+        return MerkleTree.getBranch(getTransactionHashes(), index);
     }
 
     private void checkTransactions() throws VerificationException {
@@ -0,0 +1,426 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Downloads block bodies from several peers at once.<p>
+ *
+ * A single download peer is still used to find out which blocks we need, from the inv messages it sends in reply to
+ * getblocks. Instead of fetching all of them from that peer, the announced hashes are split into windows of
+ * consecutive blocks and each window is requested with a getdata from whichever connected peer has the least work
+ * outstanding, so a fast peer ends up serving more windows than a slow one. Blocks arrive out of order and are held
+ * until every block before them has arrived, so {@link BlockChain#add(Block)} still sees them in chain order and no
+ * orphan blocks are created.<p>
+ *
+ * A window is requested from another peer if the peer it was given to sends none of its blocks for the stall timeout.
+ * This is checked by {@link #checkStalls()}, which {@link PeerGroup} calls regularly. The download speed of each peer
+ * is available from {@link #getStats(Peer)}.<p>
+ *
+ * To use it, pass a new scheduler to {@link PeerGroup#setDownloadScheduler(BlockDownloadScheduler)} before starting
+ * the block chain download.
+ */
+public class BlockDownloadScheduler {
+    private static final Logger log = LoggerFactory.getLogger(BlockDownloadScheduler.class);
+
+    /** The number of blocks requested from a peer in one getdata. */
+    public static final int DEFAULT_WINDOW_SIZE = 16;
+    /** How long a peer may go without sending any block of a window before the window is given to another peer. */
+    public static final long DEFAULT_STALL_TIMEOUT_MILLIS = 30 * 1000;
+    /** The number of windows that may be outstanding on one peer, so it has more work queued when one completes. */
+    public static final int MAX_WINDOWS_PER_PEER = 2;
+    /**
+     * How far ahead of the next block to be added to the chain we request blocks. This bounds the number of blocks
+     * held in memory whilst waiting for a slow peer to fill a gap.
+     */
+    public static final int MAX_BLOCKS_AHEAD = 1024;
+
+    /**
+     * The amount downloaded from a peer, as of the time {@link BlockDownloadScheduler#getStats(Peer)} was called.
+     */
+    public static class PeerStats {
+        private final long blocks;
+        private final long bytes;
+        private final long elapsedMillis;
+        private final int stalls;
+
+        PeerStats(long blocks, long bytes, long elapsedMillis, int stalls) {
+            this.blocks = blocks;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+            this.stalls = stalls;
+        }
+
+        /** Returns the number of requested blocks the peer sent us. */
+        public long getBlocks() {
+            return blocks;
+        }
+
+        /** Returns the size of the requested blocks the peer sent us. */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** Returns the number of windows that were taken away from this peer because it stalled. */
+        public int getStalls() {
+            return stalls;
+        }
+
+        /** Returns the blocks received per second since we first requested blocks from the peer. */
+        public double getBlocksPerSec() {
+            return elapsedMillis > 0 ? blocks * 1000.0 / elapsedMillis : 0;
+        }
+
+        /** Returns the bytes received per second since we first requested blocks from the peer. */
+        public double getBytesPerSec() {
+            return elapsedMillis > 0 ? bytes * 1000.0 / elapsedMillis : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d blocks, %.1f blocks/sec, %.0f bytes/sec, %d stalls", blocks, getBlocksPerSec(),
+                    getBytesPerSec(), stalls);
+        }
+    }
+
+    // A run of consecutive blocks requested from one peer.
+    private static class Window {
+        // The position of the first block in the order the blocks were scheduled.
+        final long firstIndex;
+        final List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+        // Blocks of this window that have not arrived yet, in chain order.
+        final Set<Sha256Hash> missing = new LinkedHashSet<Sha256Hash>();
+        // The peer the window was requested from, or null if it is waiting to be requested.
+        PeerState peer;
+        // When the window was requested or a block of it last arrived from its peer.
+        long lastProgressMillis;
+
+        Window(long firstIndex) {
+            this.firstIndex = firstIndex;
+        }
+    }
+
+    private static class PeerState {
+        final Peer peer;
+        final List<Window> windows = new ArrayList<Window>();
+        long blocks;
+        long bytes;
+        long firstRequestMillis;
+        int stalls;
+        // Set when a window was taken away from the peer. Cleared when the peer sends us a block.
+        boolean stalled;
+
+        PeerState(Peer peer) {
+            this.peer = peer;
+        }
+
+        double blocksPerSec(long now) {
+            return firstRequestMillis > 0 && now > firstRequestMillis ?
+                    blocks * 1000.0 / (now - firstRequestMillis) : 0;
+        }
+    }
+
+    private final BlockChain chain;
+    private final int windowSize;
+    private final long stallTimeoutMillis;
+
+    // The following fields are guarded by this object's lock. No peers or listeners are called whilst holding it.
+
+    // Hashes that were scheduled but not yet added to the chain, in chain order.
+    private final LinkedList<Sha256Hash> queue = new LinkedList<Sha256Hash>();
+    // The window of each scheduled block that has not arrived yet.
+    private final Map<Sha256Hash, Window> pending = new HashMap<Sha256Hash, Window>();
+    // Blocks that arrived but wait for earlier blocks before they can be added to the chain.
+    private final Map<Sha256Hash, Block> arrived = new HashMap<Sha256Hash, Block>();
+    // Windows waiting to be requested, ordered by their position.
+    private final LinkedList<Window> unassigned = new LinkedList<Window>();
+    private final Map<Peer, PeerState> peers = new LinkedHashMap<Peer, PeerState>();
+    // Blocks that were requested from more than one peer. The copy that arrives second is dropped, otherwise it would
+    // be added to the chain again and reported as downloaded twice.
+    private final Map<Sha256Hash, Boolean> requestedTwice = new LinkedHashMap<Sha256Hash, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Boolean> entry) {
+            // Copies from a peer that never delivered are not waited for forever.
+            return size() > MAX_BLOCKS_AHEAD;
+        }
+    };
+    // The positions of the next block to schedule and the next block to be added to the chain.
+    private long nextIndex;
+    private long addedIndex;
+    private Peer downloadPeer;
+
+    // Held whilst adding blocks to the chain, so blocks completed on different peer threads are added in order.
+    private final Object addLock = new Object();
+
+    public BlockDownloadScheduler(BlockChain chain) {
+        this(chain, DEFAULT_WINDOW_SIZE, DEFAULT_STALL_TIMEOUT_MILLIS);
+    }
+
+    public BlockDownloadScheduler(BlockChain chain, int windowSize, long stallTimeoutMillis) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        this.chain = chain;
+        this.windowSize = windowSize;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    /** Makes the given peer available for downloading blocks. */
+    public void addPeer(Peer peer) {
+        synchronized (this) {
+            if (peers.containsKey(peer))
+                return;
+            peers.put(peer, new PeerState(peer));
+        }
+        assignWindows();
+    }
+
+    /** Stops using the given peer, usually because it disconnected. Its outstanding windows go to other peers. */
+    public void removePeer(Peer peer) {
+        synchronized (this) {
+            PeerState state = peers.remove(peer);
+            if (state == null)
+                return;
+            if (state.windows.size() > 0)
+                log.info("Rescheduling {} windows of {}", state.windows.size(), peer);
+            for (Window window : state.windows)
+                unassign(window);
+            state.windows.clear();
+            if (peer == downloadPeer)
+                downloadPeer = null;
+        }
+        assignWindows();
+    }
+
+    /**
+     * Sets the peer that finds out which blocks we need. It is told about each block added to the chain, so listeners
+     * on it receive {@link PeerEventListener#onBlocksDownloaded(Peer, Block, int)}, and it is asked for more blocks
+     * when all scheduled blocks were added. May be null.
+     */
+    public synchronized void setDownloadPeer(Peer peer) {
+        downloadPeer = peer;
+    }
+
+    /**
+     * Schedules the download of the given blocks, which must be listed in chain order as they are in an inv sent in
+     * reply to getblocks. Blocks that are already scheduled are skipped.
+     */
+    public void schedule(List<Sha256Hash> hashes) {
+        synchronized (this) {
+            Window window = null;
+            for (Sha256Hash hash : hashes) {
+                if (pending.containsKey(hash) || arrived.containsKey(hash))
+                    continue;
+                if (window == null || window.hashes.size() >= windowSize) {
+                    window = new Window(nextIndex);
+                    unassigned.add(window);
+                }
+                window.hashes.add(hash);
+                window.missing.add(hash);
+                pending.put(hash, window);
+                queue.add(hash);
+                nextIndex++;
+            }
+        }
+        assignWindows();
+    }
+
+    /**
+     * Called by a peer when it receives a block. Returns false if the block was not scheduled, in which case the peer
+     * handles it as usual.
+     */
+    public boolean receive(Peer peer, Block block) {
+        Sha256Hash hash = block.getHash();
+        synchronized (this) {
+            Window window = pending.remove(hash);
+            if (window == null)
+                return requestedTwice.remove(hash) != null || arrived.containsKey(hash);
+            arrived.put(hash, block);
+            window.missing.remove(hash);
+            long now = System.currentTimeMillis();
+            PeerState state = peers.get(peer);
+            if (state != null) {
+                state.blocks++;
+                state.bytes += block.length != Message.UNKNOWN_LENGTH ? block.length : block.bitcoinSerialize().length;
+                state.stalled = false;
+            }
+            if (window.peer == state)
+                window.lastProgressMillis = now;
+            if (window.missing.isEmpty()) {
+                if (window.peer != null)
+                    window.peer.windows.remove(window);
+                else
+                    unassigned.remove(window);
+            }
+        }
+        addArrivedBlocks();
+        assignWindows();
+        return true;
+    }
+
+    /** Gives the windows of peers that sent nothing for the stall timeout to other peers. */
+    public void checkStalls() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (PeerState state : peers.values()) {
+                for (Iterator<Window> it = state.windows.iterator(); it.hasNext(); ) {
+                    Window window = it.next();
+                    if (now - window.lastProgressMillis < stallTimeoutMillis)
+                        continue;
+                    log.info("{} stalled, rescheduling {} blocks", state.peer, window.missing.size());
+                    it.remove();
+                    unassign(window);
+                    state.stalled = true;
+                    state.stalls++;
+                }
+            }
+        }
+        assignWindows();
+    }
+
+    /** Returns the download statistics of the given peer, or null if it is not used by this scheduler. */
+    public synchronized PeerStats getStats(Peer peer) {
+        PeerState state = peers.get(peer);
+        if (state == null)
+            return null;
+        long elapsed = state.firstRequestMillis > 0 ? System.currentTimeMillis() - state.firstRequestMillis : 0;
+        return new PeerStats(state.blocks, state.bytes, elapsed, state.stalls);
+    }
+
+    /** Returns the number of blocks that were scheduled but not yet added to the chain. */
+    public synchronized int getPendingBlocks() {
+        return queue.size();
+    }
+
+    // Puts a window back in the unassigned list, keeping the list ordered so the earliest blocks are requested first.
+    private void unassign(Window window) {
+        window.peer = null;
+        for (Sha256Hash hash : window.missing)
+            requestedTwice.put(hash, Boolean.TRUE);
+        ListIterator<Window> it = unassigned.listIterator();
+        while (it.hasNext()) {
+            if (it.next().firstIndex > window.firstIndex) {
+                it.previous();
+                break;
+            }
+        }
+        it.add(window);
+    }
+
+    // Picks the peer to request the next window from: the one with the fewest outstanding windows, and the fastest of
+    // those. Stalled peers are only used if every peer is stalled.
+    private PeerState pickPeer(long now) {
+        PeerState best = null;
+        boolean allStalled = true;
+        for (PeerState state : peers.values())
+            allStalled &= state.stalled;
+        for (PeerState state : peers.values()) {
+            if (state.windows.size() >= MAX_WINDOWS_PER_PEER || (state.stalled && !allStalled))
+                continue;
+            if (best == null || state.windows.size() < best.windows.size() ||
+                    (state.windows.size() == best.windows.size() && state.blocksPerSec(now) > best.blocksPerSec(now)))
+                best = state;
+        }
+        return best;
+    }
+
+    private void assignWindows() {
+        Map<Peer, GetDataMessage> requests = new LinkedHashMap<Peer, GetDataMessage>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            while (!unassigned.isEmpty() && unassigned.getFirst().firstIndex < addedIndex + MAX_BLOCKS_AHEAD) {
+                PeerState state = pickPeer(now);
+                if (state == null)
+                    break;
+                Window window = unassigned.removeFirst();
+                window.peer = state;
+                window.lastProgressMillis = now;
+                state.windows.add(window);
+                if (state.firstRequestMillis == 0)
+                    state.firstRequestMillis = now;
+                GetDataMessage getdata = requests.get(state.peer);
+                if (getdata == null) {
+                    getdata = new GetDataMessage(chain.params);
+                    requests.put(state.peer, getdata);
+                }
+                for (Sha256Hash hash : window.missing)
+                    getdata.addItem(new InventoryItem(InventoryItem.Type.Block, hash));
+            }
+        }
+        for (Map.Entry<Peer, GetDataMessage> entry : requests.entrySet()) {
+            try {
+                entry.getKey().sendMessage(entry.getValue());
+            } catch (IOException e) {
+                log.warn("Failed to request blocks from {}: {}", entry.getKey(), e.getMessage());
+                removePeer(entry.getKey());
+            }
+        }
+    }
+
+    // Adds the blocks at the front of the queue which have arrived to the chain.
+    private void addArrivedBlocks() {
+        synchronized (addLock) {
+            boolean added = false;
+            Peer notify;
+            while (true) {
+                Block block;
+                synchronized (this) {
+                    notify = downloadPeer;
+                    if (queue.isEmpty() || !arrived.containsKey(queue.getFirst()))
+                        break;
+                    block = arrived.remove(queue.removeFirst());
+                    addedIndex++;
+                }
+                add(block, notify);
+                added = true;
+            }
+            synchronized (this) {
+                if (!added || !queue.isEmpty() || notify == null)
+                    return;
+            }
+            // Everything we scheduled is in the chain. The peer does not always tell us there are more blocks, so ask.
+            try {
+                if (notify.getPeerBlockHeightDifference() > 0)
+                    notify.blockChainDownload(Sha256Hash.ZERO_HASH);
+            } catch (IOException e) {
+                log.warn("Failed to request more blocks from {}: {}", notify, e.getMessage());
+            }
+        }
+    }
+
+    private void add(Block block, Peer notify) {
+        try {
+            if (chain.add(block)) {
+                if (notify != null)
+                    notify.invokeOnBlocksDownloaded(block);
+            } else if (notify != null) {
+                // As in Peer, an unconnected block means there are blocks we did not hear about yet.
+                notify.blockChainDownload(block.getHash());
+            }
+        } catch (VerificationException e) {
+            log.warn("Block verification failed", e);
+        } catch (ScriptException e) {
+            log.warn("Script exception", e);
+        } catch (IOException e) {
+            log.warn("Failed to request more blocks from {}: {}", notify, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.store.HeightIndexedBlockStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds block locators, the lists of block hashes sent in getblocks and getheaders messages so that the remote peer
+ * can work out where our chain diverges from its own.<p>
+ *
+ * As suggested by the protocol specification, the locator holds the top 10 blocks of our chain, then doubles the step
+ * back for each following entry, and ends with the genesis block:
+ *
+ *   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
+ *
+ * So a re-org of depth N costs at most about 2N blocks to be downloaded again, using a locator with a length that is
+ * logarithmic in the height of the chain. Finding blocks deep in the chain needs a {@link HeightIndexedBlockStore}.
+ * With other stores the locator is built by walking back from the chain head, which stops after
+ * {@link #MAX_WALK} blocks.
+ */
+public class BlockLocator {
+    /** The number of blocks at the top of the chain that are all included. */
+    public static final int DENSE_ENTRIES = 10;
+    /** How far back we walk in stores that cannot look up blocks by height. */
+    public static final int MAX_WALK = 2016;
+
+    /**
+     * Returns the locator for the chain ending at the given head block. The first entry is the head and the last is
+     * always the genesis block.
+     */
+    public static List<Sha256Hash> create(NetworkParameters params, BlockStore store, StoredBlock head)
+            throws BlockStoreException {
+        List<Sha256Hash> locator = new ArrayList<Sha256Hash>();
+        int top = head.getHeight();
+        if (store instanceof HeightIndexedBlockStore) {
+            HeightIndexedBlockStore indexed = (HeightIndexedBlockStore) store;
+            int step = 1;
+            for (int height = top; height > 0; height -= step) {
+                Sha256Hash hash = height == top ? head.getHeader().getHash() : indexed.getHashAtHeight(height);
+                // The store may not know the lower part of the chain, for instance if it was started from a
+                // checkpoint. Anything below that would be unknown too.
+                if (hash == null)
+                    break;
+                locator.add(hash);
+                if (locator.size() >= DENSE_ENTRIES)
+                    step *= 2;
+            }
+        } else {
+            StoredBlock cursor = head;
+            int nextHeight = top;
+            int step = 1;
+            for (int walked = 0; cursor != null && cursor.getHeight() > 0 && walked <= MAX_WALK; walked++) {
+                if (cursor.getHeight() == nextHeight) {
+                    locator.add(cursor.getHeader().getHash());
+                    if (locator.size() >= DENSE_ENTRIES)
+                        step *= 2;
+                    nextHeight -= step;
+                }
+                cursor = cursor.getPrev(store);
+            }
+        }
+        locator.add(params.genesisBlock.getHash());
+        return locator;
+    }
+}
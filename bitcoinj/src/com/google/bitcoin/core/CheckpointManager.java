@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+
+/**
+ * Starts new block chains from a checkpoint rather than from the genesis block.<p>
+ *
+ * A new wallet has no transactions before the creation time of its earliest key, so there is no need to download and
+ * verify the headers before then. Instead a fresh {@link BlockStore} can be seeded with a checkpoint: a block known to
+ * be on the best chain, together with its height and chain work. {@link Peer#setFastCatchupTime(long)} then skips the
+ * block bodies between the checkpoint and the key creation time.<p>
+ *
+ * Checkpoints are the first block of a difficulty period, so the {@link BlockChain} can check the next difficulty
+ * transition without needing any of the blocks before the checkpoint.<p>
+ *
+ * Checkpoints are read from a text file with one checkpoint per line, giving the height, the chain work in hex and the
+ * 80 byte header in hex, separated by spaces. Lines starting with # are ignored. Lines can be produced from a synced
+ * block store with {@link #formatCheckpoint(StoredBlock)}.<p>
+ *
+ * No checkpoints ship with {@link NetworkParameters}: the built in prodNet checkpoints are hashes only. Until an app
+ * loads a checkpoint file with {@link #readCheckpoints(NetworkParameters, InputStream)}, {@link #checkpoint} does
+ * nothing and a new chain still downloads every header from the genesis block.
+ */
+public class CheckpointManager {
+    private static final Logger log = LoggerFactory.getLogger(CheckpointManager.class);
+
+    /**
+     * How far before the requested time the checkpoint must be. Block timestamps are only loosely tied to real time
+     * and key creation times may be a little off too.
+     */
+    public static final long TIME_MARGIN_SECS = 7 * 24 * 60 * 60;
+
+    /**
+     * Reads checkpoints in the format described above and adds them to the given parameters. Each header is hashed,
+     * so a checkpoint file cannot claim a hash that does not match its header.
+     */
+    public static void readCheckpoints(NetworkParameters params, InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+        String line;
+        int count = 0;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+            String[] parts = line.split("\\s+");
+            if (parts.length != 3)
+                throw new IOException("Bad checkpoint line: " + line);
+            try {
+                int height = Integer.parseInt(parts[0]);
+                BigInteger chainWork = new BigInteger(parts[1], 16);
+                byte[] headerBytes = Hex.decode(parts[2]);
+                if (headerBytes.length != Block.HEADER_SIZE)
+                    throw new IOException("Bad checkpoint header length at height " + height);
+                params.addCheckpoint(new StoredBlock(new Block(params, headerBytes), chainWork, height));
+                count++;
+            } catch (ProtocolException e) {
+                throw new IOException("Bad checkpoint header: " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                // Includes NumberFormatException.
+                throw new IOException("Bad checkpoint line: " + e.getMessage());
+            }
+        }
+        log.info("Read {} checkpoints", count);
+    }
+
+    /** Returns a line describing the given block that {@link #readCheckpoints} can read. */
+    public static String formatCheckpoint(StoredBlock block) {
+        byte[] header = block.getHeader().cloneAsHeader().bitcoinSerialize();
+        return block.getHeight() + " " + block.getChainWork().toString(16) + " " + new String(Hex.encode(header));
+    }
+
+    /**
+     * Returns the latest checkpoint created at least {@link #TIME_MARGIN_SECS} before the given time, or the genesis
+     * block if there is none.
+     */
+    public static StoredBlock getCheckpointBefore(NetworkParameters params, long timeSecs) {
+        if (params.checkpointBlocks != null) {
+            StoredBlock best = null;
+            for (StoredBlock checkpoint : params.checkpointBlocks.values()) {
+                if (checkpoint.getHeader().getTimeSeconds() <= timeSecs - TIME_MARGIN_SECS)
+                    best = checkpoint;
+            }
+            if (best != null)
+                return best;
+        }
+        try {
+            Block genesis = params.genesisBlock.cloneAsHeader();
+            return new StoredBlock(genesis, genesis.getWork(), 0);
+        } catch (VerificationException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    /**
+     * Moves the chain head of a new block store forward to the latest checkpoint before the given time, which is
+     * usually {@link Wallet#getEarliestKeyCreationTime()}. This must be done before a {@link BlockChain} is created
+     * on the store. Stores that already contain more than the genesis block are left alone, and so are all stores
+     * when no checkpoints were read into the parameters.
+     *
+     * @return the new chain head, or null if the store was not changed.
+     */
+    public static StoredBlock checkpoint(NetworkParameters params, BlockStore store, long timeSecs)
+            throws BlockStoreException {
+        if (store.getChainHead().getHeight() > 0)
+            return null;
+        StoredBlock checkpoint = getCheckpointBefore(params, timeSecs);
+        if (checkpoint.getHeight() == 0) {
+            if (params.checkpointBlocks == null || params.checkpointBlocks.isEmpty())
+                log.warn("No checkpoints loaded, the chain will be synced from the genesis block");
+            return null;
+        }
+        log.info("Starting the chain from the checkpoint at height {}: {}", checkpoint.getHeight(),
+                checkpoint.getHeader().getHashAsString());
+        store.put(checkpoint);
+        store.setChainHead(checkpoint);
+        return checkpoint;
+    }
+}
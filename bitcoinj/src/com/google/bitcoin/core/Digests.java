@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 and RIPEMD-160 hashing that writes into arrays given by the caller.<p>
+ *
+ * Looking up a MessageDigest costs more than hashing a block header with it, and we hash a lot of small things: block
+ * headers, merkle tree nodes, message checksums and keys. So every thread keeps its own digests and reuses them. The
+ * methods of {@link Utils} that return a new array use these too.
+ */
+public class Digests {
+    /** The length of a SHA-256 hash in bytes. */
+    public static final int SHA256_LENGTH = 32;
+    /** The length of a RIPEMD-160 hash in bytes. */
+    public static final int RIPEMD160_LENGTH = 20;
+
+    private static final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newSha256();
+        }
+    };
+
+    private static final ThreadLocal<RIPEMD160Digest> ripemd160 = new ThreadLocal<RIPEMD160Digest>() {
+        @Override
+        protected RIPEMD160Digest initialValue() {
+            return new RIPEMD160Digest();
+        }
+    };
+
+    // Holds the SHA-256 hash in the middle of sha256hash160.
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SHA256_LENGTH];
+        }
+    };
+
+    private Digests() {
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    private static MessageDigest sha256() {
+        MessageDigest digest = sha256.get();
+        digest.reset();
+        return digest;
+    }
+
+    private static void finish(MessageDigest digest, byte[] out, int outOffset) {
+        try {
+            digest.digest(out, outOffset, SHA256_LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Cannot happen, there is always room for the hash.
+        }
+    }
+
+    /** Writes the SHA-256 hash of the given byte range to out, starting at outOffset. */
+    public static void sha256(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest digest = sha256();
+        digest.update(input, offset, length);
+        finish(digest, out, outOffset);
+    }
+
+    /**
+     * Writes SHA256(SHA256(byte range)) to out, starting at outOffset. This is standard procedure in BitCoin. The
+     * hash is in big endian form. The output may overlap the input.
+     */
+    public static void doubleSha256(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest digest = sha256();
+        digest.update(input, offset, length);
+        finish(digest, out, outOffset);
+        digest.update(out, outOffset, SHA256_LENGTH);
+        finish(digest, out, outOffset);
+    }
+
+    /** Writes SHA256(SHA256(byte range 1 + byte range 2)) to out, starting at outOffset. */
+    public static void doubleSha256(byte[] input1, int offset1, int length1, byte[] input2, int offset2, int length2,
+                                    byte[] out, int outOffset) {
+        MessageDigest digest = sha256();
+        digest.update(input1, offset1, length1);
+        digest.update(input2, offset2, length2);
+        finish(digest, out, outOffset);
+        digest.update(out, outOffset, SHA256_LENGTH);
+        finish(digest, out, outOffset);
+    }
+
+    /** Writes RIPEMD160(SHA256(byte range)) to out, starting at outOffset. This is used in Address calculations. */
+    public static void sha256hash160(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        byte[] sha256 = scratch.get();
+        sha256(input, offset, length, sha256, 0);
+        RIPEMD160Digest digest = ripemd160.get();
+        digest.update(sha256, 0, SHA256_LENGTH);
+        digest.doFinal(out, outOffset);
+    }
+
+    /**
+     * The SHA-256 state after the first 64 bytes of an 80 byte block header. Those bytes hold the version, the
+     * previous block hash and most of the merkle root, so the state stays the same while only the time, the difficulty
+     * target or the nonce change, which is what solving a block does. Hashing a header from here skips one of the
+     * three rounds of SHA-256 compression it takes.<p>
+     *
+     * A HeaderMidstate is not thread safe.
+     */
+    public static class HeaderMidstate {
+        private static final int MIDSTATE_LENGTH = 64;
+
+        // Null if the digest can't be cloned, in which case we hash whole headers.
+        private final MessageDigest prefix;
+
+        /** Hashes the first 64 bytes of the header starting at offset in the given array. */
+        public HeaderMidstate(byte[] header, int offset) {
+            MessageDigest digest = newSha256();
+            digest.update(header, offset, MIDSTATE_LENGTH);
+            try {
+                // Check once that it can be done, so doubleSha256 does not have to.
+                digest.clone();
+            } catch (CloneNotSupportedException e) {
+                digest = null;
+            }
+            prefix = digest;
+        }
+
+        /**
+         * Writes SHA256(SHA256(header)) to out, starting at outOffset. The first 64 bytes of the header must be the
+         * same as the ones this midstate was made from.
+         */
+        public void doubleSha256(byte[] header, int offset, byte[] out, int outOffset) {
+            if (prefix == null) {
+                Digests.doubleSha256(header, offset, Block.HEADER_SIZE, out, outOffset);
+                return;
+            }
+            MessageDigest digest;
+            try {
+                digest = (MessageDigest) prefix.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);  // Cannot happen, we checked above.
+            }
+            digest.update(header, offset + MIDSTATE_LENGTH, Block.HEADER_SIZE - MIDSTATE_LENGTH);
+            finish(digest, out, outOffset);
+            MessageDigest second = sha256();
+            second.update(out, outOffset, SHA256_LENGTH);
+            finish(second, out, outOffset);
+        }
+    }
+}
@@ -19,19 +19,13 @@ package com.google.bitcoin.core;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.asn1.sec.SECNamedCurves;
 import org.bouncycastle.asn1.x9.X9ECParameters;
-import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
-import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
 import org.bouncycastle.crypto.params.ECDomainParameters;
-import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.crypto.signers.ECDSASigner;
 import org.bouncycastle.asn1.sec.SECNamedCurves;
 import org.bouncycastle.asn1.x9.X9ECParameters;
-import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
-import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
 import org.bouncycastle.crypto.params.ECDomainParameters;
-import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.crypto.signers.ECDSASigner;
@@ -50,7 +44,10 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.nio.charset.Charset;
 
 // TODO: This class is quite a mess by now. Once users are migrated away from Java serialization for the wallets,
@@ -67,6 +64,9 @@ public class ECKey implements Serializable {
     public static final SecureRandom secureRandom;
     public static final long serialVersionUID = -728224901792295832L;
 
+    // Batches smaller than twice this are not worth splitting across threads.
+    private static final int BATCH_SLICE = 16;
+
     static {
         // All clients must agree on the curve to use by agreement. Bitcoin uses secp256k1.
         X9ECParameters params = SECNamedCurves.getByName("secp256k1");
@@ -88,15 +88,15 @@ public class ECKey implements Serializable {
 
     /** Generates an entirely new keypair. */
     public ECKey() {
-        ECKeyPairGenerator generator = new ECKeyPairGenerator();
-        ECKeyGenerationParameters keygenParams = new ECKeyGenerationParameters(ecParams, secureRandom);
-        generator.init(keygenParams);
-        AsymmetricCipherKeyPair keypair = generator.generateKeyPair();
-        ECPrivateKeyParameters privParams = (ECPrivateKeyParameters) keypair.getPrivate();
-        ECPublicKeyParameters pubParams = (ECPublicKeyParameters) keypair.getPublic();
-        priv = privParams.getD();
+        // Pick the private key the way ECKeyPairGenerator does, but derive the public key with the generator table.
+        BigInteger n = ecParams.getN();
+        BigInteger d;
+        do {
+            d = new BigInteger(n.bitLength(), secureRandom);
+        } while (d.signum() == 0 || d.compareTo(n) >= 0);
+        priv = d;
         // The public key is an encoded point on the elliptic curve. It has no meaning independent of the curve.
-        pub = pubParams.getQ().getEncoded();
+        pub = publicKeyFromPrivate(d);
         creationTimeSeconds = Utils.now().getTime() / 1000;
     }
 
@@ -180,7 +180,7 @@ public class ECKey implements Serializable {
      * new BigInteger(1, bytes);</tt>
      */
     public static byte[] publicKeyFromPrivate(BigInteger privKey) {
-        return ecParams.getG().multiply(privKey).getEncoded();
+        return GeneratorTable.multiply(privKey).getEncoded();
     }
 
 
@@ -189,15 +189,61 @@ public class ECKey implements Serializable {
      * new BigInteger(1, bytes);</tt>
      */
     public static byte[] publicKeyCompressed(BigInteger privKey) {
-        ECPoint point = ecParams.getG();
-
-        ECPoint dd = point.multiply(privKey);
+        ECPoint dd = GeneratorTable.multiply(privKey);
 
         dd = ecParams.getCurve().createPoint(dd.getX().toBigInteger(), dd.getY().toBigInteger(), true);
 
         return dd.getEncoded();
     }
 
+    /**
+     * Creates keys from the given private keys. The public keys and their hashes are derived on all processors, which
+     * is a lot quicker than creating the keys one by one when importing many of them.
+     */
+    public static List<ECKey> fromPrivateKeys(List<BigInteger> privKeys) {
+        if (WorkerPool.THREADS > 1 && privKeys.size() >= BATCH_SLICE * 2)
+            return fromPrivateKeys(privKeys, WorkerPool.get(), WorkerPool.THREADS);
+        return fromPrivateKeys(privKeys, null, 1);
+    }
+
+    static List<ECKey> fromPrivateKeys(List<BigInteger> privKeys, ExecutorService executor, int slices) {
+        final BigInteger[] privs = privKeys.toArray(new BigInteger[privKeys.size()]);
+        final ECKey[] keys = new ECKey[privs.length];
+        if (slices <= 1) {
+            derive(privs, keys, 0, privs.length);
+        } else {
+            int sliceSize = (privs.length + slices - 1) / slices;
+            List<Runnable> tasks = new ArrayList<Runnable>();
+            for (int start = 0; start < privs.length; start += sliceSize) {
+                final int from = start;
+                final int to = Math.min(start + sliceSize, privs.length);
+                tasks.add(new Runnable() {
+                    public void run() {
+                        derive(privs, keys, from, to);
+                    }
+                });
+            }
+            WorkerPool.runAll(executor, tasks);
+        }
+        return new ArrayList<ECKey>(Arrays.asList(keys));
+    }
+
+    private static void derive(BigInteger[] privs, ECKey[] keys, int from, int to) {
+        for (int i = from; i < to; i++) {
+            keys[i] = new ECKey(privs[i]);
+            // Work out the address too, that is what the keys are usually wanted for.
+            keys[i].getPubKeyHash();
+        }
+    }
+
+    /** Returns the compressed form of an uncompressed public key: the x coordinate and whether y is odd. */
+    private static byte[] compressPubKey(byte[] pubKey) {
+        byte[] compressed = new byte[33];
+        compressed[0] = (byte) ((pubKey[64] & 1) == 0 ? 0x02 : 0x03);
+        System.arraycopy(pubKey, 1, compressed, 1, 32);
+        return compressed;
+    }
+
 
     /** Gets the hash160 form of the public key (as seen in addresses). */
     public byte[] getPubKeyHash() {
@@ -209,7 +255,7 @@ public class ECKey implements Serializable {
 
     /** Gets the hash160 form of the public key (as seen in addresses). */
     public byte[] getCompressedPubKeyHash() {
-        return Utils.sha256hash160(publicKeyCompressed(priv));
+        return Utils.sha256hash160(getPubKeyCompressed());
     }
 
     /**
@@ -225,6 +271,9 @@ public class ECKey implements Serializable {
      * as the pubKeyHash/address.
      */
     public byte[] getPubKeyCompressed() {
+        // Compressing the public key we already have saves a point multiply.
+        if (pub != null && pub.length == 65 && pub[0] == 0x04)
+            return compressPubKey(pub);
         return publicKeyCompressed(priv);
     }
 
@@ -401,13 +450,19 @@ public class ECKey implements Serializable {
 
 
     /**
-     * Verifies the given ASN.1 encoded ECDSA signature against a hash using the public key.
+     * Verifies the given ASN.1 encoded ECDSA signature against a hash using the public key. Good signatures are
+     * remembered by the default {@link SignatureCache}, so verifying one again is quick.
      *
      * @param data      Hash of the data to verify.
      * @param signature ASN.1 encoded signature.
      * @param pub       The public key bytes to use.
      */
     public static boolean verify(byte[] data, byte[] signature, byte[] pub) {
+        return SignatureCache.getDefault().verify(data, signature, pub);
+    }
+
+    /** Verifies the signature without looking in or adding to the {@link SignatureCache}. */
+    static boolean verifyUncached(byte[] data, byte[] signature, byte[] pub) {
         ECDSASigner signer = new ECDSASigner();
         ECPublicKeyParameters params = new ECPublicKeyParameters(ecParams.getCurve().decodePoint(pub), ecParams);
         signer.init(false, params);
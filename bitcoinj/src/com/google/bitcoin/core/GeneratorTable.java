@@ -0,0 +1,111 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+
+/**
+ * Multiplies the generator of the curve by private keys, which is what deriving a public key does.<p>
+ *
+ * A general point multiply doubles the point once for every bit of the key. The generator never changes, so all the
+ * doublings can be done once up front: the table holds j * 16<sup>i</sup> * G for every 4 bit window i of a 256 bit
+ * key and every window value j. A multiply is then one point addition per window, 64 in all, and no doublings.<p>
+ *
+ * Bouncy Castle adds points in affine coordinates, which costs a modular inverse per addition. Here the sum is kept
+ * in Jacobian coordinates instead, so only the final conversion back needs an inverse.
+ */
+class GeneratorTable {
+    private static final int WINDOW_BITS = 4;
+    private static final int WINDOWS = 256 / WINDOW_BITS;
+    private static final int WINDOW_MASK = (1 << WINDOW_BITS) - 1;
+
+    private static final BigInteger P = ((ECCurve.Fp) ECKey.ecParams.getCurve()).getQ();
+
+    // x[i][j - 1], y[i][j - 1] are the affine coordinates of j * 2^(WINDOW_BITS * i) * G. Built on first use.
+    private static BigInteger[][] x, y;
+
+    private GeneratorTable() {
+    }
+
+    private static synchronized void buildTable() {
+        if (x != null)
+            return;
+        BigInteger[][] tx = new BigInteger[WINDOWS][WINDOW_MASK];
+        BigInteger[][] ty = new BigInteger[WINDOWS][WINDOW_MASK];
+        ECPoint base = ECKey.ecParams.getG();
+        for (int i = 0; i < WINDOWS; i++) {
+            ECPoint point = base;
+            for (int j = 0; j < WINDOW_MASK; j++) {
+                if (j > 0)
+                    point = point.add(base);
+                tx[i][j] = point.getX().toBigInteger();
+                ty[i][j] = point.getY().toBigInteger();
+            }
+            // The next window starts at 16 times this one's base, which is one more than its last entry.
+            base = point.add(base);
+        }
+        y = ty;
+        x = tx;
+    }
+
+    /** Returns k * G. */
+    static ECPoint multiply(BigInteger k) {
+        if (k.signum() <= 0 || k.compareTo(ECKey.ecParams.getN()) >= 0)
+            return ECKey.ecParams.getG().multiply(k);
+        buildTable();
+        // The sum so far, in Jacobian coordinates: the affine point is (X / Z^2, Y / Z^3). Null while it is zero.
+        BigInteger X = null, Y = null, Z = null;
+        for (int i = 0; i < WINDOWS; i++) {
+            int window = 0;
+            for (int bit = WINDOW_BITS - 1; bit >= 0; bit--)
+                window = (window << 1) | (k.testBit(i * WINDOW_BITS + bit) ? 1 : 0);
+            if (window == 0)
+                continue;
+            BigInteger x2 = x[i][window - 1], y2 = y[i][window - 1];
+            if (X == null) {
+                X = x2;
+                Y = y2;
+                Z = BigInteger.ONE;
+                continue;
+            }
+            // Adds the affine point (x2, y2) to (X, Y, Z).
+            BigInteger zz = Z.multiply(Z).mod(P);
+            BigInteger h = x2.multiply(zz).subtract(X).mod(P);
+            BigInteger r = y2.multiply(zz).mod(P).multiply(Z).subtract(Y).mod(P);
+            if (h.signum() == 0) {
+                // The sum so far equals the table point or its negation. The sum is less than 16^i * G and k is
+                // less than the order of the curve, so this can't happen, but don't give a wrong answer if it does.
+                return ECKey.ecParams.getG().multiply(k);
+            }
+            BigInteger hh = h.multiply(h).mod(P);
+            BigInteger hhh = hh.multiply(h).mod(P);
+            BigInteger v = X.multiply(hh).mod(P);
+            BigInteger newX = r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)).mod(P);
+            Y = r.multiply(v.subtract(newX)).subtract(Y.multiply(hhh)).mod(P);
+            X = newX;
+            Z = Z.multiply(h).mod(P);
+        }
+        BigInteger zInverse = Z.modInverse(P);
+        BigInteger zInverse2 = zInverse.multiply(zInverse).mod(P);
+        BigInteger affineX = X.multiply(zInverse2).mod(P);
+        BigInteger affineY = Y.multiply(zInverse2).mod(P).multiply(zInverse).mod(P);
+        return ECKey.ecParams.getCurve().createPoint(affineX, affineY, false);
+    }
+}
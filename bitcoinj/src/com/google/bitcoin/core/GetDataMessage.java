@@ -40,6 +40,11 @@ public class GetDataMessage extends ListMessage {
         super(params, msg, parseLazy, parseRetain, length);
     }
 
+    public GetDataMessage(NetworkParameters params, byte[] msg, int offset, boolean parseLazy, boolean parseRetain,
+                          int length) throws ProtocolException {
+        super(params, msg, offset, parseLazy, parseRetain, length);
+    }
+
     public GetDataMessage(NetworkParameters params) {
         super(params);
     }
@@ -42,6 +42,11 @@ public class InventoryMessage extends ListMessage {
         super(params, msg, parseLazy, parseRetain, length);
     }
 
+    public InventoryMessage(NetworkParameters params, byte[] msg, int offset, boolean parseLazy, boolean parseRetain,
+                            int length) throws ProtocolException {
+        super(params, msg, offset, parseLazy, parseRetain, length);
+    }
+
     public InventoryMessage(NetworkParameters params) {
         super(params);
     }
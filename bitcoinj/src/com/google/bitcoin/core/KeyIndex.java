@@ -0,0 +1,98 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hash table over a wallet keychain, keyed by some byte[] derived from each key (the pubkey hash, the compressed
+ * pubkey hash or the raw pubkey). It is used by the {@link Wallet} to avoid walking the whole keychain and
+ * re-deriving key material on every lookup.<p>
+ *
+ * The keychain is a public list that callers sometimes modify directly, so the index does not rely on being told
+ * about changes. Instead it remembers how many keys it has seen and which key it saw last. Keys appended since the
+ * last lookup are indexed incrementally; any other kind of change (removal, clear and re-add) causes a rebuild.
+ * Derived bytes are only computed for a key the first time a lookup of this kind is made, so keys that derive their
+ * public part lazily are not forced to do so just by being added to a wallet.<p>
+ *
+ * This class is not thread safe, callers must hold the wallet lock.
+ */
+abstract class KeyIndex {
+    private final Map<ByteArrayKey, ECKey> keys = new HashMap<ByteArrayKey, ECKey>();
+    private int indexedCount;
+    private ECKey lastIndexed;
+
+    /**
+     * Returns the bytes this index is keyed by for the given key, or null if the key cannot be looked up this way.
+     */
+    abstract byte[] keyBytes(ECKey key);
+
+    /**
+     * Returns the first key in the keychain whose derived bytes equal the given bytes, or null if there is none.
+     */
+    ECKey find(List<ECKey> keychain, byte[] bytes) {
+        update(keychain);
+        return keys.get(new ByteArrayKey(bytes));
+    }
+
+    private void update(List<ECKey> keychain) {
+        int size = keychain.size();
+        if (size < indexedCount || (indexedCount > 0 && keychain.get(indexedCount - 1) != lastIndexed)) {
+            // Keys were removed or replaced, start again.
+            keys.clear();
+            indexedCount = 0;
+            lastIndexed = null;
+        }
+        for (int i = indexedCount; i < size; i++) {
+            ECKey key = keychain.get(i);
+            byte[] bytes = keyBytes(key);
+            if (bytes != null) {
+                ByteArrayKey k = new ByteArrayKey(bytes);
+                // Keep the first match, as a linear search of the keychain would.
+                if (!keys.containsKey(k))
+                    keys.put(k, key);
+            }
+            lastIndexed = key;
+        }
+        indexedCount = size;
+    }
+
+    /** Wraps a byte[] so that equals and hashCode compare the contents. */
+    private static class ByteArrayKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        ByteArrayKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ByteArrayKey)) return false;
+            return Arrays.equals(bytes, ((ByteArrayKey) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -41,7 +41,12 @@ public abstract class ListMessage extends Message {
 
     public ListMessage(NetworkParameters params, byte[] msg, boolean parseLazy, boolean parseRetain, int length)
             throws ProtocolException {
-        super(params, msg, 0, parseLazy, parseRetain, length);
+        this(params, msg, 0, parseLazy, parseRetain, length);
+    }
+
+    public ListMessage(NetworkParameters params, byte[] msg, int offset, boolean parseLazy, boolean parseRetain,
+                       int length) throws ProtocolException {
+        super(params, msg, offset, parseLazy, parseRetain, length);
     }
 
 
@@ -75,7 +80,11 @@ public abstract class ListMessage extends Message {
         arrayLen = readVarInt();
         if (arrayLen > MAX_INVENTORY_ITEMS)
             throw new ProtocolException("Too many items in INV message: " + arrayLen);
-        length = (int) (cursor - offset + (arrayLen * InventoryItem.MESSAGE_LENGTH));
+        int parsedLength = (int) (cursor - offset + (arrayLen * InventoryItem.MESSAGE_LENGTH));
+        // The array may go on past the end of the message, so check against the length we were given.
+        if (length != UNKNOWN_LENGTH && parsedLength > length)
+            throw new ProtocolException("Ran off the end of the INV");
+        length = parsedLength;
     }
 
     @Override
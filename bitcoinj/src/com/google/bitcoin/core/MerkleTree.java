@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Calculates merkle roots and branches of transaction hashes. The tree looks like this, where the last node of a level
+ * with an odd number of nodes is paired with itself:<p>
+ *
+ * <pre>
+ *        root
+ *       /    \
+ *     A        B
+ *    / \      / \
+ *   1   2    3   3
+ *  / \ / \  / \
+ * t1 t2 t3 t4 t5 t5
+ * </pre>
+ *
+ * All hashes of a tree live in one array. Each level is written over the one below it, so the two children of a node
+ * are always next to each other and get hashed straight out of the array. Large trees are split into subtrees that are
+ * hashed on several threads.
+ */
+public class MerkleTree {
+    private static final int HASH = Digests.SHA256_LENGTH;
+    // Below this many leaves handing work to other threads costs more than it saves.
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    private MerkleTree() {
+    }
+
+    /** Returns the merkle root of the given transaction hashes. */
+    public static Sha256Hash calculateRoot(List<Sha256Hash> hashes) {
+        if (WorkerPool.THREADS > 1 && hashes.size() >= PARALLEL_THRESHOLD)
+            return calculateRoot(hashes, WorkerPool.get(), WorkerPool.THREADS);
+        byte[] tree = leaves(hashes);
+        for (int size = hashes.size(); size > 1; )
+            size = reduce(tree, 0, size);
+        return node(tree, 0);
+    }
+
+    /** Calculates the root by splitting the tree into at least the given number of subtrees, run on the executor. */
+    static Sha256Hash calculateRoot(List<Sha256Hash> hashes, ExecutorService executor, int slices) {
+        final byte[] tree = leaves(hashes);
+        int count = hashes.size();
+        // Subtrees must hold a power of two leaves so that their roots are nodes of the whole tree.
+        int levels = 0;
+        while ((2 << levels) * slices <= count)
+            levels++;
+        final int subtreeLevels = levels;
+        final int subtreeSize = 1 << levels;
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int start = 0; start < count; start += subtreeSize) {
+            final int first = start;
+            final int size = Math.min(subtreeSize, count - start);
+            tasks.add(new Runnable() {
+                public void run() {
+                    // A short last subtree keeps pairing its top node with itself, as the whole tree would.
+                    int nodes = size;
+                    for (int level = 0; level < subtreeLevels; level++)
+                        nodes = reduce(tree, first, nodes);
+                }
+            });
+        }
+        WorkerPool.runAll(executor, tasks);
+        // Move the subtree roots next to each other and finish the tree from there.
+        int roots = tasks.size();
+        for (int i = 1; i < roots; i++)
+            System.arraycopy(tree, i * subtreeSize * HASH, tree, i * HASH, HASH);
+        for (int size = roots; size > 1; )
+            size = reduce(tree, 0, size);
+        return node(tree, 0);
+    }
+
+    /**
+     * Returns the hashes needed to get from the transaction at the given index to the merkle root, starting with the
+     * one it is paired with. See {@link #rootFromBranch(Sha256Hash, List, int)}.
+     */
+    public static List<Sha256Hash> getBranch(List<Sha256Hash> hashes, int index) {
+        if (index < 0 || index >= hashes.size())
+            throw new IndexOutOfBoundsException("No transaction " + index + " in " + hashes.size());
+        byte[] tree = leaves(hashes);
+        List<Sha256Hash> branch = new ArrayList<Sha256Hash>();
+        for (int size = hashes.size(); size > 1; size = (size + 1) / 2) {
+            branch.add(node(tree, Math.min(index ^ 1, size - 1)));
+            reduce(tree, 0, size);
+            index >>= 1;
+        }
+        return branch;
+    }
+
+    /**
+     * Returns the merkle root of a tree that has the given transaction hash at the given index and the given branch,
+     * as returned by {@link #getBranch(List, int)}. If it matches the root in a block header, the transaction is in
+     * that block.
+     */
+    public static Sha256Hash rootFromBranch(Sha256Hash hash, List<Sha256Hash> branch, int index) {
+        byte[] pair = new byte[HASH * 2];
+        reverseInto(hash.getBytes(), pair, 0);
+        for (Sha256Hash other : branch) {
+            // The node goes on the left or the right of its pair, and the hash of both in its place.
+            if ((index & 1) == 0) {
+                reverseInto(other.getBytes(), pair, HASH);
+            } else {
+                System.arraycopy(pair, 0, pair, HASH, HASH);
+                reverseInto(other.getBytes(), pair, 0);
+            }
+            Digests.doubleSha256(pair, 0, HASH * 2, pair, 0);
+            index >>= 1;
+        }
+        return node(pair, 0);
+    }
+
+    /** Puts the hashes into one array, in the byte order they get hashed in. */
+    private static byte[] leaves(List<Sha256Hash> hashes) {
+        byte[] tree = new byte[hashes.size() * HASH];
+        for (int i = 0; i < hashes.size(); i++)
+            reverseInto(hashes.get(i).getBytes(), tree, i * HASH);
+        return tree;
+    }
+
+    /**
+     * Hashes the given number of nodes starting at index first into their parents, which are written over the start
+     * of the nodes. Returns the number of parents.
+     */
+    private static int reduce(byte[] tree, int first, int size) {
+        int start = first * HASH;
+        int pairs = size / 2;
+        // Parent i never overwrites a node that comes after pair i, so this can go left to right.
+        for (int i = 0; i < pairs; i++)
+            Digests.doubleSha256(tree, start + i * 2 * HASH, HASH * 2, tree, start + i * HASH);
+        if ((size & 1) == 1) {
+            // An odd node out is paired with itself.
+            int last = start + (size - 1) * HASH;
+            Digests.doubleSha256(tree, last, HASH, tree, last, HASH, tree, start + pairs * HASH);
+        }
+        return (size + 1) / 2;
+    }
+
+    private static Sha256Hash node(byte[] tree, int index) {
+        byte[] hash = new byte[HASH];
+        for (int i = 0; i < HASH; i++)
+            hash[i] = tree[index * HASH + HASH - 1 - i];
+        return new Sha256Hash(hash);
+    }
+
+    private static void reverseInto(byte[] hash, byte[] tree, int offset) {
+        for (int i = 0; i < HASH; i++)
+            tree[offset + i] = hash[HASH - 1 - i];
+    }
+}
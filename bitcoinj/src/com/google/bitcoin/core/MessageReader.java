@@ -0,0 +1,143 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads messages from a stream, such as a socket, through a buffer.<p>
+ *
+ * {@link BitcoinSerializer#deserialize(InputStream)} reads the stream a byte at a time until it finds the magic bytes,
+ * then reads the header and the payload into arrays of their own. A MessageReader instead reads as much as the stream
+ * has into one buffer, looks for the magic and the header in there, and parses messages where they lie in the buffer
+ * without copying them out. Only messages larger than the buffer get an array of their own.<p>
+ *
+ * When the serializer parses eagerly, messages are done with the buffer by the time they are returned and it is
+ * reused for the whole stream. In lazy parse or retain mode messages keep referring to it, so once a message has been
+ * handed out the rest of the stream is read into a new buffer instead.<p>
+ *
+ * A MessageReader is not thread safe. It is meant to be used by the one thread that reads the stream.
+ */
+public class MessageReader {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final BitcoinSerializer serializer;
+    private final InputStream in;
+    private final int magic;
+    // The bytes between position and limit have been read from the stream but not yet used.
+    private ByteBuffer buffer;
+    // Whether a message that was handed out may still refer to the buffer.
+    private boolean bufferShared;
+
+    public MessageReader(NetworkParameters params, BitcoinSerializer serializer, InputStream in) {
+        this(params, serializer, in, DEFAULT_BUFFER_SIZE);
+    }
+
+    MessageReader(NetworkParameters params, BitcoinSerializer serializer, InputStream in, int bufferSize) {
+        this.serializer = serializer;
+        this.in = in;
+        this.magic = (int) params.packetMagic;
+        buffer = ByteBuffer.allocate(bufferSize);
+        buffer.flip();
+    }
+
+    /**
+     * Reads the next message from the stream, waiting for it to arrive. If deduping is enabled in the serializer and
+     * the message was seen before, returns null.
+     *
+     * @throws IOException if the stream ends or fails.
+     * @throws ProtocolException if the message could not be parsed. The reader skips it and can go on reading.
+     */
+    public Message readMessage() throws IOException, ProtocolException {
+        seekPastMagicBytes();
+        int headerLength = serializer.getHeaderLength() - 4;
+        fill(headerLength);
+        BitcoinSerializer.BitcoinPacketHeader header =
+                serializer.deserializeHeader(buffer.array(), buffer.position());
+        buffer.position(buffer.position() + headerLength);
+
+        if (header.size > buffer.capacity()) {
+            // Too big for the buffer, so it gets an array of its own.
+            byte[] payload = new byte[header.size];
+            int buffered = Math.min(buffer.remaining(), header.size);
+            buffer.get(payload, 0, buffered);
+            readFully(payload, buffered);
+            return serializer.deserializePayload(header, payload, 0);
+        }
+
+        fill(header.size);
+        int offset = buffer.position();
+        buffer.position(offset + header.size);
+        if (serializer.isParseLazyMode() || serializer.isParseRetainMode())
+            bufferShared = true;
+        return serializer.deserializePayload(header, buffer.array(), offset);
+    }
+
+    /**
+     * Skips everything up to and including the next packet magic. Satoshi's implementation ignores garbage before
+     * the magic bytes and so do we, but nearly always the magic is right where the last message ended.
+     */
+    private void seekPastMagicBytes() throws IOException {
+        byte first = (byte) (magic >>> 24);
+        while (true) {
+            fill(4);
+            byte[] buf = buffer.array();
+            int end = buffer.limit() - 3;
+            for (int i = buffer.position(); i < end; i++) {
+                // Only compare all four bytes where the first one matches.
+                if (buf[i] == first && buffer.getInt(i) == magic) {
+                    buffer.position(i + 4);
+                    return;
+                }
+            }
+            // The last three bytes could be the start of a magic that is not all here yet.
+            buffer.position(end);
+        }
+    }
+
+    /** Reads from the stream until at least the given number of unused bytes are in the buffer. */
+    private void fill(int needed) throws IOException {
+        if (buffer.remaining() >= needed)
+            return;
+        if (bufferShared) {
+            ByteBuffer fresh = ByteBuffer.allocate(buffer.capacity());
+            fresh.put(buffer);
+            buffer = fresh;
+            bufferShared = false;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < needed) {
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read == -1)
+                throw new IOException("Socket is disconnected");
+            buffer.position(buffer.position() + read);
+        }
+        buffer.flip();
+    }
+
+    private void readFully(byte[] bytes, int offset) throws IOException {
+        while (offset < bytes.length) {
+            int read = in.read(bytes, offset, bytes.length - offset);
+            if (read == -1)
+                throw new IOException("Socket is disconnected");
+            offset += read;
+        }
+    }
+}
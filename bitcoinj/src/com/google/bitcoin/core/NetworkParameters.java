@@ -21,6 +21,10 @@ import org.bouncycastle.util.encoders.Hex;
 import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * NetworkParameters contains the data needed for working with an instantiation of a BitCoin chain.
@@ -51,7 +55,7 @@ public class NetworkParameters implements Serializable {
     public static final String ID_TESTNET = "org.bitcoin.test";
 
 
-    // TODO: Seed nodes and checkpoint values should be here as well.
+    // TODO: Seed nodes should be here as well.
 
     /**
      * Genesis block for this chain.<p>
@@ -88,6 +92,19 @@ public class NetworkParameters implements Serializable {
      * signatures using it.
      */
     public byte[] alertSigningKey;
+    /**
+     * Hashes of blocks that are known to be on the best chain, keyed by height. A chain that contains one of these
+     * blocks is trusted up to that height, so its headers do not have to be checked again. This is null for
+     * deserialized parameters.
+     */
+    public transient Map<Integer, Sha256Hash> checkpoints = new HashMap<Integer, Sha256Hash>();
+    /**
+     * Checkpoints that a new chain can be started from, keyed by height. Unlike the hashes in {@link #checkpoints}
+     * these carry the full header and chain work. They are added with {@link #addCheckpoint(StoredBlock)}, usually
+     * by {@link CheckpointManager#readCheckpoints(NetworkParameters, java.io.InputStream)}. None are built in, so
+     * this is empty until an app reads a checkpoint file. This is null for deserialized parameters.
+     */
+    public transient SortedMap<Integer, StoredBlock> checkpointBlocks = new TreeMap<Integer, StoredBlock>();
 
     /**
      * See getId(). This may be null for old deserialized wallets. In that case we derive it heuristically
@@ -166,6 +183,13 @@ public class NetworkParameters implements Serializable {
         n.genesisBlock.setTime(1231006505L);
         n.genesisBlock.setNonce(2083236893);
         n.id = ID_PRODNET;
+        // The same checkpoints as the reference client.
+        n.checkpoints.put(11111, new Sha256Hash("0000000069e244f73d78e8fd29ba2fd2ed618bd6fa2ee92559f542fdb26e7c1d"));
+        n.checkpoints.put(33333, new Sha256Hash("000000002dd5588a74784eaa7ab0507a18ad16a236e7b1ce69f00d7ddfb5d0a6"));
+        n.checkpoints.put(74000, new Sha256Hash("0000000000573993a3c9e41ce34471c079dcf5f52a0e824a81e7f953b8661a20"));
+        n.checkpoints.put(105000, new Sha256Hash("00000000000291ce28027faea320c8d2b054b2e0fe44a773f3eefb151d6bdc97"));
+        n.checkpoints.put(134444, new Sha256Hash("00000000000005b12ffd4cd315cd34ffd4a594f430ac814c91184a0d42d2b0fe"));
+        n.checkpoints.put(168000, new Sha256Hash("000000000000099e61ea72015e79632f216fe6cb33d7899acb35b75c8303b763"));
         String genesisHash = n.genesisBlock.getHashAsString();
         assert genesisHash.equals("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f") : genesisHash;
         return n;
@@ -184,6 +208,27 @@ public class NetworkParameters implements Serializable {
         return n;
     }
 
+    /**
+     * Adds a block that new chains can be started from. It must be the first block of a difficulty period, so that the
+     * difficulty transition at the end of the period can be checked without any earlier blocks.
+     */
+    public void addCheckpoint(StoredBlock block) {
+        if (block.getHeight() % interval != 0)
+            throw new IllegalArgumentException("Checkpoint at height " + block.getHeight() +
+                    " does not start a difficulty period of " + interval + " blocks");
+        if (checkpoints == null)
+            checkpoints = new HashMap<Integer, Sha256Hash>();
+        if (checkpointBlocks == null)
+            checkpointBlocks = new TreeMap<Integer, StoredBlock>();
+        Sha256Hash hash = block.getHeader().getHash();
+        Sha256Hash existing = checkpoints.get(block.getHeight());
+        if (existing != null && !existing.equals(hash))
+            throw new IllegalArgumentException("Checkpoint at height " + block.getHeight() + " conflicts with " +
+                    existing);
+        checkpoints.put(block.getHeight(), hash);
+        checkpointBlocks.put(block.getHeight(), block);
+    }
+
     /**
      * A java package style string acting as unique ID for these parameters
      */
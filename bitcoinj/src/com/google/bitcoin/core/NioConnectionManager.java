@@ -0,0 +1,156 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs the network IO of any number of {@link NioNetworkConnection}s, and their handlers, on one thread.<p>
+ *
+ * The thread waits on a {@link Selector} for all the connections' sockets. It connects them, writes queued messages
+ * and reads whatever arrives into a single buffer, from which each connection picks out complete messages and passes
+ * them straight to its handler. Handing messages to another thread would cost more time than handling most of them
+ * takes, so handlers must be quick and must never wait for the network, or every connection waits with them.
+ * Messages of each connection are handled in the order they arrived.<p>
+ *
+ * A connection that sends something it can't handle, or whose handler throws, is closed on its own. The other
+ * connections carry on.<p>
+ *
+ * Pass a manager to {@link PeerGroup#setConnectionManager(NioConnectionManager)} to use it for all new connections of
+ * the group, rather than one thread per peer.
+ */
+public class NioConnectionManager {
+    private static final Logger log = LoggerFactory.getLogger(NioConnectionManager.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Thread selectorThread;
+    // Work that has to run on the selector thread, like registering new channels.
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+    // Only used on the selector thread, which reads every socket into it in turn.
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+
+    public NioConnectionManager() throws IOException {
+        selector = Selector.open();
+        selectorThread = new Thread("NIO selector") {
+            @Override
+            public void run() {
+                selectLoop();
+            }
+        };
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /** Closes all connections and stops the thread. */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /** Runs the given task on the selector thread. */
+    void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Returns true if called on the selector thread, which is the one running the handlers. */
+    boolean isSelectorThread() {
+        return Thread.currentThread() == selectorThread;
+    }
+
+    /** Registers the channel of the given connection with the selector. Runs on the selector thread. */
+    SelectionKey register(NioNetworkConnection conn, int ops) throws ClosedChannelException {
+        return conn.getChannel().register(selector, ops, conn);
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // Tasks deal with the failures of their own connection, this is only a safety net.
+                        log.error("Unexpected exception in a selector task", e);
+                    }
+                }
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Selector failed", e);
+        } finally {
+            // The handlers hear about it straight away, as this is the selector thread.
+            for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys()))
+                ((NioNetworkConnection) key.attachment()).close(null);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Don't care.
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        NioNetworkConnection conn = (NioNetworkConnection) key.attachment();
+        try {
+            if (key.isConnectable())
+                conn.finishConnect();
+            if (key.isValid() && key.isWritable())
+                conn.writeQueued();
+            if (key.isValid() && key.isReadable()) {
+                readBuffer.clear();
+                int read = conn.getChannel().read(readBuffer);
+                if (read == -1) {
+                    conn.close(new IOException("Socket is disconnected"));
+                    return;
+                }
+                readBuffer.flip();
+                conn.received(readBuffer);
+            }
+        } catch (CancelledKeyException e) {
+            // The connection was closed by another thread.
+        } catch (IOException e) {
+            conn.close(e);
+        } catch (ProtocolException e) {
+            conn.close(e);
+        } catch (RuntimeException e) {
+            log.error("Unexpected exception whilst reading from " + conn, e);
+            conn.close(e);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@code NioNetworkConnection} talks to a Bitcoin node over TCP/IP using a non-blocking socket, whose IO is done by
+ * a shared {@link NioConnectionManager}.<p>
+ *
+ * Incoming bytes are split into messages as they arrive, so no thread has to wait on the socket. Until a
+ * {@link Handler} is set, messages are queued for {@link #readMessage()} just like with a
+ * {@link TCPNetworkConnection}, which is how the version handshake is done. Once a handler is set, the manager's
+ * selector thread passes each message to it as soon as it is complete.<p>
+ *
+ * Construction is blocking whilst the connection is made and the protocol version is negotiated.
+ */
+public class NioNetworkConnection implements NetworkConnection {
+    private static final Logger log = LoggerFactory.getLogger(NioNetworkConnection.class);
+
+    /** Receives the messages of a connection on the selector thread of its manager. Must not wait for the network. */
+    public interface Handler {
+        /** Handles a message. An exception closes the connection. */
+        void onMessage(Message message) throws IOException, ProtocolException;
+
+        /** Called once after the connection closed, with the exception that closed it or null if it was shut down. */
+        void onClosed(Exception cause);
+    }
+
+    // A complete message read from the socket, waiting to be parsed.
+    private static class Frame {
+        final BitcoinSerializer.BitcoinPacketHeader header;
+        final byte[] payload;
+
+        Frame(BitcoinSerializer.BitcoinPacketHeader header, byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+    }
+
+    // Put in the inbound queue when the connection closes.
+    private static final Object CLOSED = new Object();
+
+    private final NioConnectionManager manager;
+    private final SocketChannel channel;
+    private final InetAddress remoteIp;
+    private final int port;
+    private final NetworkParameters params;
+    private final BitcoinSerializer serializer;
+    private VersionMessage versionMessage;
+
+    private SelectionKey key;
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private volatile Exception closeCause;
+    private boolean closed;
+    // Frames, exceptions and CLOSED, read by readMessage() until a handler is set. Guarded by this.
+    private final BlockingQueue<Object> inbound = new LinkedBlockingQueue<Object>();
+    private Handler handler;
+    // Frames and CLOSED waiting for the handler. Guarded by this.
+    private final LinkedList<Object> dispatchQueue = new LinkedList<Object>();
+    // Set while the handler runs, so that frames delivered by the handler itself, like the CLOSED of a close() it
+    // calls, are left to the loop already running. Only used on the selector thread.
+    private boolean dispatching;
+    // Serialized messages that could not be written straight away. Guarded by itself.
+    private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+    // Framing state, only used on the selector thread. While magicCursor is not negative we are looking for the
+    // magic bytes, then the header is read, then the payload.
+    private int magicCursor = 3;
+    private final byte[] headerBytes;
+    private int headerPos;
+    private BitcoinSerializer.BitcoinPacketHeader header;
+    private byte[] payload;
+    private int payloadPos;
+
+    /**
+     * Connect to the given IP address using the port specified as part of the network parameters. Once construction
+     * is complete a functioning network channel is set up and running.
+     *
+     * @param manager the manager that does the IO of the connection.
+     * @param peerAddress address to connect to. If port is not positive the default port from params is used.
+     * @param params Defines which network to connect to and details of the protocol.
+     * @param connectTimeoutMsec Timeout in milliseconds for connecting and for each step of the handshake.
+     * @param dedupe Whether to avoid parsing duplicate messages from the network (ie from other peers).
+     * @param ver The VersionMessage to announce to the other side of the connection.
+     * @throws IOException if there is a network related failure.
+     * @throws ProtocolException if the version negotiation failed.
+     */
+    public NioNetworkConnection(NioConnectionManager manager, PeerAddress peerAddress, NetworkParameters params,
+                                int connectTimeoutMsec, boolean dedupe, VersionMessage ver)
+            throws IOException, ProtocolException {
+        // It would wait for the selector thread to connect it, which can't happen while that thread waits here.
+        if (manager.isSelectorThread())
+            throw new IllegalStateException("Can't connect from a handler");
+        this.manager = manager;
+        this.params = params;
+        this.remoteIp = peerAddress.getAddr();
+        this.port = (peerAddress.getPort() > 0) ? peerAddress.getPort() : params.port;
+        // Every node we can usefully talk to uses checksums by now, see TCPNetworkConnection.
+        this.serializer = new BitcoinSerializer(params, true, dedupe ? TCPNetworkConnection.dedupeList : null);
+        this.headerBytes = new byte[serializer.getHeaderLength() - 4];
+
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        final boolean connectedNow = channel.connect(new InetSocketAddress(remoteIp, port));
+        manager.runOnSelector(new Runnable() {
+            public void run() {
+                try {
+                    synchronized (NioNetworkConnection.this) {
+                        if (closed)
+                            return;
+                        key = NioNetworkConnection.this.manager.register(NioNetworkConnection.this,
+                                connectedNow ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+                    }
+                    if (connectedNow)
+                        connected.countDown();
+                } catch (ClosedChannelException e) {
+                    close(e);
+                } catch (RuntimeException e) {
+                    close(e);
+                }
+            }
+        });
+        try {
+            if (!connected.await(connectTimeoutMsec, TimeUnit.MILLISECONDS)) {
+                close(null);
+                throw new SocketTimeoutException("connect timed out");
+            }
+        } catch (InterruptedException e) {
+            close(null);
+            throw new IOException(e.getMessage());
+        }
+        if (closeCause != null)
+            throw new IOException(closeCause.getMessage());
+        handshake(ver, connectTimeoutMsec);
+    }
+
+    private void handshake(VersionMessage ver, int timeoutMsec) throws IOException, ProtocolException {
+        log.info("Announcing ourselves as: {}", ver.subVer);
+        writeMessage(ver);
+        Message m = readMessage(timeoutMsec);
+        if (!(m instanceof VersionMessage))
+            throw new ProtocolException("First message received was not a version message but rather " + m);
+        versionMessage = (VersionMessage) m;
+        writeMessage(new VersionAck());
+        readMessage(timeoutMsec);
+        log.info("Connected to peer: version={}, subVer='{}', services=0x{}, time={}, blocks={}", new Object[] {
+                versionMessage.clientVersion,
+                versionMessage.subVer,
+                versionMessage.localServices,
+                new Date(versionMessage.time * 1000),
+                versionMessage.bestHeight
+        });
+        // BitCoinJ is a client mode implementation, so other client mode nodes are no use to us.
+        if (!versionMessage.hasBlockChain()) {
+            shutdown();
+            throw new ProtocolException("Peer does not have a copy of the block chain.");
+        }
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Makes the selector thread of the manager pass all further messages, including any that were already queued, to
+     * the given handler. {@link #readMessage()} must not be used afterwards.
+     */
+    public void setHandler(Handler handler) {
+        synchronized (this) {
+            this.handler = handler;
+            inbound.drainTo(dispatchQueue);
+        }
+        runHandler();
+    }
+
+    public void ping() throws IOException {
+        writeMessage(new Ping());
+    }
+
+    public void shutdown() throws IOException {
+        close(null);
+    }
+
+    public Message readMessage() throws IOException, ProtocolException {
+        return readMessage(0);
+    }
+
+    private Message readMessage(int timeoutMsec) throws IOException, ProtocolException {
+        while (true) {
+            Object o;
+            try {
+                o = timeoutMsec > 0 ? inbound.poll(timeoutMsec, TimeUnit.MILLISECONDS) : inbound.take();
+            } catch (InterruptedException e) {
+                throw new IOException(e.getMessage());
+            }
+            if (o == null) {
+                close(null);
+                throw new SocketTimeoutException("Timed out waiting for the handshake");
+            }
+            Message m = parse(o);
+            // Null means a duplicate message that was not parsed.
+            if (m != null)
+                return m;
+        }
+    }
+
+    private Message parse(Object o) throws IOException, ProtocolException {
+        if (o == CLOSED) {
+            // Let later readers see it too.
+            inbound.add(CLOSED);
+            throw new IOException(closeCause != null ? closeCause.getMessage() : "done");
+        }
+        Frame frame = (Frame) o;
+        return serializer.deserializePayload(frame.header, frame.payload, 0);
+    }
+
+    public void writeMessage(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.serialize(message, bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        synchronized (writeQueue) {
+            if (closeCause != null || !channel.isOpen())
+                throw new IOException("Connection is closed");
+            // Write straight away if nothing is waiting, so the selector thread is only involved when the socket
+            // buffer is full.
+            if (writeQueue.isEmpty())
+                channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                writeQueue.add(buffer);
+                if (writeQueue.size() == 1)
+                    setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void setInterest(final int ops) {
+        manager.runOnSelector(new Runnable() {
+            public void run() {
+                SelectionKey k;
+                synchronized (NioNetworkConnection.this) {
+                    k = key;
+                }
+                try {
+                    if (k != null)
+                        k.interestOps(ops);
+                } catch (CancelledKeyException e) {
+                    // Closed by another thread since the task was queued, so there is nothing left to do.
+                }
+            }
+        });
+    }
+
+    /** Called on the selector thread when the socket is connected. */
+    void finishConnect() throws IOException {
+        if (!channel.finishConnect())
+            return;
+        key.interestOps(SelectionKey.OP_READ);
+        connected.countDown();
+    }
+
+    /** Called on the selector thread when the socket can take more data. */
+    void writeQueued() throws IOException {
+        synchronized (writeQueue) {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buffer = writeQueue.getFirst();
+                channel.write(buffer);
+                if (buffer.hasRemaining())
+                    return;
+                writeQueue.removeFirst();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /** Called on the selector thread with bytes read from the socket. Passes on each message once it is complete. */
+    void received(ByteBuffer buffer) throws ProtocolException, IOException {
+        while (buffer.hasRemaining()) {
+            if (magicCursor >= 0) {
+                // Satoshi's implementation ignores garbage before the magic bytes, so we do the same. Partial magics
+                // are skipped.
+                int b = buffer.get() & 0xFF;
+                if (b == (0xFF & (int) (params.packetMagic >>> (magicCursor * 8))))
+                    magicCursor--;
+                else if (b == (0xFF & (int) (params.packetMagic >>> 24)))
+                    magicCursor = 2;
+                else
+                    magicCursor = 3;
+            } else if (header == null) {
+                int n = Math.min(buffer.remaining(), headerBytes.length - headerPos);
+                buffer.get(headerBytes, headerPos, n);
+                headerPos += n;
+                if (headerPos == headerBytes.length) {
+                    header = serializer.deserializeHeader(headerBytes, 0);
+                    payload = new byte[header.size];
+                    payloadPos = 0;
+                }
+            } else {
+                int n = Math.min(buffer.remaining(), payload.length - payloadPos);
+                buffer.get(payload, payloadPos, n);
+                payloadPos += n;
+            }
+            if (header != null && payloadPos == payload.length) {
+                deliver(new Frame(header, payload));
+                header = null;
+                payload = null;
+                headerPos = 0;
+                magicCursor = 3;
+            }
+        }
+    }
+
+    private void deliver(Object o) {
+        synchronized (this) {
+            // Whatever the rest of a read buffer holds after the handler closed the connection is dropped.
+            if (closed && o != CLOSED)
+                return;
+            if (handler == null) {
+                inbound.add(o);
+                return;
+            }
+            dispatchQueue.add(o);
+        }
+        runHandler();
+    }
+
+    // Parses the queued frames and runs the handler on them, on the selector thread.
+    private void runHandler() {
+        if (!manager.isSelectorThread()) {
+            manager.runOnSelector(new Runnable() {
+                public void run() {
+                    runHandler();
+                }
+            });
+            return;
+        }
+        if (dispatching)
+            return;
+        dispatching = true;
+        try {
+            while (true) {
+                Object o;
+                Handler h;
+                boolean skip;
+                synchronized (this) {
+                    o = dispatchQueue.poll();
+                    h = handler;
+                    // Nothing but the close is handled once the connection is closed.
+                    skip = closed && o != CLOSED;
+                }
+                if (o == null)
+                    return;
+                if (!skip)
+                    handle(h, o);
+            }
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    private void handle(Handler h, Object o) {
+        if (o == CLOSED) {
+            try {
+                h.onClosed(closeCause);
+            } catch (RuntimeException e) {
+                log.error("Unexpected exception whilst closing the connection to " + remoteIp, e);
+            }
+            return;
+        }
+        try {
+            Message m = parse(o);
+            if (m != null)
+                h.onMessage(m);
+        } catch (IOException e) {
+            close(e);
+        } catch (ProtocolException e) {
+            close(e);
+        } catch (RuntimeException e) {
+            log.error("Unexpected exception whilst handling a message from " + remoteIp, e);
+            close(e);
+        }
+    }
+
+    /** Closes the connection, recording the exception that caused it if any. Does nothing if already closed. */
+    void close(Exception cause) {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            closeCause = cause;
+            if (key != null)
+                key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Don't care.
+        }
+        // Wake up a thread waiting to connect.
+        connected.countDown();
+        deliver(CLOSED);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + remoteIp.getHostAddress() + "]:" + port + " (" + (channel.isConnected() ? "connected" :
+                "disconnected") + ")";
+    }
+
+    public VersionMessage getVersionMessage() {
+        return versionMessage;
+    }
+
+    public PeerAddress getPeerAddress() {
+        return new PeerAddress(remoteIp, port);
+    }
+}
@@ -16,7 +16,6 @@
 
 package com.google.bitcoin.core;
 
-import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
 import com.google.bitcoin.utils.EventListenerInvoker;
 import org.slf4j.Logger;
@@ -59,6 +58,8 @@ public class Peer {
     // primary peer. This is to avoid redundant work and concurrency problems with downloading the same chain
     // in parallel.
     private boolean downloadData = true;
+    // If set, block bodies are requested through the scheduler, which spreads them over several peers.
+    private volatile BlockDownloadScheduler downloadScheduler;
     // The version data to announce to the other side of the connections we make: useful for setting our "user agent"
     // equivalent and other things.
     private VersionMessage versionMessage;
@@ -165,11 +166,31 @@ public class Peer {
         }
     }
 
+    /**
+     * Connects to the peer with a non-blocking socket handled by the given manager. Once connected the peer does not
+     * need a thread for {@link #run()}: {@link PeerGroup} passes it the messages read by the manager instead.
+     *
+     * @throws PeerException when there is a temporary problem with the peer and we should retry later
+     */
+    public synchronized void connect(NioConnectionManager manager) throws PeerException {
+        try {
+            conn = new NioNetworkConnection(manager, address, params, CONNECT_TIMEOUT_MSEC, false, versionMessage);
+        } catch (IOException ex) {
+            throw new PeerException(ex);
+        } catch (ProtocolException ex) {
+            throw new PeerException(ex);
+        }
+    }
+
     // For testing
     void setConnection(NetworkConnection conn) {
         this.conn = conn;
     }
 
+    synchronized NetworkConnection getConnection() {
+        return conn;
+    }
+
     /**
      * Runs in the peers network loop and manages communication with the peer.
      *
@@ -186,38 +207,7 @@ public class Peer {
 
         try {
             while (true) {
-                Message m = conn.readMessage();
-
-                // Allow event listeners to filter the message stream. Listeners are allowed to drop messages by
-                // returning null.
-                for (PeerEventListener listener : eventListeners) {
-                    synchronized (listener) {
-                        m = listener.onPreMessageReceived(this, m);
-                        if (m == null) break;
-                    }
-                }
-                if (m == null) continue;
-
-                if (m instanceof InventoryMessage) {
-                    processInv((InventoryMessage) m);
-                } else if (m instanceof Block) {
-                    processBlock((Block) m);
-                } else if (m instanceof Transaction) {
-                    processTransaction((Transaction) m);
-                } else if (m instanceof GetDataMessage) {
-                    processGetData((GetDataMessage) m);
-                } else if (m instanceof AddressMessage) {
-                    // We don't care about addresses of the network right now. But in future,
-                    // we should save them in the wallet so we don't put too much load on the seed nodes and can
-                    // properly explore the network.
-                } else if (m instanceof HeadersMessage) {
-                    processHeaders((HeadersMessage) m);
-                } else if (m instanceof AlertMessage) {
-                    processAlert((AlertMessage)m);
-                } else {
-                    // TODO: Handle the other messages we can receive.
-                    log.warn("Received unhandled message: {}", m);
-                }
+                processMessage(conn.readMessage());
             }
         } catch (IOException e) {
             if (!running) {
@@ -239,6 +229,43 @@ public class Peer {
         disconnect();
     }
 
+    /**
+     * Handles one message from the peer. Called by {@link #run()}, or by {@link PeerGroup} for peers connected with
+     * {@link #connect(NioConnectionManager)} which have no thread of their own.
+     */
+    void processMessage(Message m) throws IOException, ProtocolException {
+        // Allow event listeners to filter the message stream. Listeners are allowed to drop messages by
+        // returning null.
+        for (PeerEventListener listener : eventListeners) {
+            synchronized (listener) {
+                m = listener.onPreMessageReceived(this, m);
+                if (m == null) break;
+            }
+        }
+        if (m == null) return;
+
+        if (m instanceof InventoryMessage) {
+            processInv((InventoryMessage) m);
+        } else if (m instanceof Block) {
+            processBlock((Block) m);
+        } else if (m instanceof Transaction) {
+            processTransaction((Transaction) m);
+        } else if (m instanceof GetDataMessage) {
+            processGetData((GetDataMessage) m);
+        } else if (m instanceof AddressMessage) {
+            // We don't care about addresses of the network right now. But in future,
+            // we should save them in the wallet so we don't put too much load on the seed nodes and can
+            // properly explore the network.
+        } else if (m instanceof HeadersMessage) {
+            processHeaders((HeadersMessage) m);
+        } else if (m instanceof AlertMessage) {
+            processAlert((AlertMessage)m);
+        } else {
+            // TODO: Handle the other messages we can receive.
+            log.warn("Received unhandled message: {}", m);
+        }
+    }
+
     private void processAlert(AlertMessage m) {
         if (m.isSignatureValid()) {
             log.info("Received alert from peer {}: {}", toString(), m.getStatusBar());
@@ -330,6 +357,10 @@ public class Peer {
                     }
                 }
             }
+            // Blocks requested by the download scheduler are added to the chain by the scheduler, in order.
+            BlockDownloadScheduler scheduler = downloadScheduler;
+            if (scheduler != null && scheduler.receive(this, m))
+                return;
             // Otherwise it's a block sent to us because the peer thought we needed it, so add it to the block chain.
             // This call will synchronize on blockChain.
             if (blockChain.add(m)) {
@@ -354,7 +385,7 @@ public class Peer {
         }
     }
 
-    private void invokeOnBlocksDownloaded(final Block m) {
+    void invokeOnBlocksDownloaded(final Block m) {
         // It is possible for the peer block height difference to be negative when blocks have been solved and broadcast
         // since the time we first connected to the peer. However, it's weird and unexpected to receive a callback
         // with negative "blocks left" in this case, so we clamp to zero so the API user doesn't have to think about it.
@@ -390,9 +421,18 @@ public class Peer {
         // Just copy the message contents across - request whatever we're told about.
         // TODO: Don't re-request items that were already fetched.
         GetDataMessage getdata = new GetDataMessage(params);
+        BlockDownloadScheduler scheduler = downloadScheduler;
+        List<Sha256Hash> blocks = new ArrayList<Sha256Hash>();
         for (InventoryItem item : items) {
-            getdata.addItem(item);
+            if (scheduler != null && item.type == InventoryItem.Type.Block)
+                blocks.add(item.hash);
+            else
+                getdata.addItem(item);
         }
+        if (!blocks.isEmpty())
+            scheduler.schedule(blocks);
+        if (getdata.getItems().isEmpty())
+            return;
         // This will cause us to receive a bunch of block or tx messages.
         conn.writeMessage(getdata);
     }
@@ -580,7 +620,7 @@ public class Peer {
         conn.writeMessage(m);
     }
 
-    private void blockChainDownload(Sha256Hash toHash) throws IOException {
+    void blockChainDownload(Sha256Hash toHash) throws IOException {
         // This may run in ANY thread.
 
         // The block chain download process is a bit complicated. Basically, we start with one or more blocks in a
@@ -617,29 +657,12 @@ public class Peer {
         // sends us the data we requested in a "headers" message.
         log.info("blockChainDownload({})", toHash.toString());
 
-        // TODO: Block locators should be abstracted out rather than special cased here.
-        List<Sha256Hash> blockLocator = new ArrayList<Sha256Hash>(51);
-        // For now we don't do the exponential thinning as suggested here:
-        //
-        //   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
-        //
-        // This is because it requires scanning all the block chain headers, which is very slow. Instead we add the top
-        // 50 block headers. If there is a re-org deeper than that, we'll end up downloading the entire chain. We
-        // must always put the genesis block as the first entry.
-        BlockStore store = blockChain.getBlockStore();
-        StoredBlock cursor = blockChain.getChainHead();
-        for (int i = 50; cursor != null && i > 0; i--) {
-            blockLocator.add(cursor.getHeader().getHash());
-            try {
-                cursor = cursor.getPrev(store);
-            } catch (BlockStoreException e) {
-                log.error("Failed to walk the block chain whilst constructing a locator");
-                throw new RuntimeException(e);
-            }
-        }
-        // Only add the locator if we didn't already do so. If the chain is < 50 blocks we already reached it.
-        if (cursor != null) {
-            blockLocator.add(params.genesisBlock.getHash());
+        List<Sha256Hash> blockLocator;
+        try {
+            blockLocator = BlockLocator.create(params, blockChain.getBlockStore(), blockChain.getChainHead());
+        } catch (BlockStoreException e) {
+            log.error("Failed to walk the block chain whilst constructing a locator");
+            throw new RuntimeException(e);
         }
 
         // The toHash field is set to zero already by the constructor. This is how we indicate "never stop".
@@ -705,6 +728,14 @@ public class Peer {
         }
     }
 
+    /**
+     * Sets the scheduler used to download the blocks this peer hears about, or null to download them from this peer.
+     * Set by {@link PeerGroup#setDownloadScheduler(BlockDownloadScheduler)}.
+     */
+    void setDownloadScheduler(BlockDownloadScheduler scheduler) {
+        this.downloadScheduler = scheduler;
+    }
+
     /**
      * Returns true if this peer will try and download things it is sent in "inv" messages. Normally you only need
      * one peer to be downloading data. Defaults to true.
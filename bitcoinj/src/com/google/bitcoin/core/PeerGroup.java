@@ -68,6 +68,10 @@ public class PeerGroup {
     private Peer downloadPeer;
     // Callback for events related to chain download
     private PeerEventListener downloadListener;
+    // If set, spreads the download of block bodies over all connected peers
+    private BlockDownloadScheduler downloadScheduler;
+    // If set, new connections are made with non-blocking sockets handled by this manager
+    private NioConnectionManager connectionManager;
     // Callbacks for events related to peer connection/disconnection
     private Collection<PeerEventListener> peerEventListeners;
     // Peer discovery sources, will be polled occasionally if there aren't enough inactives.
@@ -426,6 +430,9 @@ public class PeerGroup {
                                 task.run();
                             }
                         }
+                        BlockDownloadScheduler scheduler = getDownloadScheduler();
+                        if (scheduler != null)
+                            scheduler.checkStalls();
                     } else {
                         // TODO: This should actually be waiting for a peer to become active OR the timeout to elapse.
                         Thread.sleep(connectionDelayMillis);
@@ -524,12 +531,19 @@ public class PeerGroup {
     private void executePeer(final PeerAddress address, final Peer peer, final boolean shouldConnect,
                              final ExecuteBlockMode blockUntilRunning) {
         final CountDownLatch latch = new CountDownLatch(1);
+        final NioConnectionManager manager = getConnectionManager();
         peerPool.execute(new Runnable() {
             public void run() {
+                // Peers connected through the manager have their messages handled on its selector thread, so this
+                // thread is only used until the handshake is done.
+                boolean async = false;
                 try {
                     if (shouldConnect) {
                         log.info("Connecting to " + peer);
-                        peer.connect();
+                        if (manager != null)
+                            peer.connect(manager);
+                        else
+                            peer.connect();
                     }
                     synchronized (PeerGroup.this) {
                         // We may have started shutting down the group since we started connecting.
@@ -544,43 +558,28 @@ public class PeerGroup {
                     handleNewPeer(peer);
                     if (blockUntilRunning == ExecuteBlockMode.WAIT_FOR_STARTUP)
                         latch.countDown();
+                    NetworkConnection conn = peer.getConnection();
+                    if (conn instanceof NioNetworkConnection) {
+                        async = true;
+                        ((NioNetworkConnection) conn).setHandler(new NioNetworkConnection.Handler() {
+                            public void onMessage(Message message) throws IOException, ProtocolException {
+                                peer.processMessage(message);
+                            }
+
+                            public void onClosed(Exception cause) {
+                                if (cause != null)
+                                    logPeerException(peer, new PeerException(cause));
+                                peerFinished(address, peer);
+                            }
+                        });
+                        return;
+                    }
                     peer.run();
                 } catch (PeerException ex) {
-                    // Do not propagate PeerException - log and try next peer. Suppress stack traces for
-                    // exceptions we expect as part of normal network behaviour.
-                    final Throwable cause = ex.getCause();
-                    if (cause instanceof SocketTimeoutException) {
-                        log.info("Timeout talking to " + peer + ": " + cause.getMessage());
-                    } else if (cause instanceof ConnectException) {
-                        log.info("Could not connect to " + peer + ": " + cause.getMessage());
-                    } else if (cause instanceof IOException) {
-                        log.info("Error talking to " + peer + ": " + cause.getMessage());
-                    } else {
-                        log.error("Unexpected exception whilst talking to " + peer, ex);
-                    }
+                    logPeerException(peer, ex);
                 } finally {
-                    boolean needHandleDeath;
-                    synchronized (PeerGroup.this) {
-                        // We may be terminating because of a controlled shutdown. If so, don't inform the user of individual
-                        // peer connections or select a new download peer.  Disconnection is the responsibility of the controlling
-                        // thread in this case.
-                        if (!running)
-                            return;
-
-                        // Disconnect and put the address back on the queue. We will retry this peer after all
-                        // other peers have been tried.
-                        peer.disconnect();
-
-                        needHandleDeath = peers.remove(peer);
-                    }
-                    
-                    // This is unsynchronized since it can take a while.
-                    if (needHandleDeath)
-                        handlePeerDeath(peer);
-
-                    // We may not know the address if the peer was added directly.
-                    if (address != null)
-                        inactives.add(address);
+                    if (!async)
+                        peerFinished(address, peer);
                 }
             }
         });
@@ -593,6 +592,61 @@ public class PeerGroup {
         }
     }
 
+    private void logPeerException(Peer peer, PeerException ex) {
+        // Do not propagate PeerException - log and try next peer. Suppress stack traces for
+        // exceptions we expect as part of normal network behaviour.
+        final Throwable cause = ex.getCause();
+        if (cause instanceof SocketTimeoutException) {
+            log.info("Timeout talking to " + peer + ": " + cause.getMessage());
+        } else if (cause instanceof ConnectException) {
+            log.info("Could not connect to " + peer + ": " + cause.getMessage());
+        } else if (cause instanceof IOException) {
+            log.info("Error talking to " + peer + ": " + cause.getMessage());
+        } else {
+            log.error("Unexpected exception whilst talking to " + peer, ex);
+        }
+    }
+
+    private void peerFinished(PeerAddress address, Peer peer) {
+        boolean needHandleDeath;
+        synchronized (this) {
+            // We may be terminating because of a controlled shutdown. If so, don't inform the user of individual
+            // peer connections or select a new download peer.  Disconnection is the responsibility of the controlling
+            // thread in this case.
+            if (!running)
+                return;
+
+            // Disconnect and put the address back on the queue. We will retry this peer after all
+            // other peers have been tried.
+            peer.disconnect();
+
+            needHandleDeath = peers.remove(peer);
+        }
+
+        // This is unsynchronized since it can take a while.
+        if (needHandleDeath)
+            handlePeerDeath(peer);
+
+        // We may not know the address if the peer was added directly.
+        if (address != null)
+            inactives.add(address);
+    }
+
+    /**
+     * Makes new connections with non-blocking sockets that are all handled by the given manager, rather than with a
+     * {@link TCPNetworkConnection} and a thread for each peer. This allows many more peers to be connected. Pass null
+     * to go back to a thread per peer. Connections that are already open are not changed. The manager is not shut
+     * down by {@link #stop()}.
+     */
+    public synchronized void setConnectionManager(NioConnectionManager manager) {
+        connectionManager = manager;
+    }
+
+    /** Returns the manager set by {@link #setConnectionManager(NioConnectionManager)}, or null. */
+    public synchronized NioConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
     /**
      * Start downloading the blockchain from the first available peer.
      * <p/>
@@ -603,9 +657,9 @@ public class PeerGroup {
      */
     public synchronized void startBlockChainDownload(PeerEventListener listener) {
         this.downloadListener = listener;
-        // TODO: be more nuanced about which peer to download from.  We can also try
-        // downloading from multiple peers and handle the case when a new peer comes along
-        // with a longer chain after we thought we were done.
+        // TODO: be more nuanced about which peer to download from.  Block bodies can be fetched from
+        // multiple peers with a download scheduler, but we should also handle the case when a new peer
+        // comes along with a longer chain after we thought we were done.
         synchronized (peers) {
             if (!peers.isEmpty()) {
                 startBlockChainDownloadFromPeer(peers.iterator().next());
@@ -631,6 +685,10 @@ public class PeerGroup {
 
     protected synchronized void handleNewPeer(final Peer peer) {
         log.info("Handling new {}", peer);
+        if (downloadScheduler != null) {
+            peer.setDownloadScheduler(downloadScheduler);
+            downloadScheduler.addPeer(peer);
+        }
         // If we want to download the chain, and we aren't currently doing so, do so now.
         if (downloadListener != null && downloadPeer == null) {
             log.info("  starting block chain download");
@@ -688,6 +746,8 @@ public class PeerGroup {
             }
         }
         downloadPeer = peer;
+        if (downloadScheduler != null)
+            downloadScheduler.setDownloadPeer(peer);
         if (downloadPeer != null) {
             log.info("Setting download peer: {}", downloadPeer);
             downloadPeer.setDownloadData(true);
@@ -698,9 +758,36 @@ public class PeerGroup {
         }
     }
 
+    /**
+     * Downloads block bodies from all connected peers using the given scheduler, rather than only from the download
+     * peer. The download peer still decides which blocks are needed. Pass null to go back to downloading from a single
+     * peer. Call this before starting block chain download.
+     */
+    public synchronized void setDownloadScheduler(BlockDownloadScheduler scheduler) {
+        synchronized (peers) {
+            for (Peer peer : peers) {
+                if (downloadScheduler != null)
+                    downloadScheduler.removePeer(peer);
+                peer.setDownloadScheduler(scheduler);
+                if (scheduler != null)
+                    scheduler.addPeer(peer);
+            }
+        }
+        downloadScheduler = scheduler;
+        if (scheduler != null)
+            scheduler.setDownloadPeer(downloadPeer);
+    }
+
+    /** Returns the scheduler set by {@link #setDownloadScheduler(BlockDownloadScheduler)}, or null. */
+    public synchronized BlockDownloadScheduler getDownloadScheduler() {
+        return downloadScheduler;
+    }
+
     /**
      * Tells the PeerGroup to download only block headers before a certain time and bodies after that. See
      * {@link Peer#setFastCatchupTime(long)} for further explanation. Call this before starting block chain download.
+     * To avoid downloading most of the headers as well, start a new block store from a checkpoint with
+     * {@link CheckpointManager#checkpoint(NetworkParameters, com.google.bitcoin.store.BlockStore, long)}.
      */
     public synchronized void setFastCatchupTimeSecs(long secondsSinceEpoch) {
         fastCatchupTimeSecs = secondsSinceEpoch;
@@ -715,6 +802,8 @@ public class PeerGroup {
             return;
         }
         assert !peers.contains(peer);
+        if (downloadScheduler != null)
+            downloadScheduler.removePeer(peer);
         if (peer == downloadPeer) {
             log.info("Download peer died. Picking a new one.");
             setDownloadPeer(null);
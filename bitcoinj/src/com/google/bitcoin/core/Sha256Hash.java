@@ -20,8 +20,6 @@ import org.bouncycastle.util.encoders.Hex;
 
 import java.io.Serializable;
 import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 /**
@@ -70,7 +68,9 @@ public class Sha256Hash implements Serializable {
      * Calculates the hash of the hash of the contents. This is a standard operation in Bitcoin.
      */
     public static Sha256Hash createDouble(byte[] contents) {
-        return new Sha256Hash(Utils.doubleDigest(contents));
+        byte[] hash = new byte[32];
+        Digests.doubleSha256(contents, 0, contents.length, hash, 0);
+        return new Sha256Hash(hash);
     }
 
     /**
@@ -100,12 +100,9 @@ public class Sha256Hash implements Serializable {
      * Calculates the (one-time) hash of contents and returns it as a new wrapped hash.
      */
     public static Sha256Hash create(byte[] contents) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return new Sha256Hash(digest.digest(contents));
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        byte[] hash = new byte[32];
+        Digests.sha256(contents, 0, contents.length, hash, 0);
+        return new Sha256Hash(hash);
     }
 
     /**
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which signatures have been verified, so that checking the same one again is a hash table lookup instead
+ * of an elliptic curve calculation that takes milliseconds. The same transaction is often checked more than once, for
+ * example when it is relayed by several peers, or when it shows up in a block after we saw it as pending.<p>
+ *
+ * Only good signatures are remembered, keyed by the hash of the signed data, the signature and the public key
+ * together. When the cache is full an arbitrary entry makes room for the new one. {@link ECKey#verify(byte[], byte[],
+ * byte[])} goes through the cache returned by {@link #getDefault()}. How well it works can be seen from
+ * {@link #getStats()}.<p>
+ *
+ * This class is thread safe.
+ */
+public class SignatureCache {
+    /** The number of signatures the default cache holds. Each takes about a hundred bytes. */
+    public static final int DEFAULT_MAX_SIZE = 20000;
+
+    // Batches smaller than twice this are not worth splitting across threads.
+    private static final int BATCH_SLICE = 8;
+
+    private static final SignatureCache defaultCache = new SignatureCache(DEFAULT_MAX_SIZE);
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Sha256Hash, Boolean> verified = new ConcurrentHashMap<Sha256Hash, Boolean>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+
+    /**
+     * How the cache has done since it was created or last cleared, as of the time {@link SignatureCache#getStats()}
+     * was called.
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long verifyNanos;
+        private final int size;
+
+        Stats(long hits, long misses, long verifyNanos, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.verifyNanos = verifyNanos;
+            this.size = size;
+        }
+
+        /** Returns the number of signatures that were found in the cache. */
+        public long getHits() {
+            return hits;
+        }
+
+        /** Returns the number of signatures that had to be verified. */
+        public long getMisses() {
+            return misses;
+        }
+
+        /** Returns the fraction of lookups that were found in the cache, or 0 if there were none. */
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : hits / (double) lookups;
+        }
+
+        /** Returns the average time it took to verify a signature that was not in the cache, in microseconds. */
+        public double getAverageVerifyMicros() {
+            return misses == 0 ? 0 : verifyNanos / 1000.0 / misses;
+        }
+
+        /** Returns the number of signatures in the cache. */
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.1f%% hit rate), %.0f us per verify, %d cached", hits, misses,
+                    getHitRate() * 100, getAverageVerifyMicros(), size);
+        }
+    }
+
+    /** Creates a cache that holds up to the given number of good signatures. */
+    public SignatureCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** Returns the cache used by {@link ECKey#verify(byte[], byte[], byte[])}. */
+    public static SignatureCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Verifies the given ASN.1 encoded ECDSA signature against a hash using the public key, unless it was verified
+     * before.
+     *
+     * @param data      Hash of the data to verify.
+     * @param signature ASN.1 encoded signature.
+     * @param pub       The public key bytes to use.
+     */
+    public boolean verify(byte[] data, byte[] signature, byte[] pub) {
+        Sha256Hash key = key(data, signature, pub);
+        if (verified.containsKey(key)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean valid = ECKey.verifyUncached(data, signature, pub);
+        verifyNanos.addAndGet(System.nanoTime() - start);
+        misses.incrementAndGet();
+        if (valid)
+            add(key);
+        return valid;
+    }
+
+    /**
+     * Verifies a batch of independent signatures on all processors. Element i of the result says whether signature i
+     * is good for data i and public key i.
+     */
+    public boolean[] verifyAll(List<byte[]> data, List<byte[]> signatures, List<byte[]> pubs) {
+        if (WorkerPool.THREADS > 1 && data.size() >= BATCH_SLICE * 2)
+            return verifyAll(data, signatures, pubs, WorkerPool.get(), WorkerPool.THREADS);
+        return verifyAll(data, signatures, pubs, null, 1);
+    }
+
+    boolean[] verifyAll(final List<byte[]> data, final List<byte[]> signatures, final List<byte[]> pubs,
+                        ExecutorService executor, int slices) {
+        if (signatures.size() != data.size() || pubs.size() != data.size())
+            throw new IllegalArgumentException("Got " + data.size() + " hashes, " + signatures.size() +
+                    " signatures and " + pubs.size() + " public keys");
+        final boolean[] results = new boolean[data.size()];
+        if (slices <= 1) {
+            for (int i = 0; i < results.length; i++)
+                results[i] = verify(data.get(i), signatures.get(i), pubs.get(i));
+            return results;
+        }
+        int sliceSize = (results.length + slices - 1) / slices;
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int start = 0; start < results.length; start += sliceSize) {
+            final int from = start;
+            final int to = Math.min(start + sliceSize, results.length);
+            tasks.add(new Runnable() {
+                public void run() {
+                    for (int i = from; i < to; i++)
+                        results[i] = verify(data.get(i), signatures.get(i), pubs.get(i));
+                }
+            });
+        }
+        WorkerPool.runAll(executor, tasks);
+        return results;
+    }
+
+    /** Returns how the cache has done so far. */
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), verifyNanos.get(), verified.size());
+    }
+
+    /** Forgets all signatures and resets the stats. */
+    public void clear() {
+        verified.clear();
+        hits.set(0);
+        misses.set(0);
+        verifyNanos.set(0);
+    }
+
+    private void add(Sha256Hash key) {
+        if (verified.size() >= maxSize) {
+            // Make room by dropping whichever entry comes first. Which one goes doesn't matter much.
+            Iterator<Sha256Hash> it = verified.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        verified.put(key, Boolean.TRUE);
+    }
+
+    private static Sha256Hash key(byte[] data, byte[] signature, byte[] pub) {
+        // The lengths go in too, so the three can't be split up differently to give the same bytes.
+        byte[] bytes = new byte[data.length + signature.length + pub.length + 12];
+        int offset = 0;
+        for (byte[] part : new byte[][] {data, signature, pub}) {
+            Utils.uint32ToByteArrayLE(part.length, bytes, offset);
+            offset += 4;
+            System.arraycopy(part, 0, bytes, offset, part.length);
+            offset += part.length;
+        }
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.sha256(bytes, 0, bytes.length, hash, 0);
+        return new Sha256Hash(hash);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Calculates the signature hashes of the inputs of a transaction without changing it.<p>
+ *
+ * The hash signed for an input is the hash of the transaction with every input script empty except that of the input
+ * being signed, which holds the script of the output it spends, followed by the hash type. See
+ * {@link Transaction#hashTransactionForSignature(Transaction.SigHash, boolean)}. Serializing the whole transaction
+ * again for each input costs more than hashing it, so this serializes it once with all input scripts empty and puts
+ * each connected script into a copy of that. The serialization is never changed, so hashes can be calculated on
+ * several threads at once.<p>
+ *
+ * The hash of every input starts with the same bytes, up to the script of that input. So the SHA-256 state at the
+ * start of each script is worked out in one pass and kept, and each hash only goes on from there. That halves the
+ * bytes hashed, which grows with the square of the number of inputs.
+ */
+class SignatureHashes {
+    // A serialized input starts with the hash and index of the output it spends, then the script.
+    private static final int OUTPOINT_LENGTH = 36;
+
+    private final byte[] emptyScripts;
+    private final int[] inputOffsets;
+    // The SHA-256 state after the bytes before the script of each input, or null if digests can't be cloned.
+    private MessageDigest[] prefixes;
+
+    SignatureHashes(Transaction tx, Transaction.SigHash type, boolean anyoneCanPay) {
+        List<TransactionInput> inputs = tx.getInputs();
+        List<TransactionOutput> outputs = tx.getOutputs();
+        inputOffsets = new int[inputs.size()];
+        try {
+            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(inputs.size() * 41 + outputs.size() * 34 + 20);
+            Utils.uint32ToByteStreamLE(tx.getVersion(), bos);
+            bos.write(new VarInt(inputs.size()).encode());
+            for (int i = 0; i < inputs.size(); i++) {
+                TransactionInput input = inputs.get(i);
+                inputOffsets[i] = bos.size();
+                input.getOutpoint().bitcoinSerialize(bos);
+                bos.write(0);
+                Utils.uint32ToByteStreamLE(input.getSequence(), bos);
+            }
+            bos.write(new VarInt(outputs.size()).encode());
+            for (TransactionOutput output : outputs)
+                output.bitcoinSerialize(bos);
+            Utils.uint32ToByteStreamLE(tx.getLockTime(), bos);
+            int hashType = type.ordinal() + 1;
+            if (anyoneCanPay)
+                hashType |= 0x80;
+            Utils.uint32ToByteStreamLE(hashType, bos);
+            emptyScripts = bos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+        try {
+            prefixes = new MessageDigest[inputOffsets.length];
+            MessageDigest digest = Digests.newSha256();
+            int hashed = 0;
+            for (int i = 0; i < inputOffsets.length; i++) {
+                int scriptStart = inputOffsets[i] + OUTPOINT_LENGTH;
+                digest.update(emptyScripts, hashed, scriptStart - hashed);
+                hashed = scriptStart;
+                prefixes[i] = (MessageDigest) digest.clone();
+            }
+        } catch (CloneNotSupportedException e) {
+            prefixes = null;
+        }
+    }
+
+    /**
+     * Returns the hash to sign for the input at the given index, which spends an output with the given script. This
+     * is the same as {@link Transaction#hashTransactionForSignature(Transaction.SigHash, boolean)} with that script
+     * set on the input.
+     */
+    byte[] hash(int index, byte[] connectedScript) {
+        byte[] length = new VarInt(connectedScript.length).encode();
+        // The empty script is a single zero length byte, which the length and the script replace.
+        int scriptStart = inputOffsets[index] + OUTPOINT_LENGTH;
+        int restStart = scriptStart + 1;
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        if (prefixes == null) {
+            byte[] preimage = new byte[emptyScripts.length - 1 + length.length + connectedScript.length];
+            System.arraycopy(emptyScripts, 0, preimage, 0, scriptStart);
+            System.arraycopy(length, 0, preimage, scriptStart, length.length);
+            System.arraycopy(connectedScript, 0, preimage, scriptStart + length.length, connectedScript.length);
+            int rest = scriptStart + length.length + connectedScript.length;
+            System.arraycopy(emptyScripts, restStart, preimage, rest, emptyScripts.length - restStart);
+            // Note that this is NOT reversed to ensure it will be signed correctly.
+            Digests.doubleSha256(preimage, 0, preimage.length, hash, 0);
+            return hash;
+        }
+        MessageDigest digest;
+        try {
+            digest = (MessageDigest) prefixes[index].clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);  // Cannot happen, the constructor cloned it.
+        }
+        digest.update(length);
+        digest.update(connectedScript);
+        digest.update(emptyScripts, restStart, emptyScripts.length - restStart);
+        try {
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Cannot happen, there is room for the hash.
+        }
+        Digests.sha256(hash, 0, hash.length, hash, 0);
+        return hash;
+    }
+}
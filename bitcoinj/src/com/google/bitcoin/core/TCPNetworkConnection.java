@@ -20,7 +20,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -41,14 +40,14 @@ public class TCPNetworkConnection implements NetworkConnection {
 	
     private final Socket socket;
     private final OutputStream out;
-    private final InputStream in;
+    private final MessageReader reader;
     // The IP address to which we are connecting.
     private final InetAddress remoteIp;
     private final NetworkParameters params;
     private final VersionMessage versionMessage;
 
-    // Given to the BitcoinSerializer to de-duplicate messages.
-    private static final LinkedHashMap<Sha256Hash, Integer> dedupeList = BitcoinSerializer.createDedupeList();
+    // Given to the BitcoinSerializer to de-duplicate messages. Shared with NioNetworkConnection.
+    static final LinkedHashMap<Sha256Hash, Integer> dedupeList = BitcoinSerializer.createDedupeList();
     private BitcoinSerializer serializer = null;
     private static final Date checksummingProtocolChangeDate = new Date(1329696000000L);
 
@@ -78,12 +77,12 @@ public class TCPNetworkConnection implements NetworkConnection {
         socket.connect(address, connectTimeoutMsec);
 
         out = socket.getOutputStream();
-        in = socket.getInputStream();
 
         // The version message does not use checksumming, until Feb 2012 when it magically does.
         // So pre-Feb 2012, update checkumming property after version is read.
         this.serializer = new BitcoinSerializer(params, false, dedupe ? dedupeList : null);
         this.serializer.setUseChecksumming(Utils.now().after(checksummingProtocolChangeDate));
+        reader = new MessageReader(params, serializer, socket.getInputStream());
 
         // Announce ourselves. This has to come first to connect to clients beyond v0.30.20.2 which wait to hear
         // from us until they send their version message back.
@@ -171,7 +170,7 @@ public class TCPNetworkConnection implements NetworkConnection {
     public Message readMessage() throws IOException, ProtocolException {
         Message message;
         do {
-            message = serializer.deserialize(in);
+            message = reader.readMessage();
             // If message is null, it means deduping was enabled, we read a duplicated message and skipped parsing to
             // avoid doing redundant work. So go around and wait for another message.
         } while (message == null);
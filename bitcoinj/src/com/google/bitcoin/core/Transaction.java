@@ -587,7 +587,8 @@ public class Transaction extends ChildMessage implements Serializable {
      * signature is over the transaction itself, to prove the redeemer actually created that transaction,
      * so we have to do this step last.<p>
      * <p/>
-     * This method is similar to SignatureHash in script.cpp
+     * This method is similar to SignatureHash in script.cpp. The inputs are signed on all processors and the input
+     * scripts are only set once every signature is done.
      *
      * @param hashType This should always be set to SigHash.ALL currently. Other types are unused.
      * @param wallet   A wallet is required to fetch the keys needed for signing.
@@ -606,15 +607,13 @@ public class Transaction extends ChildMessage implements Serializable {
         // Note that each input may be claiming an output sent to a different key. So we have to look at the outputs
         // to figure out which key to sign with.
 
-        byte[][] signatures = new byte[inputs.size()][];
-        ECKey[] signingKeys = new ECKey[inputs.size()];
+        final byte[][] signatures = new byte[inputs.size()][];
+        final ECKey[] signingKeys = new ECKey[inputs.size()];
         boolean[] compressed = new boolean[inputs.size()];
 
         for (int i = 0; i < inputs.size(); i++) {
             TransactionInput input = inputs.get(i);
             assert input.getScriptBytes().length == 0 : "Attempting to sign a non-fresh transaction";
-            // Set the input to the script of its output.
-            input.setScriptBytes(input.getOutpoint().getConnectedPubKeyScript());
             // Find the signing key we'll need to use.
             byte[] connectedPubKeyHash = input.getOutpoint().getConnectedPubKeyHash();
             ECKey key = wallet.findKeyFromPubHash(connectedPubKeyHash);
@@ -630,25 +629,36 @@ public class Transaction extends ChildMessage implements Serializable {
             assert key != null : "Transaction exists in wallet that we cannot redeem: " + Utils.bytesToHexString(connectedPubKeyHash);
             // Keep the key around for the script creation step below.
             signingKeys[i] = key;
-            // The anyoneCanPay feature isn't used at the moment.
-            boolean anyoneCanPay = false;
-            byte[] hash = hashTransactionForSignature(hashType, anyoneCanPay);
-            // Set the script to empty again for the next input.
-            input.setScriptBytes(TransactionInput.EMPTY_ARRAY);
-
-            // Now sign for the output so we can redeem it. We use the keypair to sign the hash,
-            // and then put the resulting signature in the script along with the public key (below).
-            try {
-                //usually 71-73 bytes
-                ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(73);
-                bos.write(key.sign(hash));
-                bos.write((hashType.ordinal() + 1) | (anyoneCanPay ? 0x80 : 0));
-                signatures[i] = bos.toByteArray();
-            } catch (IOException e) {
-                throw new RuntimeException(e);  // Cannot happen.
-            }
         }
 
+        // Each input is hashed with the script of its output in place of its own, which SignatureHashes does without
+        // touching the transaction. So the inputs can be hashed and signed on several threads, which helps when
+        // spending many small outputs as each signature takes milliseconds.
+        // The anyoneCanPay feature isn't used at the moment.
+        final boolean anyoneCanPay = false;
+        final SigHash type = hashType;
+        final SignatureHashes hashes = new SignatureHashes(this, hashType, anyoneCanPay);
+        final byte[][] connectedScripts = new byte[inputs.size()][];
+        for (int i = 0; i < inputs.size(); i++)
+            connectedScripts[i] = inputs.get(i).getOutpoint().getConnectedPubKeyScript();
+        int slices = WorkerPool.THREADS > 1 && inputs.size() > 1 ? Math.min(WorkerPool.THREADS, inputs.size()) : 1;
+        int sliceSize = (inputs.size() + slices - 1) / slices;
+        List<Runnable> tasks = new ArrayList<Runnable>(slices);
+        for (int start = 0; start < inputs.size(); start += sliceSize) {
+            final int from = start;
+            final int to = Math.min(start + sliceSize, inputs.size());
+            tasks.add(new Runnable() {
+                public void run() {
+                    for (int i = from; i < to; i++)
+                        signatures[i] = sign(signingKeys[i], hashes.hash(i, connectedScripts[i]), type, anyoneCanPay);
+                }
+            });
+        }
+        if (tasks.size() == 1)
+            tasks.get(0).run();
+        else
+            WorkerPool.runAll(WorkerPool.get(), tasks);
+
         // Now we have calculated each signature, go through and create the scripts. Reminder: the script consists of
         // a signature (over a hash of the transaction) and the complete public key needed to sign for the connected
         // output.
@@ -666,6 +676,21 @@ public class Transaction extends ChildMessage implements Serializable {
         // Every input is now complete.
     }
 
+    /**
+     * Signs the hash for the keypair and puts the hash type after the signature, as it appears in the input script.
+     */
+    private static byte[] sign(ECKey key, byte[] hash, SigHash hashType, boolean anyoneCanPay) {
+        try {
+            //usually 71-73 bytes
+            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(73);
+            bos.write(key.sign(hash));
+            bos.write((hashType.ordinal() + 1) | (anyoneCanPay ? 0x80 : 0));
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
     /**
      * Calculates a signature hash, that is, a hash of a simplified form of the transaction. How exactly the transaction
      * is simplified is specified by the type and anyoneCanPay parameters.<p>
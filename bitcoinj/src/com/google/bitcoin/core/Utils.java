@@ -16,14 +16,10 @@
 
 package com.google.bitcoin.core;
 
-import org.bouncycastle.crypto.digests.RIPEMD160Digest;
-
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.nio.charset.Charset;
 
@@ -143,24 +139,15 @@ public class Utils {
      * standard procedure in BitCoin. The resulting hash is in big endian form.
      */
     public static byte[] doubleDigest(byte[] input, int offset, int length) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            digest.update(input, offset, length);
-            byte[] first = digest.digest();
-            return digest.digest(first);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.doubleSha256(input, offset, length, hash, 0);
+        return hash;
     }
 
     public static byte[] singleDigest(byte[] input, int offset, int length) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            digest.update(input, offset, length);
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.sha256(input, offset, length, hash, 0);
+        return hash;
     }
 
     /**
@@ -168,15 +155,9 @@ public class Utils {
      */
     public static byte[] doubleDigestTwoBuffers(byte[] input1, int offset1, int length1,
                                                 byte[] input2, int offset2, int length2) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            digest.update(input1, offset1, length1);
-            digest.update(input2, offset2, length2);
-            byte[] first = digest.digest();
-            return digest.digest(first);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.doubleSha256(input1, offset1, length1, input2, offset2, length2, hash, 0);
+        return hash;
     }
 
     /**
@@ -256,16 +237,9 @@ public class Utils {
      * Calculates RIPEMD160(SHA256(input)). This is used in Address calculations.
      */
     public static byte[] sha256hash160(byte[] input) {
-        try {
-            byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(input);
-            RIPEMD160Digest digest = new RIPEMD160Digest();
-            digest.update(sha256, 0, sha256.length);
-            byte[] out = new byte[20];
-            digest.doFinal(out, 0);
-            return out;
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        byte[] out = new byte[Digests.RIPEMD160_LENGTH];
+        Digests.sha256hash160(input, 0, input.length, out, 0);
+        return out;
     }
 
     /**
@@ -30,12 +30,17 @@ import java.io.Serializable;
 public class VersionedChecksummedBytes implements Serializable {
     protected int version;
     protected byte[] bytes;
+    // Base58 is a one to one mapping, so the string we were made from is the one toString() would compute.
+    private transient String encoded;
 
     public VersionedChecksummedBytes(String encoded) throws AddressFormatException {
         byte[] tmp = Base58.decodeChecked(encoded);
+        if (tmp.length == 0)
+            throw new AddressFormatException("Input too short");
         version = tmp[0] & 0xFF;
         bytes = new byte[tmp.length - 1];
         System.arraycopy(tmp, 1, bytes, 0, tmp.length - 1);
+        this.encoded = encoded;
     }
 
     public VersionedChecksummedBytes(int version, byte[] bytes) {
@@ -46,14 +51,15 @@ public class VersionedChecksummedBytes implements Serializable {
  
     @Override
     public String toString() {
-        // A stringified buffer is:
-        //   1 byte version + data bytes + 4 bytes check code (a truncated hash)
-        byte[] addressBytes = new byte[1 + bytes.length + 4];
-        addressBytes[0] = (byte) version;
-        System.arraycopy(bytes, 0, addressBytes, 1, bytes.length);
-        byte[] check = Utils.doubleDigest(addressBytes, 0, bytes.length + 1);
-        System.arraycopy(check, 0, addressBytes, bytes.length + 1, 4);
-        return Base58.encode(addressBytes);
+        if (encoded == null) {
+            // A stringified buffer is:
+            //   1 byte version + data bytes + 4 bytes check code (a truncated hash)
+            byte[] versionedBytes = new byte[1 + bytes.length];
+            versionedBytes[0] = (byte) version;
+            System.arraycopy(bytes, 0, versionedBytes, 1, bytes.length);
+            encoded = Base58.encodeChecked(versionedBytes);
+        }
+        return encoded;
     }
 
     @Override
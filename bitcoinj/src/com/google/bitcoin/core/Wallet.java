@@ -131,7 +131,9 @@ public class Wallet implements Serializable {
     private Map<Sha256Hash, Transaction> dead;
 
     /**
-     * A list of public/private EC keys owned by this user.
+     * A list of public/private EC keys owned by this user. Prefer {@link Wallet#addKey(ECKey)} to modifying this
+     * list directly. The key lookup methods notice direct changes, but anything other than appending keys makes
+     * the next lookup rebuild its index.
      */
     public final ArrayList<ECKey> keychain;
 
@@ -144,6 +146,31 @@ public class Wallet implements Serializable {
 
     transient public Collection<WalletEventListener> eventListeners;
 
+    // Lookup tables over the keychain. They are rebuilt on demand so are not serialized.
+    private transient KeyIndex keysByPubKeyHash;
+    private transient KeyIndex keysByCompressedPubKeyHash;
+    private transient KeyIndex keysByPubKey;
+
+    // Outpoint->pending transactions spending it, so a double spend against the pending pool is found by looking up
+    // the inputs of the new transaction. There is normally one spender, but two pending transactions can conflict
+    // until a block picks one. Kept in step with the pending map by putPending and removePending.
+    private transient Map<TransactionOutPoint, List<Transaction>> pendingSpends;
+
+    // Running totals behind getBalance: what our available outputs in the unspent pool are worth, and what our
+    // outputs of pending transactions are worth. They follow transactions as they move between pools and outputs as
+    // they get spent, and are recalculated after a re-org or a change to the keychain. Readers don't take the wallet
+    // lock, so the balances are published to the volatile fields once each change to the wallet is complete.
+    private transient BigInteger unspentValue;
+    private transient BigInteger pendingValue;
+    private transient int balanceKeyCount;
+    private transient ECKey balanceLastKey;
+    private transient volatile BigInteger availableBalance;
+    private transient volatile BigInteger estimatedBalance;
+
+    // The snapshot of the pools handed to readers, or null if the pools changed since it was taken.
+    private transient volatile WalletSnapshot snapshot;
+    private transient long snapshotVersion;
+
     /**
      * Creates a new, empty wallet with no keys and no transactions. If you want to restore a wallet from disk instead,
      * see loadFromFile.
@@ -158,6 +185,30 @@ public class Wallet implements Serializable {
         dead = new HashMap<Sha256Hash, Transaction>();
         eventListeners = Collections.synchronizedSet(new HashSet<WalletEventListener>());
         hasTransactionConfidences = true;
+        createKeyIndexes();
+        createPendingSpendsIndex();
+        recalculateBalances();
+        publishChanges();
+    }
+
+    private void createKeyIndexes() {
+        keysByPubKeyHash = new KeyIndex() {
+            byte[] keyBytes(ECKey key) {
+                return key.getPubKeyHash();
+            }
+        };
+        keysByCompressedPubKeyHash = new KeyIndex() {
+            byte[] keyBytes(ECKey key) {
+                // The compressed form is derived from the private key, so watching keys can't match.
+                if (key.priv == null) return null;
+                return key.getCompressedPubKeyHash();
+            }
+        };
+        keysByPubKey = new KeyIndex() {
+            byte[] keyBytes(ECKey key) {
+                return key.getPubKey();
+            }
+        };
     }
     
     public NetworkParameters getNetworkParameters() {
@@ -212,8 +263,26 @@ public class Wallet implements Serializable {
         pendingInactive.addAll(pending.values());
         pendingInactive.addAll(inactive.values());
         
-        return getTransactions(true, true).size() ==
-               unspent.size() + spent.size() + pendingInactive.size() + dead.size();
+        // Count the pools themselves rather than getTransactions(), which can hand back a snapshot taken before the
+        // change being checked was published.
+        HashSet<Transaction> all = new HashSet<Transaction>(pendingInactive);
+        all.addAll(unspent.values());
+        all.addAll(spent.values());
+        all.addAll(dead.values());
+        if (all.size() != unspent.size() + spent.size() + pendingInactive.size() + dead.size())
+            return false;
+        // Every input of every pending transaction is indexed, and nothing else is.
+        int pendingInputs = 0;
+        for (Transaction tx : pending.values())
+            pendingInputs += tx.getInputs().size();
+        int indexed = 0;
+        for (List<Transaction> spenders : pendingSpends.values())
+            indexed += spenders.size();
+        if (pendingInputs != indexed)
+            return false;
+        // The running balances add up to the same as counting them again.
+        return unspentValue.equals(valueToMe(unspent.values(), true)) &&
+               pendingValue.equals(valueToMe(pending.values(), false));
     }
 
     /**
@@ -234,7 +303,11 @@ public class Wallet implements Serializable {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         eventListeners = Collections.synchronizedSet(new HashSet<WalletEventListener>());
+        createKeyIndexes();
+        createPendingSpendsIndex();
         maybeMigrateToTransactionConfidences();
+        recalculateBalances();
+        publishChanges();
     }
 
     /** Migrate old wallets that don't have any tx confidences, filling out whatever information we can. */
@@ -398,23 +471,153 @@ public class Wallet implements Serializable {
      * the double spent inputs are not ours. Returns the pending tx that was double spent or null if none found.
      */
     private Transaction findDoubleSpendAgainstPending(Transaction tx) {
-        // Compile a set of outpoints that are spent by tx.
-        HashSet<TransactionOutPoint> outpoints = new HashSet<TransactionOutPoint>();
         for (TransactionInput input : tx.getInputs()) {
-            outpoints.add(input.getOutpoint());
-        }
-        // Now for each pending transaction, see if it shares any outpoints with this tx.
-        for (Transaction p : pending.values()) {
-            for (TransactionInput input : p.getInputs()) {
-                if (outpoints.contains(input.getOutpoint())) {
-                    // It does, it's a double spend against the pending pool, which makes it relevant.
-                    return p;
-                }
+            List<Transaction> spenders = pendingSpends.get(input.getOutpoint());
+            if (spenders == null) continue;
+            for (Transaction p : spenders) {
+                // A pending tx shares an outpoint with this tx, it's a double spend which makes it relevant.
+                if (p != tx) return p;
             }
         }
         return null;
     }
 
+    /**
+     * Puts the transaction into the pending pool and indexes the outpoints it spends.
+     */
+    private void putPending(Transaction tx) {
+        Transaction old = pending.put(tx.getHash(), tx);
+        if (old == tx) return;
+        if (old != null) {
+            unindexPendingSpends(old);
+            pendingValue = pendingValue.subtract(valueToMe(old, false));
+        }
+        indexPendingSpends(tx);
+        pendingValue = pendingValue.add(valueToMe(tx, false));
+    }
+
+    /**
+     * Removes the transaction with the given hash from the pending pool and the index of pending spends. Returns the
+     * transaction, or null if it wasn't pending.
+     */
+    private Transaction removePending(Sha256Hash hash) {
+        Transaction tx = pending.remove(hash);
+        if (tx != null) {
+            unindexPendingSpends(tx);
+            pendingValue = pendingValue.subtract(valueToMe(tx, false));
+        }
+        return tx;
+    }
+
+    private void indexPendingSpends(Transaction tx) {
+        for (TransactionInput input : tx.getInputs()) {
+            List<Transaction> spenders = pendingSpends.get(input.getOutpoint());
+            if (spenders == null) {
+                spenders = new ArrayList<Transaction>(1);
+                pendingSpends.put(input.getOutpoint(), spenders);
+            }
+            spenders.add(tx);
+        }
+    }
+
+    private void unindexPendingSpends(Transaction tx) {
+        for (TransactionInput input : tx.getInputs()) {
+            List<Transaction> spenders = pendingSpends.get(input.getOutpoint());
+            if (spenders == null) continue;
+            spenders.remove(tx);
+            if (spenders.isEmpty())
+                pendingSpends.remove(input.getOutpoint());
+        }
+    }
+
+    /**
+     * Puts the transaction into the unspent pool and adds its available outputs to the balance. Returns the
+     * transaction that was there before, if any.
+     */
+    private Transaction putUnspent(Transaction tx) {
+        Transaction old = unspent.put(tx.getHash(), tx);
+        if (old != null)
+            unspentValue = unspentValue.subtract(valueToMe(old, true));
+        unspentValue = unspentValue.add(valueToMe(tx, true));
+        return old;
+    }
+
+    private Transaction removeUnspent(Sha256Hash hash) {
+        Transaction tx = unspent.remove(hash);
+        if (tx != null)
+            unspentValue = unspentValue.subtract(valueToMe(tx, true));
+        return tx;
+    }
+
+    /**
+     * Returns what the outputs of the transaction that belong to us are worth. If onlyAvailable is true, outputs
+     * that are already spent don't count.
+     */
+    private BigInteger valueToMe(Transaction tx, boolean onlyAvailable) {
+        BigInteger value = BigInteger.ZERO;
+        for (TransactionOutput output : tx.getOutputs()) {
+            if (!output.isMine(this)) continue;
+            if (onlyAvailable && !output.isAvailableForSpending()) continue;
+            value = value.add(output.getValue());
+        }
+        return value;
+    }
+
+    private BigInteger valueToMe(Collection<Transaction> txns, boolean onlyAvailable) {
+        BigInteger value = BigInteger.ZERO;
+        for (Transaction tx : txns)
+            value = value.add(valueToMe(tx, onlyAvailable));
+        return value;
+    }
+
+    /** Counts the running balances up again from the unspent and pending pools. */
+    private void recalculateBalances() {
+        unspentValue = valueToMe(unspent.values(), true);
+        pendingValue = valueToMe(pending.values(), false);
+        balanceKeyCount = keychain.size();
+        balanceLastKey = balanceKeyCount > 0 ? keychain.get(balanceKeyCount - 1) : null;
+    }
+
+    /**
+     * Makes a change to the wallet visible to readers that don't take the wallet lock: the running balances are
+     * published to {@link #getBalance(BalanceType)} and the next {@link #getSnapshot()} takes a new snapshot. Called
+     * once a change is complete, so readers never see a transaction half way between two pools.
+     */
+    private void publishChanges() {
+        // Keys added or removed behind our back change which outputs are ours, so count everything again.
+        int keyCount = keychain.size();
+        if (keyCount != balanceKeyCount || (keyCount > 0 && keychain.get(keyCount - 1) != balanceLastKey))
+            recalculateBalances();
+        availableBalance = unspentValue;
+        estimatedBalance = unspentValue.add(pendingValue);
+        snapshotVersion++;
+        snapshot = null;
+    }
+
+    /**
+     * Returns the transactions of this wallet and their pools as they are now. Taking a snapshot needs the wallet
+     * lock, but only the first caller after a change to the wallet takes one. Everybody else shares it until the
+     * wallet changes again, without waiting for the lock.
+     */
+    public WalletSnapshot getSnapshot() {
+        WalletSnapshot result = snapshot;
+        if (result != null)
+            return result;
+        synchronized (this) {
+            if (snapshot == null)
+                snapshot = new WalletSnapshot(snapshotVersion, unspent.values(), spent.values(), pending.values(),
+                        inactive.values(), dead.values());
+            return snapshot;
+        }
+    }
+
+    /** Rebuilds the index of pending spends from the pending pool, for new and deserialized wallets. */
+    private void createPendingSpendsIndex() {
+        pendingSpends = new HashMap<TransactionOutPoint, List<Transaction>>();
+        for (Transaction tx : pending.values())
+            indexPendingSpends(tx);
+    }
+
     private synchronized void receive(Transaction tx, StoredBlock block,
                                       BlockChain.NewBlockType blockType,
                                       boolean reorg) throws VerificationException, ScriptException {
@@ -438,7 +641,7 @@ public class Wallet implements Serializable {
         // If this transaction is already in the wallet we may need to move it into a different pool. At the very
         // least we need to ensure we're manipulating the canonical object rather than a duplicate.
         Transaction wtx;
-        if ((wtx = pending.remove(txHash)) != null) {
+        if ((wtx = removePending(txHash)) != null) {
             // Make sure "tx" is always the canonical object we want to manipulate, send to event handlers, etc.
             tx = wtx;
 
@@ -456,7 +659,7 @@ public class Wallet implements Serializable {
                     // There was change back to us, or this tx was purely a spend back to ourselves (perhaps for
                     // anonymization purposes).
                     log.info("  ->unspent");
-                    boolean alreadyPresent = unspent.put(tx.getHash(), tx) != null;
+                    boolean alreadyPresent = putUnspent(tx) != null;
                     assert !alreadyPresent : "TX in both pending and unspent pools";
                 }
             } else if (sideChain) {
@@ -472,7 +675,7 @@ public class Wallet implements Serializable {
                 if (alreadyPresent)
                     log.info("Saw a transaction be incorporated into multiple independent side chains");
                 // Put it back into the pending pool, because 'pending' means 'waiting to be included in best chain'.
-                pending.put(tx.getHash(), tx);
+                putPending(tx);
             }
         } else {
             // This TX didn't originate with us. It could be sending us coins and also spending our own coins if keys
@@ -487,6 +690,7 @@ public class Wallet implements Serializable {
             }
         }
 
+        publishChanges();
         log.info("Balance is now: " + bitcoinValueToFriendlyString(getBalance()));
 
         // WARNING: The code beyond this point can trigger event listeners on transaction confidence objects, which are
@@ -539,7 +743,7 @@ public class Wallet implements Serializable {
         if (!tx.getValueSentToMe(this).equals(BigInteger.ZERO)) {
             // It's sending us coins.
             log.info("  new tx ->unspent");
-            boolean alreadyPresent = unspent.put(tx.getHash(), tx) != null;
+            boolean alreadyPresent = putUnspent(tx) != null;
             assert !alreadyPresent : "TX was received twice";
         } else if (!tx.getValueSentFromMe(this).equals(BigInteger.ZERO)) {
             // It spent some of our coins and did not send us any.
@@ -559,7 +763,7 @@ public class Wallet implements Serializable {
             // the transaction being double spent is actually in our wallet (ie, maybe we're double spending).
             log.warn("Saw double spend from chain override pending tx {}", doubleSpend.getHashAsString());
             log.warn("  <-pending ->dead");
-            pending.remove(doubleSpend.getHash());
+            removePending(doubleSpend.getHash());
             dead.put(doubleSpend.getHash(), doubleSpend);
             // Inform the event listeners of the newly dead tx.
             doubleSpend.getConfidence().setOverridingTransaction(tx);
@@ -613,7 +817,7 @@ public class Wallet implements Serializable {
                     if (pending.containsKey(connected.getHash())) {
                         log.warn("Saw double spend from chain override pending tx {}", connected.getHashAsString());
                         log.warn("  <-pending ->dead");
-                        pending.remove(connected.getHash());
+                        removePending(connected.getHash());
                         dead.put(connected.getHash(), connected);
                         // Now forcibly change the connection.
                         input.connect(unspent, true);
@@ -635,6 +839,11 @@ public class Wallet implements Serializable {
                 // The outputs are already marked as spent by the connect call above, so check if there are any more for
                 // us to use. Move if not.
                 Transaction connected = input.getOutpoint().fromTx;
+                if (unspent.containsKey(connected.getHash())) {
+                    TransactionOutput output = connected.getOutputs().get((int) input.getOutpoint().getIndex());
+                    if (output.isMine(this))
+                        unspentValue = unspentValue.subtract(output.getValue());
+                }
                 maybeMoveTxToSpent(connected, "prevtx");
             }
         }
@@ -646,7 +855,7 @@ public class Wallet implements Serializable {
     private void maybeMoveTxToSpent(Transaction tx, String context) {
         if (tx.isEveryOwnedOutputSpent(this)) {
             // There's nothing left I can spend in this transaction.
-            if (unspent.remove(tx.getHash()) != null) {
+            if (removeUnspent(tx.getHash()) != null) {
                 if (log.isInfoEnabled()) {
                     log.info("  " + context + " <-unspent");
                     log.info("  " + context + " ->spent");
@@ -696,7 +905,8 @@ public class Wallet implements Serializable {
         updateForSpends(tx, false);
         // Add to the pending pool. It'll be moved out once we receive this transaction on the best chain.
         log.info("->pending: {}", tx.getHashAsString());
-        pending.put(tx.getHash(), tx);
+        putPending(tx);
+        publishChanges();
 
         // Event listeners may re-enter so we cannot make assumptions about wallet state after this loop completes.
         try {
@@ -716,65 +926,34 @@ public class Wallet implements Serializable {
     }
 
     /**
-     * Returns a set of all transactions in the wallet.
+     * Returns a set of all transactions in the wallet. The set comes from {@link #getSnapshot()}, so it is shared with
+     * other callers and can't be modified.
      *
      * @param includeDead     If true, transactions that were overridden by a double spend are included.
      * @param includeInactive If true, transactions that are on side chains (are unspendable) are included.
      */
-    public synchronized Set<Transaction> getTransactions(boolean includeDead, boolean includeInactive) {
-        Set<Transaction> all = new HashSet<Transaction>();
-        all.addAll(unspent.values());
-        all.addAll(spent.values());
-        all.addAll(pending.values());
-        if (includeDead)
-            all.addAll(dead.values());
-        if (includeInactive)
-            all.addAll(inactive.values());
-        return all;
+    public Set<Transaction> getTransactions(boolean includeDead, boolean includeInactive) {
+        return getSnapshot().getTransactions(includeDead, includeInactive);
     }
 
     /**
-     * Returns a set of all WalletTransactions in the wallet.
+     * Returns a set of all WalletTransactions in the wallet. The set comes from {@link #getSnapshot()}, so it is
+     * shared with other callers and can't be modified.
      */
-    public synchronized Iterable<WalletTransaction> getWalletTransactions() {
-        HashSet<Transaction> pendingInactive = new HashSet<Transaction>();
-        pendingInactive.addAll(pending.values());
-        pendingInactive.retainAll(inactive.values());
-        HashSet<Transaction> onlyPending = new HashSet<Transaction>();
-        HashSet<Transaction> onlyInactive = new HashSet<Transaction>();
-        onlyPending.addAll(pending.values());
-        onlyPending.removeAll(pendingInactive);
-        onlyInactive.addAll(inactive.values());
-        onlyInactive.removeAll(pendingInactive);
-        
-        Set<WalletTransaction> all = new HashSet<WalletTransaction>();
-
-        addWalletTransactionsToSet(all, Pool.UNSPENT, unspent.values());
-        addWalletTransactionsToSet(all, Pool.SPENT, spent.values());
-        addWalletTransactionsToSet(all, Pool.DEAD, dead.values());
-        addWalletTransactionsToSet(all, Pool.PENDING, onlyPending);
-        addWalletTransactionsToSet(all, Pool.INACTIVE, onlyInactive);
-        addWalletTransactionsToSet(all, Pool.PENDING_INACTIVE, pendingInactive);
-        return all;
+    public Iterable<WalletTransaction> getWalletTransactions() {
+        return getSnapshot().getWalletTransactions();
     }
 
-    private static synchronized void addWalletTransactionsToSet(Set<WalletTransaction> txs,
-            Pool poolType, Collection<Transaction> pool) {
-        for (Transaction tx : pool) {
-            txs.add(new WalletTransaction(poolType, tx));
-        }
-    }
-    
     public synchronized void addWalletTransaction(WalletTransaction wtx) {
         switch (wtx.getPool()) {
         case UNSPENT:
-            unspent.put(wtx.getTransaction().getHash(), wtx.getTransaction());
+            putUnspent(wtx.getTransaction());
             break;
         case SPENT:
             spent.put(wtx.getTransaction().getHash(), wtx.getTransaction());
             break;
         case PENDING:
-            pending.put(wtx.getTransaction().getHash(), wtx.getTransaction());
+            putPending(wtx.getTransaction());
             break;
         case DEAD:
             dead.put(wtx.getTransaction().getHash(), wtx.getTransaction());
@@ -783,12 +962,31 @@ public class Wallet implements Serializable {
             inactive.put(wtx.getTransaction().getHash(), wtx.getTransaction());
             break;
         case PENDING_INACTIVE:
-            pending.put(wtx.getTransaction().getHash(), wtx.getTransaction());
+            putPending(wtx.getTransaction());
             inactive.put(wtx.getTransaction().getHash(), wtx.getTransaction());
             break;
         default:
             throw new RuntimeException("Unknown wallet transaction type " + wtx.getPool());
         }
+        publishChanges();
+    }
+
+    /**
+     * Removes the transaction with the given hash from every pool it is in, the opposite of
+     * {@link #addWalletTransaction(WalletTransaction)}. Transactions that spend it or that it spends are left alone.
+     * Returns true if the wallet had it.
+     */
+    public synchronized boolean removeWalletTransaction(Sha256Hash hash) {
+        boolean removed = removePending(hash) != null;
+        removed |= removeUnspent(hash) != null;
+        removed |= spent.remove(hash) != null;
+        removed |= inactive.remove(hash) != null;
+        removed |= dead.remove(hash) != null;
+        if (removed) {
+            publishChanges();
+            assert isConsistent();
+        }
+        return removed;
     }
 
     /**
@@ -802,31 +1000,23 @@ public class Wallet implements Serializable {
      * Returns an list of N transactions, ordered by increasing age. Transactions on side chains are not included.
      * Dead transactions (overridden by double spends) are optionally included. <p>
      * <p/>
-     * Note: the current implementation is O(num transactions in wallet). Regardless of how many transactions are
-     * requested, the cost is always the same. In future, requesting smaller numbers of transactions may be faster
-     * depending on how the wallet is implemented (eg if backed by a database).
+     * The transactions are sorted once per change to the wallet, see {@link #getSnapshot()}. The list is shared with
+     * other callers and can't be modified.
      */
-    public synchronized List<Transaction> getRecentTransactions(int numTransactions, boolean includeDead) {
+    public List<Transaction> getRecentTransactions(int numTransactions, boolean includeDead) {
         assert numTransactions >= 0;
-        // Firstly, put all transactions into an array.
-        int size = getPoolSize(WalletTransaction.Pool.UNSPENT) +
-                getPoolSize(WalletTransaction.Pool.SPENT) +
-                getPoolSize(WalletTransaction.Pool.PENDING);
+        WalletSnapshot snapshot = getSnapshot();
+        int size = snapshot.getPoolSize(WalletTransaction.Pool.UNSPENT) +
+                snapshot.getPoolSize(WalletTransaction.Pool.SPENT) +
+                snapshot.getPoolSize(WalletTransaction.Pool.PENDING);
         if (numTransactions > size || numTransactions == 0) {
             numTransactions = size;
         }
-        ArrayList<Transaction> all = new ArrayList<Transaction>(getTransactions(includeDead, false));
-        // Order by date.
-        Collections.sort(all, Collections.reverseOrder(new Comparator<Transaction>() {
-            public int compare(Transaction t1, Transaction t2) {
-                return t1.getUpdateTime().compareTo(t2.getUpdateTime());
-            }
-        }));
-        if (numTransactions == all.size()) {
+        List<Transaction> all = snapshot.getTransactionsByTime(includeDead);
+        if (numTransactions >= all.size()) {
             return all;
         } else {
-            all.subList(numTransactions, all.size()).clear();
-            return all;
+            return all.subList(0, numTransactions);
         }
     }
 
@@ -857,8 +1047,11 @@ public class Wallet implements Serializable {
             unspent.clear();
             spent.clear();
             pending.clear();
+            pendingSpends.clear();
             inactive.clear();
             dead.clear();
+            recalculateBalances();
+            publishChanges();
         } else {
             throw new UnsupportedOperationException();
         }
@@ -1123,6 +1316,7 @@ public class Wallet implements Serializable {
     public synchronized void addKey(ECKey key) {
         assert !keychain.contains(key);
         keychain.add(key);
+        publishChanges();
     }
 
     /**
@@ -1132,11 +1326,7 @@ public class Wallet implements Serializable {
      * @return ECKey object or null if no such key was found.
      */
     public synchronized ECKey findKeyFromPubHash(byte[] pubkeyHash) {
-        for (ECKey key : keychain) {
-            if (Arrays.equals(key.getPubKeyHash(), pubkeyHash))
-                return key;
-        }
-        return null;
+        return keysByPubKeyHash.find(keychain, pubkeyHash);
     }
 
     /**
@@ -1146,11 +1336,7 @@ public class Wallet implements Serializable {
      * @return ECKey object or null if no such key was found.
      */
     public synchronized ECKey findKeyFromPubHashCompressed(byte[] pubkeyHash) {
-        for (ECKey key : keychain) {
-            if (Arrays.equals(key.getCompressedPubKeyHash(), pubkeyHash))
-                return key;
-        }
-        return null;
+        return keysByCompressedPubKeyHash.find(keychain, pubkeyHash);
     }
 
     /**
@@ -1166,10 +1352,7 @@ public class Wallet implements Serializable {
      * @return ECKey or null if no such key was found.
      */
     public synchronized ECKey findKeyFromPubKey(byte[] pubkey) {
-        for (ECKey key : keychain) {
-            if (Arrays.equals(key.getPubKey(), pubkey)) return key;
-        }
-        return null;
+        return keysByPubKey.find(keychain, pubkey);
     }
 
     /**
@@ -1210,34 +1393,23 @@ public class Wallet implements Serializable {
      * actually spend these coins may result in temporary failure. This method returns how much you can safely
      * provide to {@link Wallet#createSend(Address, java.math.BigInteger)}.
      */
-    public synchronized BigInteger getBalance() {
+    public BigInteger getBalance() {
         return getBalance(BalanceType.AVAILABLE);
     }
 
     /**
-     * Returns the balance of this wallet as calculated by the provided balanceType.
+     * Returns the balance of this wallet as calculated by the provided balanceType.<p>
+     *
+     * The balances are kept up to date as transactions arrive, so this is cheap and doesn't wait for the wallet lock.
+     * Keys added to the {@link #keychain} directly rather than with {@link #addKey(ECKey)} are counted from the next
+     * change to the wallet.
      */
-    public synchronized BigInteger getBalance(BalanceType balanceType) {
-        BigInteger available = BigInteger.ZERO;
-        for (Transaction tx : unspent.values()) {
-            for (TransactionOutput output : tx.getOutputs()) {
-                if (!output.isMine(this)) continue;
-                if (!output.isAvailableForSpending()) continue;
-                available = available.add(output.getValue());
-            }
-        }
+    public BigInteger getBalance(BalanceType balanceType) {
         if (balanceType == BalanceType.AVAILABLE)
-            return available;
+            return availableBalance;
         assert balanceType == BalanceType.ESTIMATED;
-        // Now add back all the pending outputs to assume the transaction goes through.
-        BigInteger estimated = available;
-        for (Transaction tx : pending.values()) {
-            for (TransactionOutput output : tx.getOutputs()) {
-                if (!output.isMine(this)) continue;
-                estimated = estimated.add(output.getValue());
-            }
-        }
-        return estimated;
+        // The pending outputs are added back to assume the transactions go through.
+        return estimatedBalance;
     }
 
     @Override
@@ -1414,6 +1586,8 @@ public class Wallet implements Serializable {
                 spent.put(tx.getHash(), tx);
             }
         }
+        // Replaying the new blocks below keeps the balances up to date from here.
+        recalculateBalances();
         // Inform all transactions that exist only in the old chain that they have moved, so they can update confidence
         // and timestamps. Transactions will be told they're on the new best chain when the blocks are replayed.
         for (Transaction tx : onlyOldChainTransactions.values()) {
@@ -1473,6 +1647,9 @@ public class Wallet implements Serializable {
             reprocessTxAfterReorg(pool, tx);
         }
 
+        // reprocessTxAfterReorg spends outputs without following the balances, so count them again.
+        recalculateBalances();
+        publishChanges();
         log.info("post-reorg balance is {}", Utils.bitcoinValueToFriendlyString(getBalance()));
 
         // Inform event listeners that a re-org took place. They should save the wallet at this point.
@@ -1510,7 +1687,7 @@ public class Wallet implements Serializable {
                 TransactionOutput doubleSpent = input.getConnectedOutput(pool);
                 Transaction replacement = doubleSpent.getSpentBy().getParentTransaction();
                 dead.put(tx.getHash(), tx);
-                pending.remove(tx.getHash());
+                removePending(tx.getHash());
                 // This updates the tx confidence type automatically.
                 tx.getConfidence().setOverridingTransaction(replacement);
                 invokeOnTransactionConfidenceChanged(tx);
@@ -1525,7 +1702,7 @@ public class Wallet implements Serializable {
         } else if (success == numInputs - noSuchTx) {
             // All inputs are either valid for spending or don't come from us. Miners are trying to reinclude it.
             log.info("   ->pending", tx.getHashAsString());
-            pending.put(tx.getHash(), tx);
+            putPending(tx);
             dead.remove(tx.getHash());
         }
     }
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import com.google.bitcoin.core.WalletTransaction.Pool;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The transactions of a {@link Wallet} and the pools they were in at one point in time. A snapshot never changes, so
+ * it can be read from any thread without the wallet lock. The wallet hands out the same snapshot until its pools
+ * change, see {@link Wallet#getSnapshot()}. The transactions themselves are the wallet's own live objects, so their
+ * confidence and update times can move on after the snapshot was taken.<p>
+ *
+ * The views of the transactions are worked out the first time they are asked for, and are shared by everybody
+ * reading the same snapshot. They can't be modified.
+ */
+public class WalletSnapshot {
+    private final long version;
+    private final List<Transaction> unspent;
+    private final List<Transaction> spent;
+    private final List<Transaction> pending;
+    private final List<Transaction> inactive;
+    private final List<Transaction> dead;
+
+    // Worked out on demand. Two threads may both work one out, they get equal answers so it doesn't matter which
+    // one is kept.
+    private volatile Set<WalletTransaction> walletTransactions;
+    private final AtomicReferenceArray<Set<Transaction>> transactions = new AtomicReferenceArray<Set<Transaction>>(4);
+    private final AtomicReferenceArray<ByTime> byTime = new AtomicReferenceArray<ByTime>(2);
+
+    /** Transactions sorted newest first, and the update times they were sorted by. */
+    private static class ByTime {
+        final List<Transaction> transactions;
+        final long[] times;
+
+        ByTime(Collection<Transaction> txns) {
+            List<Transaction> sorted = new ArrayList<Transaction>(txns);
+            Collections.sort(sorted, Collections.reverseOrder(new Comparator<Transaction>() {
+                public int compare(Transaction t1, Transaction t2) {
+                    return t1.getUpdateTime().compareTo(t2.getUpdateTime());
+                }
+            }));
+            transactions = Collections.unmodifiableList(sorted);
+            times = new long[sorted.size()];
+            for (int i = 0; i < times.length; i++)
+                times[i] = sorted.get(i).getUpdateTime().getTime();
+        }
+
+        boolean isCurrent() {
+            for (int i = 0; i < times.length; i++) {
+                if (transactions.get(i).getUpdateTime().getTime() != times[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    WalletSnapshot(long version, Collection<Transaction> unspent, Collection<Transaction> spent,
+                   Collection<Transaction> pending, Collection<Transaction> inactive, Collection<Transaction> dead) {
+        this.version = version;
+        this.unspent = new ArrayList<Transaction>(unspent);
+        this.spent = new ArrayList<Transaction>(spent);
+        this.pending = new ArrayList<Transaction>(pending);
+        this.inactive = new ArrayList<Transaction>(inactive);
+        this.dead = new ArrayList<Transaction>(dead);
+    }
+
+    /**
+     * Returns a number that goes up every time the wallet's pools change. Two snapshots with the same version hold
+     * the same transactions.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns every transaction with the pool it is in. Transactions that are both pending and on a side chain are
+     * returned once, as {@link Pool#PENDING_INACTIVE}.
+     */
+    public Set<WalletTransaction> getWalletTransactions() {
+        Set<WalletTransaction> result = walletTransactions;
+        if (result != null)
+            return result;
+        Set<Transaction> inactiveSet = new HashSet<Transaction>(inactive);
+        Set<Transaction> pendingSet = new HashSet<Transaction>(pending);
+        result = new HashSet<WalletTransaction>();
+        add(result, Pool.UNSPENT, unspent);
+        add(result, Pool.SPENT, spent);
+        add(result, Pool.DEAD, dead);
+        for (Transaction tx : pending)
+            result.add(new WalletTransaction(inactiveSet.contains(tx) ? Pool.PENDING_INACTIVE : Pool.PENDING, tx));
+        for (Transaction tx : inactive) {
+            if (!pendingSet.contains(tx))
+                result.add(new WalletTransaction(Pool.INACTIVE, tx));
+        }
+        result = Collections.unmodifiableSet(result);
+        walletTransactions = result;
+        return result;
+    }
+
+    private static void add(Set<WalletTransaction> txs, Pool pool, List<Transaction> pooled) {
+        for (Transaction tx : pooled)
+            txs.add(new WalletTransaction(pool, tx));
+    }
+
+    /**
+     * Returns the unspent, spent and pending transactions.
+     *
+     * @param includeDead     If true, transactions that were overridden by a double spend are included.
+     * @param includeInactive If true, transactions that are on side chains (are unspendable) are included.
+     */
+    public Set<Transaction> getTransactions(boolean includeDead, boolean includeInactive) {
+        int which = (includeDead ? 1 : 0) | (includeInactive ? 2 : 0);
+        Set<Transaction> result = transactions.get(which);
+        if (result != null)
+            return result;
+        Set<Transaction> all = new HashSet<Transaction>();
+        all.addAll(unspent);
+        all.addAll(spent);
+        all.addAll(pending);
+        if (includeDead)
+            all.addAll(dead);
+        if (includeInactive)
+            all.addAll(inactive);
+        result = Collections.unmodifiableSet(all);
+        transactions.set(which, result);
+        return result;
+    }
+
+    /**
+     * Returns the transactions that aren't on side chains, newest first by {@link Transaction#getUpdateTime()}. Dead
+     * transactions are optionally included. Update times can change without the pools changing, so the order is
+     * checked against them on every call and only sorted again if one moved.
+     */
+    public List<Transaction> getTransactionsByTime(boolean includeDead) {
+        int which = includeDead ? 1 : 0;
+        ByTime result = byTime.get(which);
+        if (result == null || !result.isCurrent()) {
+            result = new ByTime(getTransactions(includeDead, false));
+            byTime.set(which, result);
+        }
+        return result.transactions;
+    }
+
+    /** Returns the number of transactions in the given pool. Pending transactions on a side chain count in both. */
+    public int getPoolSize(Pool pool) {
+        switch (pool) {
+            case UNSPENT:
+                return unspent.size();
+            case SPENT:
+                return spent.size();
+            case PENDING:
+                return pending.size();
+            case INACTIVE:
+                return inactive.size();
+            case DEAD:
+                return dead.size();
+            case ALL:
+                return unspent.size() + spent.size() + pending.size() + inactive.size() + dead.size();
+        }
+        throw new RuntimeException("Unreachable");
+    }
+}
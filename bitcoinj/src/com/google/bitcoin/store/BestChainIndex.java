@@ -0,0 +1,60 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.store;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Maps heights to the hashes of the blocks on the best chain, for stores that keep all their blocks in a map. Not
+ * thread safe, callers must hold the store lock.
+ */
+class BestChainIndex {
+    private final ArrayList<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+
+    /**
+     * Points the index at the chain ending in the given block. It walks back from the new head until it meets a block
+     * that is already in the index, which is the old head in the common case and the fork point after a re-org.
+     */
+    void setChainHead(StoredBlock head, Map<Sha256Hash, StoredBlock> blocks) {
+        int top = head.getHeight();
+        while (hashes.size() > top + 1)
+            hashes.remove(hashes.size() - 1);
+        while (hashes.size() < top + 1)
+            hashes.add(null);
+        StoredBlock cursor = head;
+        while (cursor != null) {
+            Sha256Hash hash = cursor.getHeader().getHash();
+            int height = cursor.getHeight();
+            if (hash.equals(hashes.get(height)))
+                break;
+            hashes.set(height, hash);
+            if (height == 0)
+                break;
+            cursor = blocks.get(cursor.getHeader().getPrevBlockHash());
+        }
+    }
+
+    Sha256Hash get(int height) {
+        if (height < 0 || height >= hashes.size())
+            return null;
+        return hashes.get(height);
+    }
+}
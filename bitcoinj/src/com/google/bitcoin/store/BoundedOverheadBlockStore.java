@@ -26,9 +26,11 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -42,10 +44,10 @@ import java.util.Map;
  * traversing difficulty transition points, which requires seeking backwards over around 2000 blocks. On a Google
  * Nexus S phone this takes a couple of seconds. On a MacBook Pro it takes around 50msec.<p>
  *
- * The store has much room for optimization. Expanding the size of the cache will likely allow us to traverse
- * difficulty transitions without using too much memory and without hitting the disk at all, for the case of initial
- * block chain download. Storing the hashes on disk would allow us to avoid deserialization and hashing which is
- * expensive on Android.
+ * To find a block that is not in the cache, an index file stored next to the block file maps block hashes to record
+ * positions using an open addressing hash table. A lookup costs a few small reads of the index plus one read of the
+ * record, regardless of where in the chain the block is. The index can always be recreated from the block file, so
+ * it is rebuilt on load if it is missing, damaged or does not cover every record.
  */
 public class BoundedOverheadBlockStore implements BlockStore {
     private static final Logger log = LoggerFactory.getLogger(BoundedOverheadBlockStore.class);
@@ -77,6 +79,10 @@ public class BoundedOverheadBlockStore implements BlockStore {
     private Sha256Hash chainHead;
     private final NetworkParameters params;
     private FileChannel channel;
+    private HashIndex index;
+
+    // Offset of the first record: a version byte followed by the chain head hash.
+    private static final int RECORDS_START = 1 + 32;
 
     private static class Record {
         // A BigInteger representing the total amount of work done so far on this chain. As of May 2011 it takes 8
@@ -96,7 +102,8 @@ public class BoundedOverheadBlockStore implements BlockStore {
             blockHeader = new byte[Block.HEADER_SIZE];
         }
 
-        public static void write(FileChannel channel, StoredBlock block) throws IOException {
+        /** Appends the block to the end of the file and returns the position it was written at. */
+        public static long write(FileChannel channel, StoredBlock block) throws IOException {
             ByteBuffer buf = ByteBuffer.allocate(Record.SIZE);
             buf.putInt(block.getHeight());
             byte[] chainWorkBytes = block.getChainWork().toByteArray();
@@ -108,10 +115,12 @@ public class BoundedOverheadBlockStore implements BlockStore {
             buf.put(chainWorkBytes);
             buf.put(block.getHeader().bitcoinSerialize());
             buf.position(0);
-            channel.position(channel.size());
+            long position = channel.size();
+            channel.position(position);
             if (channel.write(buf) < Record.SIZE)
                 throw new IOException("Failed to write record!");
-            channel.position(channel.size() - Record.SIZE);
+            channel.position(position);
+            return position;
         }
 
         public boolean read(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
@@ -134,6 +143,11 @@ public class BoundedOverheadBlockStore implements BlockStore {
             return new Block(params, blockHeader);
         }
 
+        /** Hashes the header bytes directly, without deserializing them into a Block. */
+        public Sha256Hash getHeaderHash() {
+            return new Sha256Hash(Utils.reverseBytes(Utils.doubleDigest(blockHeader)));
+        }
+
         public int getHeight() {
             return height;
         }
@@ -143,6 +157,142 @@ public class BoundedOverheadBlockStore implements BlockStore {
         }
     }
 
+    /**
+     * An open addressing hash table kept in a memory mapped file, mapping block hashes to record numbers in the block
+     * file. Each slot holds 8 bytes of the hash and the record number plus one, so that an all zero slot is empty.
+     * As only part of the hash is kept, lookups return candidate records which the caller must check. The table is
+     * doubled in size when it becomes half full.
+     */
+    private static class HashIndex {
+        private static final byte VERSION = 1;
+        // Version byte, table capacity, number of block file records indexed.
+        private static final int HEADER_SIZE = 1 + 4 + 8;
+        private static final int SLOT_SIZE = 8 + 4;
+        private static final int INITIAL_CAPACITY = 1 << 12;
+
+        private final File file;
+        private RandomAccessFile raf;
+        private MappedByteBuffer table;
+        private int capacity;
+        private long numRecords;
+
+        private HashIndex(File file) {
+            this.file = file;
+        }
+
+        /** Creates a new, empty index, replacing any existing file. */
+        static HashIndex create(File file) throws IOException {
+            HashIndex index = new HashIndex(file);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            index.map(raf, INITIAL_CAPACITY);
+            return index;
+        }
+
+        /** Opens an existing index. Throws if the file is not a valid index. */
+        static HashIndex open(File file) throws IOException {
+            HashIndex index = new HashIndex(file);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() < HEADER_SIZE || raf.readByte() != VERSION)
+                    throw new IOException("Bad block index header");
+                int capacity = raf.readInt();
+                index.numRecords = raf.readLong();
+                if (capacity <= 0 || (capacity & (capacity - 1)) != 0 ||
+                        raf.length() != HEADER_SIZE + (long) capacity * SLOT_SIZE || index.numRecords < 0)
+                    throw new IOException("Bad block index size");
+                index.map(raf, capacity);
+                return index;
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        private void map(RandomAccessFile raf, int capacity) throws IOException {
+            this.raf = raf;
+            this.capacity = capacity;
+            raf.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            table = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            table.put(0, VERSION);
+            table.putInt(1, capacity);
+            table.putLong(1 + 4, numRecords);
+        }
+
+        long getNumRecords() {
+            return numRecords;
+        }
+
+        /** Returns the numbers of the records which may hold the block with the given hash. */
+        List<Long> get(Sha256Hash hash) {
+            List<Long> candidates = new ArrayList<Long>(1);
+            long key = key(hash);
+            for (int slot = firstSlot(key, capacity); ; slot = (slot + 1) & (capacity - 1)) {
+                int offset = HEADER_SIZE + slot * SLOT_SIZE;
+                int value = table.getInt(offset + 8);
+                if (value == 0)
+                    return candidates;
+                if (table.getLong(offset) == key)
+                    candidates.add(value - 1L);
+            }
+        }
+
+        /** Records that the block with the given hash is stored in the given record. */
+        void put(Sha256Hash hash, long recordNumber) throws IOException {
+            if ((recordNumber + 1) * 2 > capacity)
+                grow();
+            insert(table, capacity, key(hash), (int) recordNumber + 1);
+            numRecords = Math.max(numRecords, recordNumber + 1);
+            table.putLong(1 + 4, numRecords);
+        }
+
+        private void grow() throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            HashIndex bigger = new HashIndex(file);
+            bigger.numRecords = numRecords;
+            RandomAccessFile tmpFile = new RandomAccessFile(tmp, "rw");
+            tmpFile.setLength(0);
+            bigger.map(tmpFile, capacity * 2);
+            for (int slot = 0; slot < capacity; slot++) {
+                int offset = HEADER_SIZE + slot * SLOT_SIZE;
+                int value = table.getInt(offset + 8);
+                if (value != 0)
+                    insert(bigger.table, bigger.capacity, table.getLong(offset), value);
+            }
+            raf.close();
+            if (!tmp.renameTo(file))
+                throw new IOException("Could not replace block index " + file);
+            raf = bigger.raf;
+            table = bigger.table;
+            capacity = bigger.capacity;
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+
+        private static void insert(MappedByteBuffer table, int capacity, long key, int value) {
+            int slot = firstSlot(key, capacity);
+            while (table.getInt(HEADER_SIZE + slot * SLOT_SIZE + 8) != 0)
+                slot = (slot + 1) & (capacity - 1);
+            table.putLong(HEADER_SIZE + slot * SLOT_SIZE, key);
+            table.putInt(HEADER_SIZE + slot * SLOT_SIZE + 8, value);
+        }
+
+        private static long key(Sha256Hash hash) {
+            // Block hashes start with zeros, so use the other end.
+            byte[] bytes = hash.getBytes();
+            long key = 0;
+            for (int i = bytes.length - 8; i < bytes.length; i++)
+                key = (key << 8) | (bytes[i] & 0xFF);
+            return key;
+        }
+
+        private static int firstSlot(long key, int capacity) {
+            return (int) (key ^ (key >>> 32)) & (capacity - 1);
+        }
+    }
+
     public BoundedOverheadBlockStore(NetworkParameters params, File file) throws BlockStoreException {
         this.params = params;
         if (file.exists()) {
@@ -158,6 +308,11 @@ public class BoundedOverheadBlockStore implements BlockStore {
         createNewStore(params, file);
     }
 
+    /** Returns the file the hash index for the given block file is kept in. */
+    static File getIndexFile(File file) {
+        return new File(file.getPath() + ".index");
+    }
+
     private void createNewStore(NetworkParameters params, File file) throws BlockStoreException {
         // Create a new block store if the file wasn't found or anything went wrong whilst reading.
         blockCache.clear();
@@ -170,6 +325,9 @@ public class BoundedOverheadBlockStore implements BlockStore {
             this.file = new RandomAccessFile(file, "rwd");
             this.channel = this.file.getChannel();
             this.file.write(FILE_FORMAT_VERSION);
+            if (index != null)
+                index.close();
+            index = HashIndex.create(getIndexFile(file));
         } catch (IOException e1) {
             // We could not load a block store nor could we create a new one!
             throw new BlockStoreException(e1);
@@ -210,6 +368,7 @@ public class BoundedOverheadBlockStore implements BlockStore {
             this.chainHead = new Sha256Hash(chainHeadHash);
             log.info("Read chain head from disk: {}", this.chainHead);
             channel.position(channel.size() - Record.SIZE);
+            loadIndex(file);
         } catch (IOException e) {
             this.file.close();
             throw e;
@@ -219,12 +378,87 @@ public class BoundedOverheadBlockStore implements BlockStore {
         }
     }
 
+    private long getNumRecords() throws IOException {
+        return (channel.size() - RECORDS_START) / Record.SIZE;
+    }
+
+    /**
+     * Opens the hash index, bringing it up to date with the block file. A damaged or unreadable index is rebuilt from
+     * scratch. An index that is missing only the last few records, for instance because we crashed between writing a
+     * record and indexing it, just has those records added.
+     */
+    private void loadIndex(File file) throws IOException, BlockStoreException {
+        File indexFile = getIndexFile(file);
+        long numRecords = getNumRecords();
+        try {
+            if (indexFile.exists())
+                index = HashIndex.open(indexFile);
+        } catch (IOException e) {
+            log.warn("Could not read block index, rebuilding it: {}", e.getMessage());
+        }
+        if (index != null && index.getNumRecords() > numRecords) {
+            log.warn("Block index covers more records than the block file, rebuilding it");
+            index.close();
+            index = null;
+        }
+        if (index == null)
+            index = HashIndex.create(indexFile);
+        if (index.getNumRecords() < numRecords) {
+            long startTime = System.currentTimeMillis();
+            long from = index.getNumRecords();
+            indexRecords(from, numRecords);
+            log.info("Indexed {} block records in {} ms", numRecords - from, System.currentTimeMillis() - startTime);
+        }
+        // The index is not written synchronously, so check the most recently written records made it in.
+        if (!isIndexed(Math.max(0, numRecords - 100), numRecords)) {
+            log.warn("Block index is missing recent records, rebuilding it");
+            index.close();
+            index = HashIndex.create(indexFile);
+            indexRecords(0, numRecords);
+        }
+    }
+
+    private boolean isIndexed(long from, long to) throws IOException {
+        Record record = new Record();
+        for (long n = from; n < to; n++) {
+            if (!record.read(channel, RECORDS_START + n * Record.SIZE, buf))
+                throw new IOException("Failed to read buffer");
+            if (!index.get(record.getHeaderHash()).contains(n))
+                return false;
+        }
+        return true;
+    }
+
+    private void indexRecords(long from, long to) throws IOException {
+        // Read a batch of records at a time, the file could be large.
+        final int batch = 1000;
+        ByteBuffer records = ByteBuffer.allocate(batch * Record.SIZE);
+        Record record = new Record();
+        for (long n = from; n < to; n += batch) {
+            int count = (int) Math.min(batch, to - n);
+            records.clear();
+            records.limit(count * Record.SIZE);
+            long position = RECORDS_START + n * Record.SIZE;
+            while (records.hasRemaining()) {
+                if (channel.read(records, position + records.position()) < 0)
+                    throw new IOException("Unexpected end of block file");
+            }
+            for (int i = 0; i < count; i++) {
+                records.position(i * Record.SIZE + 4 + Record.CHAIN_WORK_BYTES);
+                records.get(record.blockHeader);
+                index.put(record.getHeaderHash(), n + i);
+            }
+        }
+    }
+
     public synchronized void put(StoredBlock block) throws BlockStoreException {
         try {
             Sha256Hash hash = block.getHeader().getHash();
             // Append to the end of the file.
-            Record.write(channel, block);
+            long position = Record.write(channel, block);
+            index.put(hash, (position - RECORDS_START) / Record.SIZE);
             blockCache.put(hash, block);
+            notFoundCache.remove(hash);
         } catch (IOException e) {
             throw new BlockStoreException(e);
         }
@@ -260,40 +494,13 @@ public class BoundedOverheadBlockStore implements BlockStore {
     private ByteBuffer buf = ByteBuffer.allocateDirect(Record.SIZE);
 
     private Record getRecord(Sha256Hash hash) throws BlockStoreException, IOException, ProtocolException {
-        long startPos = channel.position();
-        // Use our own file pointer within the tight loop as updating channel positions is really expensive.
-        long pos = startPos;
         Record record = new Record();
-        int numMoves = 0;
-        long startTime = new Date().getTime();
-        do {
-            if (!record.read(channel, pos, buf))
+        // The index only stores part of each hash, so check the candidates it gives us against the full hash.
+        for (long n : index.get(hash)) {
+            if (!record.read(channel, RECORDS_START + n * Record.SIZE, buf))
                 throw new IOException("Failed to read buffer");
-            if (record.getHeader(params).getHash().equals(hash)) {
-                // Found it. Update file position for next time.
-                channel.position(pos);
-                long endTime = new Date().getTime();
-                if (endTime - startTime > 100) {
-                    log.info("Spent {} seconds doing {} backwards seeks", (endTime - startTime) / 1000.0, numMoves);
-                }
+            if (record.getHeaderHash().equals(hash))
                 return record;
-            }
-            // Did not find it.
-            if (pos == 1 + 32) {
-                // At the start so wrap around to the end.
-                pos = channel.size() - Record.SIZE;
-            } else {
-                // Move backwards.
-                pos = pos - Record.SIZE;
-                assert pos >= 1 + 32 : pos;
-            }
-            numMoves++;
-        } while (pos != startPos);
-        // Was never stored.
-        channel.position(pos);
-        long endTime = new Date().getTime();
-        if (endTime - startTime > 1000) {
-            log.info("Spent {} seconds doing {} backwards seeks", (endTime - startTime) / 1000.0, numMoves);
         }
         return null;
     }
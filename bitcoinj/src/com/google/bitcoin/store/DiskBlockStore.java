@@ -25,19 +25,27 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * Stores the block chain to disk but still holds it in memory. This is intended for desktop apps and tests.
  * Constrained environments like mobile phones probably won't want to or be able to store all the block headers in RAM.
  */
-public class DiskBlockStore implements BlockStore {
+public class DiskBlockStore implements HeightIndexedBlockStore {
     private static final Logger log = LoggerFactory.getLogger(DiskBlockStore.class);
+    // Headers are read from disk this many at a time when loading.
+    private static final int HEADERS_PER_CHUNK = 10000;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
 
     private RandomAccessFile file;
     private Map<Sha256Hash, StoredBlock> blockMap;
     private Sha256Hash chainHead;
+    private final BestChainIndex bestChain = new BestChainIndex();
     private NetworkParameters params;
 
     public DiskBlockStore(NetworkParameters params, File theFile) throws BlockStoreException {
@@ -71,6 +79,7 @@ public class DiskBlockStore implements BlockStore {
             this.chainHead = storedGenesis.getHeader().getHash();
             file.write(this.chainHead.getBytes());
             put(storedGenesis);
+            bestChain.setChainHead(storedGenesis, blockMap);
         } catch (VerificationException e1) {
             throw new RuntimeException(e1);  // Cannot happen.
         } catch (IOException e) {
@@ -97,47 +106,27 @@ public class DiskBlockStore implements BlockStore {
             this.chainHead = new Sha256Hash(chainHeadHash);
             log.info("Read chain head from disk: {}", this.chainHead);
             long now = System.currentTimeMillis();
-            // Rest of file is raw block headers.
-            byte[] headerBytes = new byte[Block.HEADER_SIZE];
+            // Rest of file is raw block headers. Read them in large chunks and parse and hash them in parallel, as
+            // hashing is most of the work. Connecting them to each other is cheap, so that is done serially.
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
             try {
-                while (true) {
-                    // Read a block from disk.
-                    int read = file.read(headerBytes);
-                    if (read == -1) {
-                        // End of file.
-                        break;
-                    }
-                    if (read < headerBytes.length) {
+                List<Block> blocks = new ArrayList<Block>();
+                byte[] chunk = new byte[HEADERS_PER_CHUNK * Block.HEADER_SIZE];
+                int read;
+                do {
+                    read = readFully(chunk);
+                    if (read % Block.HEADER_SIZE != 0)
                         throw new BlockStoreException("Truncated block store: partial block read");
-                    }
-                    // Parse it.
-                    Block b = new Block(params, headerBytes);
-                    // Look up the previous block it connects to.
-                    StoredBlock prev = get(b.getPrevBlockHash());
-                    StoredBlock s;
-                    if (prev == null) {
-                        // First block in the stored chain has to be treated specially.
-                        if (b.equals(params.genesisBlock)) {
-                            s = new StoredBlock(params.genesisBlock.cloneAsHeader(), params.genesisBlock.getWork(), 0);
-                        } else {
-                            throw new BlockStoreException("Could not connect " + b.getHash().toString() + " to "
-                                    + b.getPrevBlockHash().toString());
-                        }
-                    } else {
-                        // Don't try to verify the genesis block to avoid upsetting the unit tests.
-                        b.verifyHeader();
-                        // Calculate its height and total chain work.
-                        s = prev.build(b);
-                    }
-                    // Save in memory.
-                    blockMap.put(b.getHash(), s);
-                }
-            } catch (ProtocolException e) {
-                // Corrupted file.
-                throw new BlockStoreException(e);
-            } catch (VerificationException e) {
-                // Should not be able to happen unless the file contains bad blocks.
-                throw new BlockStoreException(e);
+                    blocks.addAll(parseHeaders(executor, chunk, read / Block.HEADER_SIZE));
+                } while (read == chunk.length);
+                List<StoredBlock> stored = connect(blocks);
+                verifyHeaders(executor, stored, getTrustedHeight());
+                StoredBlock head = blockMap.get(chainHead);
+                if (head == null)
+                    throw new BlockStoreException("Corrupted block store: chain head not found");
+                bestChain.setChainHead(head, blockMap);
+            } finally {
+                executor.shutdown();
             }
             long elapsed = System.currentTimeMillis() - now;
             log.info("Block chain read complete in {}ms", elapsed);
@@ -145,6 +134,141 @@ public class DiskBlockStore implements BlockStore {
         }
     }
 
+    /** Reads from the current file position until the buffer is full or the end of the file is reached. */
+    private int readFully(byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = file.read(buffer, total, buffer.length - total);
+            if (read == -1)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    private List<Block> parseHeaders(ExecutorService executor, final byte[] chunk, int count)
+            throws BlockStoreException {
+        final Block[] blocks = new Block[count];
+        forEachSlice(executor, count, new SliceTask() {
+            public void run(int from, int to) throws Exception {
+                for (int i = from; i < to; i++) {
+                    byte[] headerBytes = new byte[Block.HEADER_SIZE];
+                    System.arraycopy(chunk, i * Block.HEADER_SIZE, headerBytes, 0, Block.HEADER_SIZE);
+                    blocks[i] = new Block(params, headerBytes);
+                    // Calculate the hash now, while we are running in parallel.
+                    blocks[i].getHash();
+                }
+            }
+        });
+        return Arrays.asList(blocks);
+    }
+
+    /** Connects each block to the one before it, calculating heights and chain work, and saves them in memory. */
+    private List<StoredBlock> connect(List<Block> blocks) throws BlockStoreException {
+        List<StoredBlock> stored = new ArrayList<StoredBlock>(blocks.size());
+        try {
+            for (Block b : blocks) {
+                // Look up the previous block it connects to.
+                StoredBlock prev = blockMap.get(b.getPrevBlockHash());
+                StoredBlock s;
+                if (prev == null) {
+                    // First block in the stored chain has to be treated specially. It is either the genesis block or
+                    // a checkpoint the chain was started from, see CheckpointManager.
+                    StoredBlock checkpoint = findCheckpoint(b.getHash());
+                    if (b.equals(params.genesisBlock)) {
+                        s = new StoredBlock(params.genesisBlock.cloneAsHeader(), params.genesisBlock.getWork(), 0);
+                    } else if (checkpoint != null) {
+                        s = checkpoint;
+                    } else {
+                        throw new BlockStoreException("Could not connect " + b.getHash().toString() + " to "
+                                + b.getPrevBlockHash().toString());
+                    }
+                } else {
+                    // Calculate its height and total chain work.
+                    s = prev.build(b);
+                }
+                // Save in memory.
+                blockMap.put(b.getHash(), s);
+                stored.add(s);
+            }
+        } catch (VerificationException e) {
+            // Should not be able to happen unless the file contains bad blocks.
+            throw new BlockStoreException(e);
+        }
+        return stored;
+    }
+
+    private StoredBlock findCheckpoint(Sha256Hash hash) {
+        if (params.checkpointBlocks == null)
+            return null;
+        for (StoredBlock checkpoint : params.checkpointBlocks.values()) {
+            if (checkpoint.getHeader().getHash().equals(hash))
+                return checkpoint;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the height of the highest checkpoint in the loaded chain. Blocks at or below that height are trusted,
+     * as the checkpoint hash commits to all of its ancestors.
+     */
+    private int getTrustedHeight() {
+        int trusted = 0;
+        if (params.checkpoints == null)
+            return trusted;
+        for (Map.Entry<Integer, Sha256Hash> checkpoint : params.checkpoints.entrySet()) {
+            StoredBlock block = blockMap.get(checkpoint.getValue());
+            if (block != null && block.getHeight() == checkpoint.getKey())
+                trusted = Math.max(trusted, block.getHeight());
+        }
+        return trusted;
+    }
+
+    private void verifyHeaders(ExecutorService executor, final List<StoredBlock> stored, final int trustedHeight)
+            throws BlockStoreException {
+        forEachSlice(executor, stored.size(), new SliceTask() {
+            public void run(int from, int to) throws Exception {
+                for (int i = from; i < to; i++) {
+                    StoredBlock s = stored.get(i);
+                    // Trusted blocks include the genesis block, which we don't verify to avoid upsetting the unit
+                    // tests.
+                    if (s.getHeight() > trustedHeight)
+                        s.getHeader().verifyHeader();
+                }
+            }
+        });
+    }
+
+    private interface SliceTask {
+        void run(int from, int to) throws Exception;
+    }
+
+    /** Splits [0, count) into slices and runs the task on each of them in parallel, waiting for them to finish. */
+    private static void forEachSlice(ExecutorService executor, int count, final SliceTask task)
+            throws BlockStoreException {
+        int sliceSize = Math.max(1, (count + THREADS * 4 - 1) / (THREADS * 4));
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < count; i += sliceSize) {
+            final int from = i;
+            final int to = Math.min(count, i + sliceSize);
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    task.run(from, to);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            throw new BlockStoreException(e);
+        } catch (ExecutionException e) {
+            // ProtocolException means a corrupted file, VerificationException a bad block in it.
+            throw new BlockStoreException(e.getCause());
+        }
+    }
+
     public synchronized void put(StoredBlock block) throws BlockStoreException {
         try {
             Sha256Hash hash = block.getHeader().getHash();
@@ -171,8 +295,13 @@ public class DiskBlockStore implements BlockStore {
             this.chainHead = chainHead.getHeader().getHash();
             // Write out new hash to the first 32 bytes of the file past one (first byte is version number).
             file.getChannel().write(ByteBuffer.wrap(this.chainHead.getBytes()), 1);
+            bestChain.setChainHead(chainHead, blockMap);
         } catch (IOException e) {
             throw new BlockStoreException(e);
         }
     }
+
+    public synchronized Sha256Hash getHashAtHeight(int height) throws BlockStoreException {
+        return bestChain.get(height);
+    }
 }
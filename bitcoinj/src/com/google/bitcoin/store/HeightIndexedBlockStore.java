@@ -0,0 +1,32 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.store;
+
+import com.google.bitcoin.core.Sha256Hash;
+
+/**
+ * A {@link BlockStore} that can look up the blocks of the best chain by height, without walking back from the chain
+ * head. This is used to build block locators that reach all the way back to the genesis block cheaply.
+ */
+public interface HeightIndexedBlockStore extends BlockStore {
+    /**
+     * Returns the hash of the block at the given height on the chain ending at the current chain head, or null if the
+     * store does not know it. That is the case for heights above the chain head, and may also be the case for blocks
+     * the store has discarded or never had, such as those below a checkpoint the chain was started from.
+     */
+    Sha256Hash getHashAtHeight(int height) throws BlockStoreException;
+}
@@ -24,9 +24,10 @@ import java.util.Map;
 /**
  * Keeps {@link com.google.bitcoin.core.StoredBlock}s in memory. Used primarily for unit testing.
  */
-public class MemoryBlockStore implements BlockStore {
+public class MemoryBlockStore implements HeightIndexedBlockStore {
     private Map<Sha256Hash, StoredBlock> blockMap;
     private StoredBlock chainHead;
+    private final BestChainIndex bestChain = new BestChainIndex();
 
     public MemoryBlockStore(NetworkParameters params) {
         blockMap = new HashMap<Sha256Hash, StoredBlock>();
@@ -52,11 +53,16 @@ public class MemoryBlockStore implements BlockStore {
         return blockMap.get(hash);
     }
 
-    public StoredBlock getChainHead() {
+    public synchronized StoredBlock getChainHead() {
         return chainHead;
     }
 
-    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+    public synchronized void setChainHead(StoredBlock chainHead) throws BlockStoreException {
         this.chainHead = chainHead;
+        bestChain.setChainHead(chainHead, blockMap);
+    }
+
+    public synchronized Sha256Hash getHashAtHeight(int height) {
+        return bestChain.get(height);
     }
 }
@@ -0,0 +1,334 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.store;
+
+import com.google.bitcoin.core.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores the most recent block headers in a memory mapped file of fixed size records.<p>
+ *
+ * A simplified payment verification client only needs the top of the chain: enough headers to check difficulty
+ * transitions and to survive a re-org. This store keeps a ring of the last <i>capacity</i> headers put into it, with
+ * the oldest being overwritten once the ring is full, so the file size and the memory used do not depend on the length
+ * of the chain. Each record holds the block hash, the height, the chain work and the 80 header bytes, so finding a
+ * block never requires hashing or deserializing the headers that are passed over.<p>
+ *
+ * The file also keeps a table from height to the record holding the block at that height on the best chain, which is
+ * kept up to date by {@link #setChainHead(StoredBlock)}. Opening the store only reads the hashes out of the mapped
+ * file to build a hash to record table of at most <i>capacity</i> entries; no headers are parsed.<p>
+ *
+ * The file layout is a version byte, the capacity, the next record to write and the chain head hash, followed by the
+ * records and then the height table.
+ */
+public class SPVBlockStore implements HeightIndexedBlockStore {
+    private static final Logger log = LoggerFactory.getLogger(SPVBlockStore.class);
+    private static final byte FILE_FORMAT_VERSION = 1;
+
+    /** The default number of headers kept, comfortably more than a difficulty transition period. */
+    public static final int DEFAULT_CAPACITY = 5000;
+
+    // Version byte, capacity, index of the next record to write, chain head hash.
+    private static final int HEADER_SIZE = 1 + 4 + 4 + 32;
+    // Slightly more than 8 bytes are needed for the chain work today, see BoundedOverheadBlockStore.
+    private static final int CHAIN_WORK_BYTES = 16;
+    // Hash, height, chain work, header.
+    private static final int RECORD_SIZE = 32 + 4 + CHAIN_WORK_BYTES + Block.HEADER_SIZE;
+    private static final byte[] EMPTY_HASH = new byte[32];
+
+    private final NetworkParameters params;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    // Index of the record the next put() will write.
+    private int cursor;
+    private Sha256Hash chainHead;
+    // Maps the hash of every block in the ring to its record index. Bounded by the capacity.
+    private final Map<Sha256Hash, Integer> records = new HashMap<Sha256Hash, Integer>();
+
+    // A few recently used blocks, to avoid parsing the same header over and over.
+    private final LinkedHashMap<Sha256Hash, StoredBlock> blockCache = new LinkedHashMap<Sha256Hash, StoredBlock>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, StoredBlock> entry) {
+            return size() > 100;
+        }
+    };
+
+    /**
+     * Opens the store in the given file, or creates a new one holding {@link #DEFAULT_CAPACITY} headers if the file
+     * does not exist or cannot be read.
+     */
+    public SPVBlockStore(NetworkParameters params, File file) throws BlockStoreException {
+        this(params, file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens the store in the given file, or creates a new one holding the given number of headers if the file does
+     * not exist or cannot be read. The capacity of an existing file is not changed.
+     */
+    public SPVBlockStore(NetworkParameters params, File file, int capacity) throws BlockStoreException {
+        this.params = params;
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        if (file.exists()) {
+            try {
+                load(file);
+                return;
+            } catch (Exception e) {
+                log.error("Failed to load block chain from " + file, e);
+                records.clear();
+                // Fall through and try to create a new one.
+            }
+        }
+        createNewStore(file, capacity);
+    }
+
+    private static long getFileSize(int capacity) {
+        // Records followed by the height table.
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE + (long) capacity * 4;
+    }
+
+    private void map(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, getFileSize(capacity));
+    }
+
+    private void createNewStore(File file, int capacity) throws BlockStoreException {
+        try {
+            if (this.file != null)
+                this.file.close();
+            if (file.exists() && !file.delete())
+                throw new BlockStoreException("Could not delete old store in order to recreate it");
+            this.capacity = capacity;
+            this.cursor = 0;
+            map(file);
+            buffer.put(0, FILE_FORMAT_VERSION);
+            buffer.putInt(1, capacity);
+            buffer.putInt(1 + 4, cursor);
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+        try {
+            // Set up the genesis block. When we start out fresh, it is by definition the top of the chain.
+            Block genesis = params.genesisBlock.cloneAsHeader();
+            StoredBlock storedGenesis = new StoredBlock(genesis, genesis.getWork(), 0);
+            put(storedGenesis);
+            setChainHead(storedGenesis);
+        } catch (VerificationException e) {
+            // Cannot happen.
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void load(File file) throws IOException, BlockStoreException {
+        log.info("Reading block store from {}", file);
+        long startTime = System.currentTimeMillis();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.readByte() != FILE_FORMAT_VERSION)
+                throw new BlockStoreException("Bad version number");
+            capacity = raf.readInt();
+            cursor = raf.readInt();
+            if (capacity < 1 || cursor < 0 || cursor >= capacity || raf.length() != getFileSize(capacity))
+                throw new BlockStoreException("Bad file size or header");
+        } finally {
+            raf.close();
+        }
+        map(file);
+        byte[] hash = new byte[32];
+        for (int i = 0; i < capacity; i++) {
+            buffer.position(getRecordOffset(i));
+            buffer.get(hash);
+            if (!Arrays.equals(hash, EMPTY_HASH))
+                records.put(new Sha256Hash(hash.clone()), i);
+        }
+        buffer.position(1 + 4 + 4);
+        buffer.get(hash);
+        chainHead = new Sha256Hash(hash);
+        if (!records.containsKey(chainHead))
+            throw new BlockStoreException("Corrupted block store: chain head not found");
+        log.info("Read {} block headers in {} ms, chain head is {}",
+                new Object[] { records.size(), System.currentTimeMillis() - startTime, chainHead });
+    }
+
+    private static int getRecordOffset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private int getHeightOffset(int height) {
+        return HEADER_SIZE + capacity * RECORD_SIZE + (height % capacity) * 4;
+    }
+
+    public synchronized void put(StoredBlock block) throws BlockStoreException {
+        Sha256Hash hash = block.getHeader().getHash();
+        Integer existing = records.get(hash);
+        int record = existing != null ? existing : cursor;
+        int offset = getRecordOffset(record);
+        if (existing == null) {
+            // Evict whatever we are about to overwrite.
+            byte[] oldHash = new byte[32];
+            buffer.position(offset);
+            buffer.get(oldHash);
+            if (!Arrays.equals(oldHash, EMPTY_HASH)) {
+                Sha256Hash old = new Sha256Hash(oldHash);
+                records.remove(old);
+                blockCache.remove(old);
+                int oldHeight = buffer.getInt(offset + 32);
+                if (buffer.getInt(getHeightOffset(oldHeight)) == record + 1)
+                    buffer.putInt(getHeightOffset(oldHeight), 0);
+            }
+            cursor = (cursor + 1) % capacity;
+        }
+        byte[] chainWorkBytes = block.getChainWork().toByteArray();
+        if (chainWorkBytes.length > CHAIN_WORK_BYTES)
+            throw new BlockStoreException("Ran out of space to store chain work!");
+        buffer.position(offset);
+        buffer.put(hash.getBytes());
+        buffer.putInt(block.getHeight());
+        // Pad to fit.
+        for (int i = chainWorkBytes.length; i < CHAIN_WORK_BYTES; i++)
+            buffer.put((byte) 0);
+        buffer.put(chainWorkBytes);
+        buffer.put(block.getHeader().bitcoinSerialize(), 0, Block.HEADER_SIZE);
+        // Only advance the cursor in the file once the record is complete.
+        buffer.putInt(1 + 4, cursor);
+        records.put(hash, record);
+        blockCache.put(hash, block);
+    }
+
+    public synchronized StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        StoredBlock block = blockCache.get(hash);
+        if (block != null)
+            return block;
+        Integer record = records.get(hash);
+        if (record == null)
+            return null;
+        block = readRecord(record);
+        blockCache.put(hash, block);
+        return block;
+    }
+
+    private StoredBlock readRecord(int record) throws BlockStoreException {
+        int offset = getRecordOffset(record) + 32;
+        int height = buffer.getInt(offset);
+        byte[] chainWorkBytes = new byte[CHAIN_WORK_BYTES];
+        byte[] header = new byte[Block.HEADER_SIZE];
+        buffer.position(offset + 4);
+        buffer.get(chainWorkBytes);
+        buffer.get(header);
+        try {
+            return new StoredBlock(new Block(params, header), new BigInteger(1, chainWorkBytes), height);
+        } catch (ProtocolException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
+    /**
+     * Returns a read only view of the 80 header bytes of the given block, without copying or parsing them, or null
+     * if the block is not in the store. The view is only valid until the record is overwritten, which happens
+     * <i>capacity</i> puts later.
+     */
+    public synchronized ByteBuffer getHeaderBytes(Sha256Hash hash) {
+        Integer record = records.get(hash);
+        if (record == null)
+            return null;
+        ByteBuffer view = buffer.duplicate();
+        view.position(getRecordOffset(record) + 32 + 4 + CHAIN_WORK_BYTES);
+        view.limit(view.position() + Block.HEADER_SIZE);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the block at the given height on the chain ending at the current chain head, or null if it is not in
+     * the store, either because it is higher than the chain head or because it has been overwritten by newer blocks.
+     */
+    public synchronized StoredBlock getByHeight(int height) throws BlockStoreException {
+        Sha256Hash hash = getHashAtHeight(height);
+        return hash == null ? null : get(hash);
+    }
+
+    public synchronized Sha256Hash getHashAtHeight(int height) throws BlockStoreException {
+        if (height < 0)
+            return null;
+        int record = buffer.getInt(getHeightOffset(height)) - 1;
+        if (record < 0 || buffer.getInt(getRecordOffset(record) + 32) != height)
+            return null;
+        if (height > getChainHead().getHeight())
+            return null;
+        byte[] hash = new byte[32];
+        buffer.position(getRecordOffset(record));
+        buffer.get(hash);
+        return new Sha256Hash(hash);
+    }
+
+    /** Returns the number of headers this store keeps before overwriting the oldest. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized StoredBlock getChainHead() throws BlockStoreException {
+        StoredBlock head = get(chainHead);
+        if (head == null)
+            throw new BlockStoreException("Corrupted block store: chain head not found");
+        return head;
+    }
+
+    public synchronized void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        Sha256Hash hash = chainHead.getHeader().getHash();
+        if (!records.containsKey(hash))
+            throw new BlockStoreException("Chain head must be put into the store first: " + hash);
+        this.chainHead = hash;
+        buffer.position(1 + 4 + 4);
+        buffer.put(hash.getBytes());
+        // Point the height table at the new best chain. Walk backwards until we reach a block that is already there,
+        // which is the parent of the new head in the common case and the fork point after a re-org.
+        StoredBlock cursor = chainHead;
+        while (cursor != null) {
+            int record = records.get(cursor.getHeader().getHash());
+            int offset = getHeightOffset(cursor.getHeight());
+            if (buffer.getInt(offset) == record + 1)
+                break;
+            buffer.putInt(offset, record + 1);
+            if (cursor.getHeight() == 0)
+                break;
+            cursor = get(cursor.getHeader().getPrevBlockHash());
+        }
+    }
+
+    /** Writes any outstanding changes to disk and releases the file. The store cannot be used afterwards. */
+    public synchronized void close() throws BlockStoreException {
+        try {
+            buffer.force();
+            file.close();
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+}
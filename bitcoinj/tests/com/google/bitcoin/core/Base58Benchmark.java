@@ -0,0 +1,127 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Times encoding and decoding addresses with {@link Base58} against the BigInteger code it used to have, and printing
+ * an Address, which now remembers its string. This is not run as part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.Base58Benchmark 200000</pre>
+ *
+ * The argument is the number of operations to time for each case. Every case is run a few times so the JIT can warm
+ * up, the last run is the one to look at.
+ */
+public class Base58Benchmark {
+    private static final String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final BigInteger BASE = BigInteger.valueOf(58);
+
+    interface Case {
+        void run(int i) throws Exception;
+    }
+
+    static void time(String name, int count, Case c) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            c.run(i);
+        System.out.println(String.format("  %-28s %6.0f ns", name, (System.nanoTime() - start) / (double) count));
+    }
+
+    // What Base58.encode used to do.
+    static String oldEncode(byte[] input) {
+        BigInteger bi = new BigInteger(1, input);
+        StringBuffer s = new StringBuffer();
+        while (bi.compareTo(BASE) >= 0) {
+            BigInteger mod = bi.mod(BASE);
+            s.insert(0, ALPHABET.charAt(mod.intValue()));
+            bi = bi.subtract(mod).divide(BASE);
+        }
+        s.insert(0, ALPHABET.charAt(bi.intValue()));
+        for (byte anInput : input) {
+            if (anInput == 0)
+                s.insert(0, ALPHABET.charAt(0));
+            else
+                break;
+        }
+        return s.toString();
+    }
+
+    // What Base58.decode used to do.
+    static byte[] oldDecode(String input) {
+        BigInteger value = BigInteger.valueOf(0);
+        for (int i = input.length() - 1; i >= 0; i--) {
+            int alphaIndex = ALPHABET.indexOf(input.charAt(i));
+            value = value.add(BigInteger.valueOf(alphaIndex).multiply(BASE.pow(input.length() - 1 - i)));
+        }
+        byte[] bytes = value.toByteArray();
+        boolean stripSignByte = bytes.length > 1 && bytes[0] == 0 && bytes[1] < 0;
+        int leadingZeros = 0;
+        for (int i = 0; input.charAt(i) == ALPHABET.charAt(0); i++)
+            leadingZeros++;
+        byte[] tmp = new byte[bytes.length - (stripSignByte ? 1 : 0) + leadingZeros];
+        System.arraycopy(bytes, stripSignByte ? 1 : 0, tmp, leadingZeros, tmp.length - leadingZeros);
+        return tmp;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final NetworkParameters params = NetworkParameters.prodNet();
+        Random random = new Random(1);
+        final byte[][] addresses = new byte[256][];
+        final String[] strings = new String[addresses.length];
+        final Address[] parsed = new Address[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            byte[] hash160 = new byte[20];
+            random.nextBytes(hash160);
+            addresses[i] = new byte[25];
+            System.arraycopy(hash160, 0, addresses[i], 1, 20);
+            strings[i] = Base58.encode(addresses[i]);
+            parsed[i] = new Address(params, hash160);
+        }
+        final int mask = addresses.length - 1;
+        for (int run = 1; run <= 3; run++) {
+            System.out.println("Run " + run);
+            time("encode, BigInteger", count, new Case() {
+                public void run(int i) {
+                    oldEncode(addresses[i & mask]);
+                }
+            });
+            time("encode", count, new Case() {
+                public void run(int i) {
+                    Base58.encode(addresses[i & mask]);
+                }
+            });
+            time("decode, BigInteger", count, new Case() {
+                public void run(int i) {
+                    oldDecode(strings[i & mask]);
+                }
+            });
+            time("decode", count, new Case() {
+                public void run(int i) throws Exception {
+                    Base58.decode(strings[i & mask]);
+                }
+            });
+            time("Address.toString", count, new Case() {
+                public void run(int i) {
+                    parsed[i & mask].toString();
+                }
+            });
+        }
+    }
+}
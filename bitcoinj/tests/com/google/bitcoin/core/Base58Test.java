@@ -17,9 +17,11 @@
 package com.google.bitcoin.core;
 
 import junit.framework.TestCase;
+import org.bouncycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Random;
 
 public class Base58Test extends TestCase {
     public void testEncode() throws Exception {
@@ -47,4 +49,57 @@ public class Base58Test extends TestCase {
         // sign extends. Fix for a bug that stopped us parsing keys exported using sipas patch.
         Base58.decodeChecked("93VYUMzRG9DdbRP72uQXjaWibbQwygnvaCu9DumcqDjGybD864T");
     }
+
+    public void testLeadingZeros() throws Exception {
+        assertEquals("", Base58.encode(new byte[0]));
+        assertEquals(0, Base58.decode("").length);
+        assertEquals("1", Base58.encode(new byte[1]));
+        assertEquals("111", Base58.encode(new byte[3]));
+        assertTrue(Arrays.equals(new byte[3], Base58.decode("111")));
+        assertEquals("11z", Base58.encode(new byte[] {0, 0, 57}));
+        assertTrue(Arrays.equals(new byte[] {0, 0, 57}, Base58.decode("11z")));
+        assertEquals("5R", Base58.encode(new byte[] {1, 0}));
+    }
+
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = new byte[random.nextInt(80)];
+            random.nextBytes(bytes);
+            // Some leading zeros, which base58 keeps as ones.
+            for (int j = 0; j < bytes.length && j < i % 4; j++)
+                bytes[j] = 0;
+            String encoded = Base58.encode(bytes);
+            assertEquals(new BigInteger(1, bytes), Base58.decodeToBigInteger(encoded));
+            assertTrue(encoded, Arrays.equals(bytes, Base58.decode(encoded)));
+        }
+    }
+
+    public void testChecked() throws Exception {
+        byte[] hash160 = Hex.decode("4a22c3c4cbb31e4d03b15550636762bda0baf85a");
+        byte[] versioned = new byte[21];
+        System.arraycopy(hash160, 0, versioned, 1, 20);
+        assertEquals("17kzeh4N8g49GFvdDzSf8PjaPfyoD1MndL", Base58.encodeChecked(versioned));
+        assertTrue(Arrays.equals(versioned, Base58.decodeChecked("17kzeh4N8g49GFvdDzSf8PjaPfyoD1MndL")));
+        try {
+            Base58.decodeChecked("17kzeh4N8g49GFvdDzSf8PjaPfyoD1MndM");
+            fail();
+        } catch (AddressFormatException e) {
+        }
+        try {
+            Base58.decode("17kzeh4N8g49GFvdDzSf8PjaPfyoD1Mnd\u00e9");
+            fail();
+        } catch (AddressFormatException e) {
+        }
+    }
+
+    public void testAddressString() throws Exception {
+        NetworkParameters params = NetworkParameters.prodNet();
+        Address parsed = new Address(params, "17kzeh4N8g49GFvdDzSf8PjaPfyoD1MndL");
+        Address built = new Address(params, Hex.decode("4a22c3c4cbb31e4d03b15550636762bda0baf85a"));
+        assertEquals(parsed, built);
+        assertEquals("17kzeh4N8g49GFvdDzSf8PjaPfyoD1MndL", built.toString());
+        // The string is worked out once.
+        assertSame(built.toString(), built.toString());
+    }
 }
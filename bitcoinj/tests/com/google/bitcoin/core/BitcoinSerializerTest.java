@@ -275,5 +275,17 @@ public class BitcoinSerializerTest {
         assertEquals(thirdBlock.getNonce(), 2850094635L);
     }
 
-
+    @Test
+    public void testSizeAboveIntRange() throws Exception {
+        BitcoinSerializer bs = new BitcoinSerializer(NetworkParameters.prodNet(), true, null);
+        // An inv header claiming 0xffffffff bytes, which is negative as an int.
+        ByteArrayInputStream bais = new ByteArrayInputStream(Hex.decode("f9beb4d9696e76000000000000000000" +
+                "ffffffff00000000"));
+        try {
+            bs.deserialize(bais);
+            fail();
+        } catch (ProtocolException e) {
+            assertTrue(e.getMessage().contains("4294967295"));
+        }
+    }
 }
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BlockDownloadSchedulerTest extends TestWithNetworkConnections {
+    private List<Block> blocks;
+    private Map<Sha256Hash, Block> blocksByHash;
+    private final List<Thread> responders = new ArrayList<Thread>();
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        blocks = new ArrayList<Block>();
+        blocksByHash = new HashMap<Sha256Hash, Block>();
+        Block prev = unitTestParams.genesisBlock;
+        long time = prev.getTimeSeconds();
+        for (int height = 1; height < 60; height++) {
+            // Two seconds apart, so each difficulty transition makes the target four times harder.
+            time += 2;
+            Block b = prev.createNextBlock(address, time);
+            if (height % unitTestParams.interval == 0) {
+                long target = prev.getDifficultyTarget();
+                b.setDifficultyTarget((target & 0xFF000000L) | ((target & 0xFFFFFFL) >> 2));
+                b.solve();
+            }
+            blocks.add(b);
+            blocksByHash.put(b.getHash(), b);
+            prev = b;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Thread responder : responders)
+            responder.interrupt();
+    }
+
+    private List<Sha256Hash> hashes(int from, int to) {
+        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+        for (int i = from; i < to; i++)
+            hashes.add(blocks.get(i).getHash());
+        return hashes;
+    }
+
+    private List<Sha256Hash> requested(MockNetworkConnection conn) throws InterruptedException {
+        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+        Message m;
+        while ((m = conn.popOutbound()) != null) {
+            for (InventoryItem item : ((GetDataMessage) m).getItems())
+                hashes.add(item.hash);
+        }
+        return hashes;
+    }
+
+    // Answers getdata requests on the given connection, taking the given time to send each block.
+    private void respond(final MockNetworkConnection conn, final long millisPerBlock) {
+        Thread responder = new Thread("Responder") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Message m = conn.popOutbound();
+                        if (m == null) {
+                            Thread.sleep(1);
+                            continue;
+                        }
+                        if (!(m instanceof GetDataMessage))
+                            continue;
+                        for (InventoryItem item : ((GetDataMessage) m).getItems()) {
+                            Thread.sleep(millisPerBlock);
+                            conn.inbound(blocksByHash.get(item.hash));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Test is over.
+                }
+            }
+        };
+        responder.setDaemon(true);
+        responder.start();
+        responders.add(responder);
+    }
+
+    @Test
+    public void inOrderAndReassigned() throws Exception {
+        MockNetworkConnection n1 = createMockNetworkConnection();
+        Peer p1 = new Peer(unitTestParams, blockChain, n1);
+        MockNetworkConnection n2 = createMockNetworkConnection();
+        Peer p2 = new Peer(unitTestParams, blockChain, n2);
+        BlockDownloadScheduler scheduler = new BlockDownloadScheduler(blockChain, 4, 60 * 1000);
+        scheduler.addPeer(p1);
+        scheduler.addPeer(p2);
+
+        // Three windows, spread over the peers with the least work outstanding.
+        scheduler.schedule(hashes(0, 12));
+        List<Sha256Hash> expected1 = hashes(0, 4);
+        expected1.addAll(hashes(8, 12));
+        assertEquals(expected1, requested(n1));
+        assertEquals(hashes(4, 8), requested(n2));
+        assertEquals(12, scheduler.getPendingBlocks());
+
+        // The second window arrives first and waits for the first.
+        for (int i = 4; i < 8; i++)
+            assertTrue(scheduler.receive(p2, blocks.get(i)));
+        assertEquals(0, blockChain.getBestChainHeight());
+        assertNull(blockChain.getUnconnectedBlock());
+        // A block we did not ask for is left to the peer.
+        assertFalse(scheduler.receive(p2, blocks.get(20)));
+        // Scheduling the same blocks again does nothing.
+        scheduler.schedule(hashes(0, 12));
+        assertNull(n1.popOutbound());
+
+        // The first peer goes away before sending anything, so the second gets its windows.
+        scheduler.removePeer(p1);
+        assertEquals(expected1, requested(n2));
+        for (int i = 11; i >= 8; i--)
+            assertTrue(scheduler.receive(p2, blocks.get(i)));
+        assertEquals(0, blockChain.getBestChainHeight());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(scheduler.receive(p2, blocks.get(i)));
+            assertEquals(i + 1, blockChain.getBestChainHeight());
+        }
+        // The last block of the first window lets all blocks that were waiting be added.
+        assertTrue(scheduler.receive(p2, blocks.get(3)));
+        assertEquals(12, blockChain.getBestChainHeight());
+        assertEquals(0, scheduler.getPendingBlocks());
+        assertEquals(12, scheduler.getStats(p2).getBlocks());
+        assertNull(scheduler.getStats(p1));
+    }
+
+    @Test
+    public void peersAtDifferentSpeeds() throws Exception {
+        MockNetworkConnection fastConn = createMockNetworkConnection();
+        fastConn.setVersionMessageForHeight(unitTestParams, blocks.size());
+        Peer fast = new Peer(unitTestParams, blockChain, fastConn);
+        MockNetworkConnection slowConn = createMockNetworkConnection();
+        Peer slow = new Peer(unitTestParams, blockChain, slowConn);
+        MockNetworkConnection stalledConn = createMockNetworkConnection();
+        Peer stalled = new Peer(unitTestParams, blockChain, stalledConn);
+
+        BlockDownloadScheduler scheduler = new BlockDownloadScheduler(blockChain, 4, 200);
+        for (Peer peer : new Peer[] {fast, slow, stalled}) {
+            peer.setDownloadScheduler(scheduler);
+            scheduler.addPeer(peer);
+        }
+        scheduler.setDownloadPeer(fast);
+        final List<Sha256Hash> downloaded = Collections.synchronizedList(new ArrayList<Sha256Hash>());
+        fast.addEventListener(new AbstractPeerEventListener() {
+            @Override
+            public void onBlocksDownloaded(Peer peer, Block block, int blocksLeft) {
+                downloaded.add(block.getHash());
+            }
+        });
+        runPeerAsync(fast, fastConn);
+        runPeerAsync(slow, slowConn);
+        runPeerAsync(stalled, stalledConn);
+        respond(fastConn, 0);
+        respond(slowConn, 20);
+
+        // The download peer hears about the blocks, as it would in reply to getblocks.
+        InventoryMessage inv = new InventoryMessage(unitTestParams);
+        for (Block b : blocks)
+            inv.addBlock(b);
+        fastConn.inbound(inv);
+        long deadline = System.currentTimeMillis() + 20 * 1000;
+        // Listeners run after each block is added, so wait for them to hear about the last one.
+        while (downloaded.size() < blocks.size() && System.currentTimeMillis() < deadline) {
+            scheduler.checkStalls();
+            Thread.sleep(10);
+        }
+        assertEquals(blocks.size(), blockChain.getBestChainHeight());
+        assertEquals(hashes(0, blocks.size()), downloaded);
+        assertNull(blockChain.getUnconnectedBlock());
+        assertEquals(0, scheduler.getPendingBlocks());
+
+        // The fast peer did most of the work, and the windows of the stalled peer were downloaded from the others.
+        BlockDownloadScheduler.PeerStats fastStats = scheduler.getStats(fast);
+        BlockDownloadScheduler.PeerStats slowStats = scheduler.getStats(slow);
+        BlockDownloadScheduler.PeerStats stalledStats = scheduler.getStats(stalled);
+        assertTrue(fastStats.toString(), fastStats.getBlocks() > slowStats.getBlocks());
+        assertTrue(fastStats.getBlocksPerSec() > slowStats.getBlocksPerSec());
+        assertTrue(fastStats.getBytesPerSec() > slowStats.getBytesPerSec());
+        assertEquals(blocks.size(), fastStats.getBlocks() + slowStats.getBlocks());
+        assertEquals(0, stalledStats.getBlocks());
+        assertTrue(stalledStats.getStalls() > 0);
+        fastConn.disconnect();
+        slowConn.disconnect();
+        stalledConn.disconnect();
+    }
+}
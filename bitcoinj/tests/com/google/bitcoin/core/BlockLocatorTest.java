@@ -0,0 +1,149 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BlockLocatorTest {
+    private NetworkParameters params;
+    private Address to;
+    private MemoryBlockStore store;
+    // Our chain, indexed by height.
+    private List<StoredBlock> chain;
+
+    @Before
+    public void setUp() throws Exception {
+        params = NetworkParameters.unitTests();
+        to = new ECKey().toAddress(params);
+        store = new MemoryBlockStore(params);
+        chain = new ArrayList<StoredBlock>();
+        chain.add(store.getChainHead());
+        chain.addAll(extend(store.getChainHead(), 1000));
+        store.setChainHead(chain.get(1000));
+    }
+
+    /** Builds the given number of blocks on top of the given one and puts them in the store. */
+    private List<StoredBlock> extend(StoredBlock from, int count) throws Exception {
+        List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+        StoredBlock cursor = from;
+        for (int i = 0; i < count; i++) {
+            cursor = cursor.build(cursor.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(cursor);
+            blocks.add(cursor);
+        }
+        return blocks;
+    }
+
+    /** Returns the height of the first block in the locator that is on the given chain, as a peer would. */
+    private int findFork(List<Sha256Hash> locator, List<StoredBlock> peerChain) {
+        Map<Sha256Hash, Integer> heights = new HashMap<Sha256Hash, Integer>();
+        for (StoredBlock block : peerChain)
+            heights.put(block.getHeader().getHash(), block.getHeight());
+        for (Sha256Hash hash : locator) {
+            if (heights.containsKey(hash))
+                return heights.get(hash);
+        }
+        fail("Locator does not contain the genesis block");
+        return -1;
+    }
+
+    @Test
+    public void shape() throws Exception {
+        List<Sha256Hash> locator = BlockLocator.create(params, store, chain.get(1000));
+        // Ten dense entries, then steps of 2, 4, 8 ... down to the genesis block.
+        int[] heights = {1000, 999, 998, 997, 996, 995, 994, 993, 992, 991, 989, 985, 977, 961, 929, 865, 737, 481, 0};
+        assertEquals(heights.length, locator.size());
+        for (int i = 0; i < heights.length; i++)
+            assertEquals(chain.get(heights[i]).getHeader().getHash(), locator.get(i));
+        // A store that can only walk back from the head gives the same result if the chain is short enough.
+        assertEquals(locator, BlockLocator.create(params, new UnindexedStore(store), chain.get(1000)));
+    }
+
+    @Test
+    public void deepReorg() throws Exception {
+        // The rest of the network moved to a chain that forks 200 blocks below our head.
+        List<StoredBlock> peerChain = new ArrayList<StoredBlock>(chain.subList(0, 801));
+        peerChain.addAll(extend(chain.get(800), 250));
+
+        List<Sha256Hash> locator = BlockLocator.create(params, store, chain.get(1000));
+        int fork = findFork(locator, peerChain);
+        // The peer sends us everything after the fork it found. Without thinning that would have been the genesis
+        // block, and we would have downloaded the whole chain again. Now we download at most another 200 blocks.
+        assertTrue(fork <= 800);
+        assertTrue("Fork found at " + fork, 800 - fork <= 200);
+
+        // Once we have switched to the new chain, heights refer to its blocks.
+        store.setChainHead(peerChain.get(1050));
+        assertEquals(peerChain.get(900).getHeader().getHash(), store.getHashAtHeight(900));
+        assertEquals(chain.get(800).getHeader().getHash(), store.getHashAtHeight(800));
+        // And back again.
+        store.setChainHead(chain.get(1000));
+        assertEquals(chain.get(900).getHeader().getHash(), store.getHashAtHeight(900));
+        assertNull(store.getHashAtHeight(1001));
+    }
+
+    @Test
+    public void startedFromCheckpoint() throws Exception {
+        // A store that was started from a block part way up the chain does not know the blocks below it.
+        store = new MemoryBlockStore(params);
+        store.put(chain.get(500));
+        store.setChainHead(chain.get(500));
+        for (int i = 501; i <= 1000; i++)
+            store.put(chain.get(i));
+        store.setChainHead(chain.get(1000));
+        assertNull(store.getHashAtHeight(499));
+        List<Sha256Hash> locator = BlockLocator.create(params, store, chain.get(1000));
+        assertEquals(chain.get(737).getHeader().getHash(), locator.get(locator.size() - 2));
+        assertEquals(params.genesisBlock.getHash(), locator.get(locator.size() - 1));
+    }
+
+    /** Hides the height index of another store. */
+    private static class UnindexedStore implements BlockStore {
+        private final BlockStore store;
+
+        UnindexedStore(BlockStore store) {
+            this.store = store;
+        }
+
+        public void put(StoredBlock block) throws BlockStoreException {
+            store.put(block);
+        }
+
+        public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+            return store.get(hash);
+        }
+
+        public StoredBlock getChainHead() throws BlockStoreException {
+            return store.getChainHead();
+        }
+
+        public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+            store.setChainHead(chainHead);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.DiskBlockStore;
+import com.google.bitcoin.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CheckpointManagerTest {
+    private NetworkParameters params;
+    private Address to;
+    private List<Block> blocks;
+    private StoredBlock checkpoint;
+    private StoredBlock fullChainHead;
+
+    @Before
+    public void setUp() throws Exception {
+        params = NetworkParameters.unitTests();
+        to = new ECKey().toAddress(params);
+        blocks = buildChain(35);
+        // Check the chain is valid from the genesis block, and remember the block at height 20 for use as a checkpoint.
+        BlockStore store = new MemoryBlockStore(params);
+        BlockChain chain = new BlockChain(params, store);
+        for (int i = 1; i < blocks.size(); i++)
+            assertTrue(chain.add(blocks.get(i)));
+        checkpoint = store.get(blocks.get(20).getHash());
+        fullChainHead = chain.getChainHead();
+    }
+
+    /**
+     * Builds a chain which passes the difficulty checks. Blocks are two seconds apart, so each difficulty transition
+     * makes the target four times harder.
+     */
+    private List<Block> buildChain(int length) {
+        List<Block> chain = new ArrayList<Block>();
+        Block prev = params.genesisBlock;
+        chain.add(prev);
+        long time = prev.getTimeSeconds();
+        for (int height = 1; height < length; height++) {
+            time += 2;
+            Block b = prev.createNextBlock(to, time);
+            if (height % params.interval == 0) {
+                long target = prev.getDifficultyTarget();
+                b.setDifficultyTarget((target & 0xFF000000L) | ((target & 0xFFFFFFL) >> 2));
+                b.solve();
+            }
+            chain.add(b);
+            prev = b;
+        }
+        return chain;
+    }
+
+    @Test
+    public void seedAndSync() throws Exception {
+        params.addCheckpoint(checkpoint);
+        BlockStore store = new MemoryBlockStore(params);
+        long keyTime = blocks.get(25).getTimeSeconds() + CheckpointManager.TIME_MARGIN_SECS;
+        assertEquals(checkpoint, CheckpointManager.checkpoint(params, store, keyTime));
+        assertEquals(checkpoint, store.getChainHead());
+        // A store that already has a chain is left alone.
+        assertNull(CheckpointManager.checkpoint(params, store, keyTime));
+
+        // The rest of the chain connects, including the difficulty transition at height 30 which needs the block at
+        // height 20 and nothing before it.
+        BlockChain chain = new BlockChain(params, store);
+        for (int i = 21; i < blocks.size(); i++)
+            assertTrue(chain.add(blocks.get(i)));
+        assertEquals(fullChainHead, chain.getChainHead());
+    }
+
+    @Test
+    public void checkpointBefore() throws Exception {
+        params.addCheckpoint(checkpoint);
+        // Too close to the checkpoint, so use the genesis block.
+        long time = checkpoint.getHeader().getTimeSeconds();
+        assertEquals(0, CheckpointManager.getCheckpointBefore(params, time).getHeight());
+        assertEquals(20, CheckpointManager.getCheckpointBefore(params, time + CheckpointManager.TIME_MARGIN_SECS)
+                .getHeight());
+        BlockStore store = new MemoryBlockStore(params);
+        assertNull(CheckpointManager.checkpoint(params, store, time));
+        assertEquals(0, store.getChainHead().getHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkpointMustStartPeriod() throws Exception {
+        BlockStore store = new MemoryBlockStore(params);
+        BlockChain chain = new BlockChain(params, store);
+        for (int i = 1; i <= 21; i++)
+            chain.add(blocks.get(i));
+        params.addCheckpoint(chain.getChainHead());
+    }
+
+    @Test
+    public void readWrite() throws Exception {
+        String file = "# Checkpoints for the unit test chain.\n" + CheckpointManager.formatCheckpoint(checkpoint) + "\n";
+        NetworkParameters params2 = NetworkParameters.unitTests();
+        CheckpointManager.readCheckpoints(params2, new ByteArrayInputStream(file.getBytes()));
+        assertEquals(checkpoint, params2.checkpointBlocks.get(20));
+        assertEquals(checkpoint.getHeader().getHash(), params2.checkpoints.get(20));
+
+        // A header that does not match the hash already known for that height is rejected.
+        NetworkParameters params3 = NetworkParameters.unitTests();
+        params3.checkpoints.put(20, blocks.get(19).getHash());
+        try {
+            CheckpointManager.readCheckpoints(params3, new ByteArrayInputStream(file.getBytes()));
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void diskStoreReload() throws Exception {
+        File temp = File.createTempFile("bitcoinj-test", null, null);
+        temp.delete();
+        temp.deleteOnExit();
+        params.addCheckpoint(checkpoint);
+        DiskBlockStore store = new DiskBlockStore(params, temp);
+        long keyTime = blocks.get(25).getTimeSeconds() + CheckpointManager.TIME_MARGIN_SECS;
+        CheckpointManager.checkpoint(params, store, keyTime);
+        BlockChain chain = new BlockChain(params, store);
+        for (int i = 21; i < blocks.size(); i++)
+            assertTrue(chain.add(blocks.get(i)));
+        // The stored chain starts at the checkpoint, which is recognised when the store is loaded again.
+        store = new DiskBlockStore(params, temp);
+        assertEquals(fullChainHead, store.getChainHead());
+        assertEquals(checkpoint, store.get(checkpoint.getHeader().getHash()));
+    }
+}
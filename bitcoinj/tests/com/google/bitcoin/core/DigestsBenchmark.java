@@ -0,0 +1,92 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Times hashing block headers and keys with {@link Digests} against looking up a new MessageDigest for every hash,
+ * which is what {@link Utils} used to do. This is not run as part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.DigestsBenchmark 1000000</pre>
+ *
+ * The argument is the number of hashes to time for each case. Every case is run a few times so the JIT can warm up,
+ * the last run is the one to look at.
+ */
+public class DigestsBenchmark {
+    static final byte[] header = new byte[Block.HEADER_SIZE];
+    static final byte[] pubKey = new byte[65];
+    static final byte[] out = new byte[32];
+
+    interface Case {
+        void run(int i) throws Exception;
+    }
+
+    static void time(String name, int count, Case c) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            c.run(i);
+        System.out.println(String.format("  %-28s %6.0f ns", name, (System.nanoTime() - start) / (double) count));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random random = new Random(1);
+        random.nextBytes(header);
+        random.nextBytes(pubKey);
+        final Digests.HeaderMidstate midstate = new Digests.HeaderMidstate(header, 0);
+        for (int run = 1; run <= 3; run++) {
+            System.out.println("Run " + run);
+            time("header, new digest", count, new Case() {
+                public void run(int i) throws Exception {
+                    Utils.uint32ToByteArrayLE(i, header, 76);
+                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                    digest.update(header);
+                    digest.digest(digest.digest());
+                }
+            });
+            time("header, Digests", count, new Case() {
+                public void run(int i) {
+                    Utils.uint32ToByteArrayLE(i, header, 76);
+                    Digests.doubleSha256(header, 0, header.length, out, 0);
+                }
+            });
+            time("header, midstate", count, new Case() {
+                public void run(int i) {
+                    Utils.uint32ToByteArrayLE(i, header, 76);
+                    midstate.doubleSha256(header, 0, out, 0);
+                }
+            });
+            time("hash160, new digests", count, new Case() {
+                public void run(int i) throws Exception {
+                    byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(pubKey);
+                    RIPEMD160Digest digest = new RIPEMD160Digest();
+                    digest.update(sha256, 0, sha256.length);
+                    digest.doFinal(out, 0);
+                }
+            });
+            time("hash160, Digests", count, new Case() {
+                public void run(int i) {
+                    Digests.sha256hash160(pubKey, 0, pubKey.length, out, 0);
+                }
+            });
+        }
+    }
+}
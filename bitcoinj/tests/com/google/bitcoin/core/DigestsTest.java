@@ -0,0 +1,109 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DigestsTest {
+    private static byte[] sha256(byte[] bytes) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+
+    @Test
+    public void knownHashes() throws Exception {
+        byte[] out = new byte[32];
+        Digests.sha256(new byte[0], 0, 0, out, 0);
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", Utils.bytesToHexString(out));
+        byte[] hello = "hello".getBytes("US-ASCII");
+        Digests.doubleSha256(hello, 0, hello.length, out, 0);
+        assertEquals("9595c9df90075148eb06860365df33584b75bff782a510c6cd4883a419833d50", Utils.bytesToHexString(out));
+        // The address of the well known "hello" key pair example.
+        byte[] pubKey = Hex.decode("0450863ad64a87ae8a2fe83c1af1a8403cb53f53e486d8511dad8a04887e5b23522cd470243453a299fa9e77237716103abc11a1df38855ed6f2ee187e9c582ba6");
+        byte[] hash160 = new byte[20];
+        Digests.sha256hash160(pubKey, 0, pubKey.length, hash160, 0);
+        assertEquals("010966776006953d5567439e5e39f86a0d273bee", Utils.bytesToHexString(hash160));
+    }
+
+    @Test
+    public void rangesAndOffsets() throws Exception {
+        Random random = new Random(1);
+        byte[] input = new byte[300];
+        random.nextBytes(input);
+        byte[] out = new byte[40];
+        Digests.doubleSha256(input, 10, 200, out, 8);
+        byte[] range = Arrays.copyOfRange(input, 10, 210);
+        assertArrayEquals(sha256(sha256(range)), Arrays.copyOfRange(out, 8, 40));
+
+        Digests.doubleSha256(input, 0, 100, input, 100, 50, out, 0);
+        assertArrayEquals(sha256(sha256(Arrays.copyOf(input, 150))), Arrays.copyOf(out, 32));
+
+        // The hash can overwrite what was hashed.
+        byte[] expected = sha256(sha256(Arrays.copyOf(input, 64)));
+        Digests.doubleSha256(input, 0, 64, input, 0);
+        assertArrayEquals(expected, Arrays.copyOf(input, 32));
+    }
+
+    @Test
+    public void headerMidstate() throws Exception {
+        Block block = NetworkParameters.unitTests().genesisBlock.createNextBlock(new ECKey().toAddress(
+                NetworkParameters.unitTests()));
+        byte[] header = Arrays.copyOf(block.bitcoinSerialize(), Block.HEADER_SIZE);
+        Digests.HeaderMidstate midstate = new Digests.HeaderMidstate(header, 0);
+        byte[] out = new byte[32];
+        for (int nonce = 0; nonce < 10; nonce++) {
+            Utils.uint32ToByteArrayLE(nonce, header, 76);
+            midstate.doubleSha256(header, 0, out, 0);
+            assertArrayEquals(sha256(sha256(header)), out);
+        }
+        // Block.solve() uses it.
+        assertTrue(block.getHash().toBigInteger().compareTo(block.getDifficultyTargetAsInteger()) <= 0);
+    }
+
+    @Test
+    public void threads() throws Exception {
+        final byte[] input = new byte[1000];
+        new Random(2).nextBytes(input);
+        final byte[] expected = sha256(sha256(input));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    byte[] out = new byte[32];
+                    for (int j = 0; j < 2000; j++) {
+                        Digests.doubleSha256(input, 0, input.length, out, 0);
+                        if (!Arrays.equals(expected, out))
+                            failure.set(new AssertionError("Wrong hash"));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times deriving public keys with the generator table against Bouncy Castle's point multiply, which is what
+ * {@link ECKey} used to do, and deriving a batch of keys with {@link ECKey#fromPrivateKeys(List)}. This is not run as
+ * part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.ECKeyBenchmark 1000</pre>
+ *
+ * The argument is the number of keys to derive for each case. Every case is run a few times so the JIT can warm up,
+ * the last run is the one to look at.
+ */
+public class ECKeyBenchmark {
+    interface Case {
+        void run(BigInteger priv);
+    }
+
+    static void time(String name, List<BigInteger> privs, Case c) {
+        long start = System.nanoTime();
+        for (BigInteger priv : privs)
+            c.run(priv);
+        print(name, start, privs.size());
+    }
+
+    static void print(String name, long start, int count) {
+        System.out.println(String.format("  %-28s %8.1f us/key", name, (System.nanoTime() - start) / 1000.0 / count));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Random random = new Random(1);
+        List<BigInteger> privs = new ArrayList<BigInteger>();
+        for (int i = 0; i < count; i++)
+            privs.add(new BigInteger(256, random).mod(ECKey.ecParams.getN()));
+        long start = System.nanoTime();
+        ECKey.publicKeyFromPrivate(BigInteger.ONE);
+        System.out.println(String.format("Building the table took %.0f ms on %d processors",
+                (System.nanoTime() - start) / 1000000.0, WorkerPool.THREADS));
+        for (int run = 1; run <= 3; run++) {
+            System.out.println("Run " + run);
+            time("G.multiply", privs, new Case() {
+                public void run(BigInteger priv) {
+                    ECKey.ecParams.getG().multiply(priv).getEncoded();
+                }
+            });
+            time("publicKeyFromPrivate", privs, new Case() {
+                public void run(BigInteger priv) {
+                    ECKey.publicKeyFromPrivate(priv);
+                }
+            });
+            time("new ECKey(priv)", privs, new Case() {
+                public void run(BigInteger priv) {
+                    new ECKey(priv).getPubKeyHash();
+                }
+            });
+            start = System.nanoTime();
+            ECKey.fromPrivateKeys(privs);
+            print("fromPrivateKeys", start, count);
+        }
+    }
+}
@@ -20,8 +20,15 @@ import org.bouncycastle.util.encoders.Hex;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.google.bitcoin.core.Utils.reverseBytes;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -127,4 +134,63 @@ public class ECKeyTest {
                     Utils.bytesToHexString(key1.getPrivKeyBytes()));
         }
     }
+
+    @Test
+    public void generatorTable() throws Exception {
+        BigInteger n = ECKey.ecParams.getN();
+        List<BigInteger> privs = new ArrayList<BigInteger>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++)
+            privs.add(new BigInteger(256, random).mod(n));
+        // Edge cases: empty and full windows at both ends.
+        privs.add(BigInteger.ONE);
+        privs.add(BigInteger.valueOf(15));
+        privs.add(BigInteger.valueOf(16));
+        privs.add(n.subtract(BigInteger.ONE));
+        privs.add(BigInteger.ONE.shiftLeft(252));
+        privs.add(BigInteger.ONE.shiftLeft(252).multiply(BigInteger.valueOf(15)));
+        for (BigInteger priv : privs) {
+            byte[] expected = ECKey.ecParams.getG().multiply(priv).getEncoded();
+            assertArrayEquals(priv.toString(16), expected, ECKey.publicKeyFromPrivate(priv));
+        }
+        // The key pair from the technical background of addresses on the Bitcoin wiki.
+        ECKey key = new ECKey(new BigInteger("18e14a7b6a307f426a94f8114701e7c8e774e7f9a47e2c2035db29a206321725", 16));
+        assertEquals("0450863ad64a87ae8a2fe83c1af1a8403cb53f53e486d8511dad8a04887e5b23522cd470243453a299fa9e77237716103abc11a1df38855ed6f2ee187e9c582ba6",
+                Utils.bytesToHexString(key.getPubKey()));
+    }
+
+    @Test
+    public void compressedPubKey() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            ECKey key = new ECKey();
+            assertArrayEquals(ECKey.publicKeyCompressed(key.priv), key.getPubKeyCompressed());
+            assertArrayEquals(Utils.sha256hash160(ECKey.publicKeyCompressed(key.priv)), key.getCompressedPubKeyHash());
+            assertTrue(key.verify(new byte[32], key.sign(new byte[32])));
+        }
+    }
+
+    @Test
+    public void batch() throws Exception {
+        List<BigInteger> privs = new ArrayList<BigInteger>();
+        for (int i = 0; i < 37; i++)
+            privs.add(new ECKey().priv);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int slices : new int[] {1, 2, 3, 4}) {
+                List<ECKey> keys = ECKey.fromPrivateKeys(privs, executor, slices);
+                assertEquals(privs.size(), keys.size());
+                for (int i = 0; i < privs.size(); i++) {
+                    ECKey expected = new ECKey(privs.get(i));
+                    assertEquals(privs.get(i), keys.get(i).priv);
+                    assertTrue(Arrays.equals(expected.getPubKey(), keys.get(i).getPubKey()));
+                    assertEquals(expected.toAddress(NetworkParameters.prodNet()),
+                            keys.get(i).toAddress(NetworkParameters.prodNet()));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(privs.size(), ECKey.fromPrivateKeys(privs).size());
+        assertEquals(0, ECKey.fromPrivateKeys(new ArrayList<BigInteger>()).size());
+    }
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node listening on the loopback interface. It does the version handshake with each connection it accepts, then
+ * sends whatever it is told to. Connections are numbered in the order they were accepted.
+ */
+public class LoopbackNode {
+    private final NetworkParameters params;
+    private final int bestHeight;
+    private final ServerSocket server;
+    private final BitcoinSerializer serializer;
+    private final List<Socket> sockets = new ArrayList<Socket>();
+    private final List<InputStream> ins = new ArrayList<InputStream>();
+
+    public LoopbackNode(NetworkParameters params, int bestHeight) throws IOException {
+        this.params = params;
+        this.bestHeight = bestHeight;
+        server = new ServerSocket(0, 500, InetAddress.getByName("127.0.0.1"));
+        serializer = new BitcoinSerializer(params, true, null);
+        Thread acceptThread = new Thread("Loopback node") {
+            @Override
+            public void run() {
+                try {
+                    while (true)
+                        accept(server.accept());
+                } catch (Exception e) {
+                    // Closed.
+                }
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private void accept(Socket socket) throws IOException, ProtocolException {
+        socket.setTcpNoDelay(true);
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        if (!(serializer.deserialize(in) instanceof VersionMessage))
+            throw new ProtocolException("Expected a version message");
+        VersionMessage ver = new VersionMessage(params, bestHeight);
+        ver.localServices = VersionMessage.NODE_NETWORK;
+        OutputStream out = socket.getOutputStream();
+        serializer.serialize(ver, out);
+        serializer.serialize(new VersionAck(), out);
+        if (!(serializer.deserialize(in) instanceof VersionAck))
+            throw new ProtocolException("Expected a verack message");
+        synchronized (this) {
+            sockets.add(socket);
+            ins.add(in);
+            notifyAll();
+        }
+    }
+
+    public PeerAddress getAddress() {
+        return new PeerAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    /** Waits until the given number of connections completed the handshake. */
+    public synchronized void awaitConnections(int count) throws InterruptedException {
+        while (sockets.size() < count)
+            wait();
+    }
+
+    private synchronized Socket socket(int connection) {
+        return sockets.get(connection);
+    }
+
+    public void send(int connection, Message message) throws IOException {
+        Socket socket = socket(connection);
+        synchronized (socket) {
+            serializer.serialize(message, socket.getOutputStream());
+        }
+    }
+
+    /** Sends bytes that are not a message, which should be skipped by the other side. */
+    public void sendGarbage(int connection, byte[] bytes) throws IOException {
+        Socket socket = socket(connection);
+        synchronized (socket) {
+            socket.getOutputStream().write(bytes);
+        }
+    }
+
+    /** Reads the next message sent on the given connection, waiting for it to arrive. */
+    public Message read(int connection) throws IOException, ProtocolException {
+        InputStream in;
+        synchronized (this) {
+            in = ins.get(connection);
+        }
+        return serializer.deserialize(in);
+    }
+
+    public void disconnect(int connection) throws IOException {
+        socket(connection).close();
+    }
+
+    public synchronized void close() throws IOException {
+        server.close();
+        for (Socket socket : sockets)
+            socket.close();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Times calculating the merkle root of large blocks with {@link MerkleTree}, against building the tree as a list of
+ * arrays the way Block used to. This is not run as part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.MerkleTreeBenchmark 200</pre>
+ *
+ * The argument is the number of roots to calculate for each block size. The last of three runs is the one to look at.
+ */
+public class MerkleTreeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        System.out.println(threads + " processors");
+        for (int run = 0; run < 3; run++) {
+            for (int count : new int[] {1000, 4000}) {
+                List<Sha256Hash> hashes = MerkleTreeTest.randomHashes(count);
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++)
+                    MerkleTreeTest.referenceRoot(hashes);
+                double list = (System.nanoTime() - start) / 1e6 / rounds;
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++)
+                    MerkleTree.calculateRoot(hashes);
+                double flat = (System.nanoTime() - start) / 1e6 / rounds;
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++)
+                    MerkleTree.calculateRoot(hashes, executor, threads);
+                double parallel = (System.nanoTime() - start) / 1e6 / rounds;
+                System.out.println(String.format("  %d transactions: list %.2f ms, flat %.2f ms, split %.2f ms",
+                        count, list, flat, parallel));
+            }
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class MerkleTreeTest {
+    static List<Sha256Hash> randomHashes(int count) {
+        Random random = new Random(count);
+        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[32];
+            random.nextBytes(bytes);
+            hashes.add(new Sha256Hash(bytes));
+        }
+        return hashes;
+    }
+
+    // The way Block used to build the whole tree as a list of levels.
+    static Sha256Hash referenceRoot(List<Sha256Hash> hashes) {
+        List<byte[]> tree = new ArrayList<byte[]>();
+        for (Sha256Hash hash : hashes)
+            tree.add(hash.getBytes());
+        int levelOffset = 0;
+        for (int levelSize = hashes.size(); levelSize > 1; levelSize = (levelSize + 1) / 2) {
+            for (int left = 0; left < levelSize; left += 2) {
+                int right = Math.min(left + 1, levelSize - 1);
+                byte[] leftBytes = Utils.reverseBytes(tree.get(levelOffset + left));
+                byte[] rightBytes = Utils.reverseBytes(tree.get(levelOffset + right));
+                tree.add(Utils.reverseBytes(Utils.doubleDigestTwoBuffers(leftBytes, 0, 32, rightBytes, 0, 32)));
+            }
+            levelOffset += levelSize;
+        }
+        return new Sha256Hash(tree.get(tree.size() - 1));
+    }
+
+    @Test
+    public void roots() throws Exception {
+        for (int count = 1; count <= 70; count++) {
+            List<Sha256Hash> hashes = randomHashes(count);
+            assertEquals("count " + count, referenceRoot(hashes), MerkleTree.calculateRoot(hashes));
+        }
+    }
+
+    @Test
+    public void parallelRoots() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int count : new int[] {1, 2, 3, 7, 8, 9, 100, 1000, 1023, 1024, 1025, 3001}) {
+                List<Sha256Hash> hashes = randomHashes(count);
+                Sha256Hash expected = referenceRoot(hashes);
+                for (int slices : new int[] {1, 2, 3, 4, 7})
+                    assertEquals(count + " in " + slices, expected, MerkleTree.calculateRoot(hashes, executor, slices));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void branches() throws Exception {
+        for (int count = 1; count <= 20; count++) {
+            List<Sha256Hash> hashes = randomHashes(count);
+            Sha256Hash root = MerkleTree.calculateRoot(hashes);
+            for (int i = 0; i < count; i++) {
+                List<Sha256Hash> branch = MerkleTree.getBranch(hashes, i);
+                assertEquals(root, MerkleTree.rootFromBranch(hashes.get(i), branch, i));
+                // The branch doesn't prove the transaction is in its neighbour's place.
+                if ((i ^ 1) < count)
+                    assertFalse(root.equals(MerkleTree.rootFromBranch(hashes.get(i), branch, i ^ 1)));
+            }
+        }
+    }
+
+    @Test
+    public void blockBranch() throws Exception {
+        NetworkParameters params = NetworkParameters.unitTests();
+        Block block = params.genesisBlock.createNextBlock(new ECKey().toAddress(params));
+        for (int i = 0; i < 4; i++)
+            block.addTransaction(TestUtils.createFakeTx(params, Utils.toNanoCoins(i + 1, 0),
+                    new ECKey().toAddress(params)));
+        Transaction tx = block.getTransactions().get(3);
+        assertEquals(block.getMerkleRoot(), MerkleTree.rootFromBranch(tx.getHash(), block.getMerkleBranch(3), 3));
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Times reading a recorded stream of inv, tx and block messages from a loopback socket, as {@link TCPNetworkConnection}
+ * does, with {@link BitcoinSerializer#deserialize(InputStream)} and with a {@link MessageReader}. This is not run as
+ * part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.MessageReaderBenchmark 20000 5</pre>
+ *
+ * The arguments are the number of transactions in the stream and the number of passes over it. Every transaction is
+ * announced by an inv first and every hundred of them are followed by a block holding them.
+ */
+public class MessageReaderBenchmark {
+    static final NetworkParameters params = NetworkParameters.unitTests();
+
+    static byte[] record(BitcoinSerializer serializer, int transactions) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Address to = new ECKey().toAddress(params);
+        Block block = params.genesisBlock.createNextBlock(to);
+        for (int i = 0; i < transactions; i++) {
+            Transaction tx = TestUtils.createFakeTx(params, BigInteger.valueOf(i + 1), to);
+            InventoryMessage inv = new InventoryMessage(params);
+            inv.addTransaction(tx);
+            serializer.serialize(inv, out);
+            serializer.serialize(tx, out);
+            block.addTransaction(tx);
+            if (i % 100 == 99) {
+                serializer.serialize(block, out);
+                block = block.createNextBlock(to);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the number of messages read per second. */
+    static double time(String type, BitcoinSerializer serializer, final byte[] stream, int messages) throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Thread writer = new Thread("Writer") {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    socket.getOutputStream().write(stream);
+                    socket.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        writer.start();
+        Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+        InputStream in = socket.getInputStream();
+        long start = System.nanoTime();
+        if (type.equals("serializer")) {
+            for (int i = 0; i < messages; i++)
+                serializer.deserialize(in);
+        } else {
+            MessageReader reader = new MessageReader(params, serializer, in);
+            for (int i = 0; i < messages; i++)
+                reader.readMessage();
+        }
+        double rate = messages * 1e9 / (System.nanoTime() - start);
+        socket.close();
+        server.close();
+        writer.join();
+        return rate;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        for (boolean lazy : new boolean[] {false, true}) {
+            BitcoinSerializer serializer = new BitcoinSerializer(params, true, lazy, false, null);
+            byte[] stream = record(serializer, transactions);
+            int messages = transactions * 2 + transactions / 100;
+            System.out.println(String.format("%s parsing, %d messages, %d KB", lazy ? "Lazy" : "Eager", messages,
+                    stream.length / 1024));
+            for (int pass = 0; pass < passes; pass++) {
+                System.out.println(String.format("  serializer: %.0f msgs/sec, reader: %.0f msgs/sec",
+                        time("serializer", serializer, stream, messages), time("reader", serializer, stream, messages)));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageReaderTest {
+    private final NetworkParameters params = NetworkParameters.unitTests();
+
+    // Hands out at most a few bytes per read, like a slow socket.
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        TrickleInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 7));
+        }
+    }
+
+    private Transaction tx(int value) {
+        return TestUtils.createFakeTx(params, BigInteger.valueOf(value), new ECKey().toAddress(params));
+    }
+
+    // A stream of messages with some garbage between them, including part of a magic.
+    private byte[] record(BitcoinSerializer serializer, List<Message> messages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] magic = new byte[4];
+        Utils.uint32ToByteArrayBE(params.packetMagic, magic, 0);
+        for (Message message : messages) {
+            out.write(new byte[] {1, magic[0], magic[1], 2, magic[0]});
+            serializer.serialize(message, out);
+        }
+        return out.toByteArray();
+    }
+
+    private List<Message> mixedMessages() throws Exception {
+        List<Message> messages = new ArrayList<Message>();
+        for (int i = 0; i < 10; i++) {
+            Transaction tx = tx(i + 1);
+            InventoryMessage inv = new InventoryMessage(params);
+            inv.addTransaction(tx);
+            messages.add(inv);
+            messages.add(tx);
+        }
+        // Bigger than the buffer used below.
+        Block block = params.genesisBlock.createNextBlock(new ECKey().toAddress(params));
+        for (int i = 0; i < 10; i++)
+            block.addTransaction(tx(i + 1));
+        messages.add(block);
+        messages.add(new Ping());
+        messages.add(tx(100));
+        return messages;
+    }
+
+    private void readAll(BitcoinSerializer serializer, boolean checkAtEnd) throws Exception {
+        List<Message> sent = mixedMessages();
+        MessageReader reader = new MessageReader(params, serializer,
+                new TrickleInputStream(record(serializer, sent)), 1000);
+        List<Message> received = new ArrayList<Message>();
+        for (Message message : sent) {
+            Message m = reader.readMessage();
+            assertEquals(message.getClass(), m.getClass());
+            if (!checkAtEnd)
+                assertArrayEquals(message.bitcoinSerialize(), m.bitcoinSerialize());
+            received.add(m);
+        }
+        if (checkAtEnd) {
+            // Lazily parsed messages still work after the reader moved on.
+            for (int i = 0; i < sent.size(); i++)
+                assertArrayEquals(sent.get(i).bitcoinSerialize(), received.get(i).bitcoinSerialize());
+        }
+        try {
+            reader.readMessage();
+            fail();
+        } catch (IOException e) {
+            // Expected, the stream ended.
+        }
+    }
+
+    @Test
+    public void eager() throws Exception {
+        readAll(new BitcoinSerializer(params, true, null), false);
+    }
+
+    @Test
+    public void lazy() throws Exception {
+        readAll(new BitcoinSerializer(params, true, true, false, null), true);
+        readAll(new BitcoinSerializer(params, true, true, true, null), true);
+    }
+
+    @Test
+    public void badMessageIsSkipped() throws Exception {
+        BitcoinSerializer serializer = new BitcoinSerializer(params, true, null);
+        Transaction tx1 = tx(1);
+        Transaction tx2 = tx(2);
+        byte[] bytes = record(serializer, Arrays.<Message>asList(tx1, tx2));
+        // Break the checksum of the first one.
+        bytes[5 + 20] ^= 1;
+        MessageReader reader = new MessageReader(params, serializer, new ByteArrayInputStream(bytes));
+        try {
+            reader.readMessage();
+            fail();
+        } catch (ProtocolException e) {
+            // Expected.
+        }
+        assertEquals(tx2.getHash(), reader.readMessage().getHash());
+    }
+
+    @Test
+    public void dedupe() throws Exception {
+        BitcoinSerializer serializer = new BitcoinSerializer(params, true, BitcoinSerializer.createDedupeList());
+        Transaction tx = tx(1);
+        InputStream in = new ByteArrayInputStream(record(serializer, Arrays.<Message>asList(tx, tx)));
+        MessageReader reader = new MessageReader(params, serializer, in);
+        assertEquals(tx.getHash(), reader.readMessage().getHash());
+        assertNull(reader.readMessage());
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares a thread per connection with {@link NioConnectionManager} for many peers on the loopback interface. This is
+ * not run as part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.NetworkConnectionBenchmark nio 200 100</pre>
+ *
+ * The arguments are the connection type (tcp or nio), the number of peers and the number of messages each peer gets.
+ * It prints the threads used for the connections, then the average time from sending a message to handling it and the
+ * number of messages handled per second, with every peer sent its messages as fast as possible. The time a message
+ * spends waiting behind others then depends mostly on how the threads get scheduled, so last it prints the average
+ * time when only one message is on its way at once, going round the peers.
+ */
+public class NetworkConnectionBenchmark {
+    static final NetworkParameters params = NetworkParameters.unitTests();
+
+    static final AtomicLong totalLatency = new AtomicLong();
+    static CountDownLatch remaining;
+
+    /** An inv whose only item carries the time it was sent in place of a hash. */
+    static InventoryMessage timestamped() {
+        byte[] bytes = new byte[32];
+        ByteBuffer.wrap(bytes).putLong(System.nanoTime());
+        InventoryMessage inv = new InventoryMessage(params);
+        inv.addItem(new InventoryItem(InventoryItem.Type.Transaction, new Sha256Hash(bytes)));
+        return inv;
+    }
+
+    static void handle(Message m) {
+        long sent = ByteBuffer.wrap(((InventoryMessage) m).getItems().get(0).hash.getBytes()).getLong();
+        totalLatency.addAndGet(System.nanoTime() - sent);
+        remaining.countDown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String type = args.length > 0 ? args[0] : "nio";
+        int peers = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        LoopbackNode node = new LoopbackNode(params, 0);
+        remaining = new CountDownLatch(peers * rounds);
+
+        int threadsBefore = Thread.activeCount();
+        long start = System.currentTimeMillis();
+        List<NetworkConnection> connections = new ArrayList<NetworkConnection>();
+        NioConnectionManager manager = type.equals("nio") ? new NioConnectionManager() : null;
+        for (int i = 0; i < peers; i++) {
+            VersionMessage ver = new VersionMessage(params, 0);
+            if (type.equals("tcp")) {
+                final TCPNetworkConnection conn = new TCPNetworkConnection(node.getAddress(), params, 5000, false, ver);
+                Thread reader = new Thread("Reader " + i) {
+                    @Override
+                    public void run() {
+                        try {
+                            while (true)
+                                handle(conn.readMessage());
+                        } catch (Exception e) {
+                            // Closed.
+                        }
+                    }
+                };
+                reader.setDaemon(true);
+                reader.start();
+                connections.add(conn);
+            } else if (type.equals("nio")) {
+                NioNetworkConnection conn = new NioNetworkConnection(manager, node.getAddress(), params, 5000, false, ver);
+                conn.setHandler(new NioNetworkConnection.Handler() {
+                    public void onMessage(Message message) {
+                        handle(message);
+                    }
+
+                    public void onClosed(Exception cause) {
+                    }
+                });
+                connections.add(conn);
+            } else {
+                throw new IllegalArgumentException("Unknown connection type " + type);
+            }
+        }
+        node.awaitConnections(peers);
+        System.out.println(String.format("Connected %d peers in %d ms", peers, System.currentTimeMillis() - start));
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++)
+            for (int i = 0; i < peers; i++)
+                node.send(i, timestamped());
+        remaining.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("Threads used: %d", Thread.activeCount() - threadsBefore));
+        int messages = peers * rounds;
+        System.out.println(String.format("Average latency: %.1f us", totalLatency.get() / 1000.0 / messages));
+        System.out.println(String.format("Throughput: %.0f messages/sec", messages * 1e9 / elapsed));
+
+        int singles = Math.min(messages, 10000);
+        totalLatency.set(0);
+        for (int i = 0; i < singles; i++) {
+            remaining = new CountDownLatch(1);
+            node.send(i % peers, timestamped());
+            remaining.await();
+        }
+        System.out.println(String.format("Average latency, one at a time: %.1f us", totalLatency.get() / 1000.0 / singles));
+
+        for (NetworkConnection conn : connections)
+            conn.shutdown();
+        if (manager != null)
+            manager.shutdown();
+        node.close();
+    }
+}
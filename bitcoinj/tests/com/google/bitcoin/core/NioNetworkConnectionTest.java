@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import com.google.bitcoin.store.MemoryBlockStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioNetworkConnectionTest {
+    private final NetworkParameters params = NetworkParameters.unitTests();
+    private NioConnectionManager manager;
+    private LoopbackNode node;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new NioConnectionManager();
+        node = new LoopbackNode(params, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        node.close();
+        manager.shutdown();
+    }
+
+    private NioNetworkConnection connect() throws Exception {
+        return new NioNetworkConnection(manager, node.getAddress(), params, 5000, false, new VersionMessage(params, 0));
+    }
+
+    @Test
+    public void readAndWrite() throws Exception {
+        NioNetworkConnection conn = connect();
+        assertEquals(10, conn.getVersionMessage().bestHeight);
+        node.awaitConnections(1);
+
+        // Garbage before a message is skipped.
+        node.sendGarbage(0, new byte[] {1, 2, (byte) 0xfa, (byte) 0xbf, 3});
+        Transaction tx = TestUtils.createFakeTx(params, Utils.toNanoCoins(1, 0), new ECKey().toAddress(params));
+        InventoryMessage inv = new InventoryMessage(params);
+        inv.addTransaction(tx);
+        node.send(0, inv);
+        assertEquals(tx.getHash(), ((InventoryMessage) conn.readMessage()).getItems().get(0).hash);
+
+        // A block that is larger than the read buffer arrives in many pieces.
+        Block block = params.genesisBlock.createNextBlock(new ECKey().toAddress(params));
+        for (int i = 0; i < 500; i++)
+            block.addTransaction(TestUtils.createFakeTx(params, BigInteger.valueOf(i + 1),
+                    new ECKey().toAddress(params)));
+        node.send(0, block);
+        Block received = (Block) conn.readMessage();
+        assertEquals(block.getHash(), received.getHash());
+        assertEquals(block.getTransactions().size(), received.getTransactions().size());
+
+        GetDataMessage getdata = new GetDataMessage(params);
+        getdata.addItem(new InventoryItem(InventoryItem.Type.Transaction, tx.getHash()));
+        conn.writeMessage(getdata);
+        assertEquals(tx.getHash(), ((GetDataMessage) node.read(0)).getItems().get(0).hash);
+    }
+
+    @Test
+    public void handler() throws Exception {
+        NioNetworkConnection conn = connect();
+        node.awaitConnections(1);
+        // Sent before the handler is set, so it waits in the queue.
+        node.send(0, new Ping());
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+        conn.setHandler(new NioNetworkConnection.Handler() {
+            public void onMessage(Message message) {
+                events.add(message);
+                events.add(Thread.currentThread().getName());
+            }
+
+            public void onClosed(Exception cause) {
+                events.add(cause);
+            }
+        });
+        assertTrue(events.poll(5, TimeUnit.SECONDS) instanceof Ping);
+        assertEquals("NIO selector", events.poll(5, TimeUnit.SECONDS));
+        node.send(0, new Ping());
+        assertTrue(events.poll(5, TimeUnit.SECONDS) instanceof Ping);
+        assertEquals("NIO selector", events.poll(5, TimeUnit.SECONDS));
+
+        // The node goes away.
+        node.disconnect(0);
+        assertTrue(events.poll(5, TimeUnit.SECONDS) instanceof IOException);
+        try {
+            conn.writeMessage(new Ping());
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private static class Events implements NioNetworkConnection.Handler {
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+
+        public void onMessage(Message message) {
+            events.add(message);
+        }
+
+        public void onClosed(Exception cause) {
+            events.add(cause);
+        }
+
+        Object next() throws InterruptedException {
+            return events.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void badPeerOnlyClosesItself() throws Exception {
+        NioNetworkConnection bad = connect();
+        NioNetworkConnection throwing = connect();
+        NioNetworkConnection good = connect();
+        node.awaitConnections(3);
+        Events badEvents = new Events();
+        bad.setHandler(badEvents);
+        final BlockingQueue<Object> throwingEvents = new LinkedBlockingQueue<Object>();
+        throwing.setHandler(new NioNetworkConnection.Handler() {
+            public void onMessage(Message message) {
+                throw new IllegalStateException("Handler bug");
+            }
+
+            public void onClosed(Exception cause) {
+                throwingEvents.add(cause);
+            }
+        });
+        Events goodEvents = new Events();
+        good.setHandler(goodEvents);
+
+        // A header whose size is above the int range.
+        byte[] header = new byte[24];
+        for (int i = 0; i < 4; i++)
+            header[i] = (byte) (params.packetMagic >>> (24 - i * 8));
+        System.arraycopy("inv".getBytes("US-ASCII"), 0, header, 4, 3);
+        for (int i = 16; i < 20; i++)
+            header[i] = (byte) 0xff;
+        node.sendGarbage(0, header);
+        assertTrue(badEvents.next() instanceof ProtocolException);
+
+        node.send(1, new Ping());
+        assertTrue(throwingEvents.poll(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+
+        // Writing to a closed connection queues nothing for the selector.
+        try {
+            bad.writeMessage(new Ping());
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        // The selector and dispatch threads are still going for everybody else.
+        node.send(2, new Ping());
+        assertTrue(goodEvents.next() instanceof Ping);
+        good.writeMessage(new Ping());
+        assertTrue(node.read(2) instanceof Ping);
+    }
+
+    @Test
+    public void peerGroup() throws Exception {
+        BlockChain chain = new BlockChain(params, new MemoryBlockStore(params));
+        PeerGroup peerGroup = new PeerGroup(params, chain, 100);
+        peerGroup.setConnectionManager(manager);
+        peerGroup.start();
+        peerGroup.addAddress(node.getAddress());
+        node.awaitConnections(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (peerGroup.numConnectedPeers() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, peerGroup.numConnectedPeers());
+
+        // The peer asks for the transactions it hears about, without having a thread of its own.
+        Transaction tx = TestUtils.createFakeTx(params, Utils.toNanoCoins(1, 0), new ECKey().toAddress(params));
+        InventoryMessage inv = new InventoryMessage(params);
+        inv.addTransaction(tx);
+        node.send(0, inv);
+        Message m = node.read(0);
+        assertTrue(m instanceof GetDataMessage);
+        assertEquals(tx.getHash(), ((GetDataMessage) m).getItems().get(0).hash);
+
+        // When the node disconnects, the peer is removed from the group.
+        node.disconnect(0);
+        deadline = System.currentTimeMillis() + 5000;
+        while (peerGroup.numConnectedPeers() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, peerGroup.numConnectedPeers());
+        peerGroup.stop();
+    }
+}
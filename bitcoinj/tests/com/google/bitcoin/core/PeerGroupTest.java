@@ -206,6 +206,52 @@ public class PeerGroupTest extends TestWithNetworkConnections {
         peerGroup.stop();
     }
     
+    @Test
+    public void parallelDownload() throws Exception {
+        // Check that with a download scheduler, the blocks announced to the download peer are fetched from all peers.
+        MockNetworkConnection n1 = createMockNetworkConnection();
+        Peer p1 = new Peer(params, blockChain, n1);
+        MockNetworkConnection n2 = createMockNetworkConnection();
+        Peer p2 = new Peer(params, blockChain, n2);
+        peerGroup.setDownloadScheduler(new BlockDownloadScheduler(blockChain, 1, 60 * 1000));
+        peerGroup.start();
+        peerGroup.addPeer(p1);
+
+        Block b1 = TestUtils.createFakeBlock(params, blockStore).block;
+        Block b2 = TestUtils.makeSolvedTestBlock(params, b1);
+        Block b3 = TestUtils.makeSolvedTestBlock(params, b2);
+        n1.setVersionMessageForHeight(params, 3);
+        n2.setVersionMessageForHeight(params, 3);
+
+        peerGroup.startBlockChainDownload(new AbstractPeerEventListener() {
+        });
+        assertTrue(n1.outbound() instanceof GetBlocksMessage);
+        // A peer that connects during the download helps with it.
+        peerGroup.addPeer(p2);
+        InventoryMessage inv = new InventoryMessage(params);
+        inv.addBlock(b1);
+        inv.addBlock(b2);
+        inv.addBlock(b3);
+        // One block per window, so the first and third blocks are requested from peer 1 and the second from peer 2.
+        GetDataMessage getdata1 = (GetDataMessage) n1.exchange(inv);
+        assertEquals(2, getdata1.getItems().size());
+        assertEquals(b1.getHash(), getdata1.getItems().get(0).hash);
+        assertEquals(b3.getHash(), getdata1.getItems().get(1).hash);
+        GetDataMessage getdata2 = (GetDataMessage) n2.popOutbound();
+        assertEquals(1, getdata2.getItems().size());
+        assertEquals(b2.getHash(), getdata2.getItems().get(0).hash);
+
+        // The blocks are added to the chain in order, whichever peer sends them first.
+        n2.exchange(b2);
+        assertEquals(0, blockChain.getBestChainHeight());
+        n1.exchange(b3);
+        n1.exchange(b1);
+        assertEquals(3, blockChain.getBestChainHeight());
+        assertEquals(2, peerGroup.getDownloadScheduler().getStats(p1).getBlocks());
+        assertEquals(1, peerGroup.getDownloadScheduler().getStats(p2).getBlocks());
+        peerGroup.stop();
+    }
+
     @Test
     public void transactionConfidence() throws Exception {
         // Checks that we correctly count how many peers broadcast a transaction, so we can establish some measure of
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+
+/**
+ * Times {@link Transaction#signInputs(Transaction.SigHash, Wallet)} against the way it used to work, which put each
+ * connected script into the transaction and serialized all of it to get the hash, then signed the inputs one by one
+ * with Bouncy Castle's ECDSASigner.
+ * The signature hashes are also timed on their own. This is not run as part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.SignInputsBenchmark 10 100 500</pre>
+ *
+ * The arguments are the numbers of inputs to try. Every case is run a few times so the JIT can warm up, the last run
+ * is the one to look at.
+ */
+public class SignInputsBenchmark {
+    static void print(String name, int inputs, long start) {
+        System.out.println(String.format("  %4d inputs, %-24s %10.3f ms", inputs, name,
+                (System.nanoTime() - start) / 1000000.0));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0)
+            args = new String[] {"10", "100", "500"};
+        System.out.println("Signing on " + WorkerPool.THREADS + " processors");
+        for (int run = 1; run <= 3; run++) {
+            System.out.println("Run " + run);
+            for (String arg : args) {
+                int inputs = Integer.parseInt(arg);
+                Wallet wallet = new Wallet(SignatureHashesTest.params);
+                Transaction tx = SignatureHashesTest.unsignedSpend(wallet, inputs);
+
+                long start = System.nanoTime();
+                byte[][] hashes = new byte[inputs][];
+                for (int i = 0; i < inputs; i++)
+                    hashes[i] = SignatureHashesTest.referenceHash(tx, i);
+                print("hashes, serializing", inputs, start);
+
+                start = System.nanoTime();
+                SignatureHashes signatureHashes = new SignatureHashes(tx, Transaction.SigHash.ALL, false);
+                for (int i = 0; i < inputs; i++)
+                    signatureHashes.hash(i, tx.getInputs().get(i).getOutpoint().getConnectedPubKeyScript());
+                print("hashes, SignatureHashes", inputs, start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < inputs; i++) {
+                    ECKey key = wallet.findKeyFromPubHash(tx.getInputs().get(i).getOutpoint().getConnectedPubKeyHash());
+                    ECDSASigner signer = new ECDSASigner();
+                    signer.init(true, new ECPrivateKeyParameters(key.priv, ECKey.ecParams));
+                    signer.generateSignature(SignatureHashesTest.referenceHash(tx, i));
+                }
+                print("signing one by one", inputs, start);
+
+                start = System.nanoTime();
+                tx.signInputs(Transaction.SigHash.ALL, wallet);
+                print("signInputs", inputs, start);
+            }
+        }
+    }
+}
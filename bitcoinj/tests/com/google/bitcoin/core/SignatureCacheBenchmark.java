@@ -0,0 +1,68 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times verifying signatures the first time, again through the {@link SignatureCache}, and as a batch with
+ * {@link SignatureCache#verifyAll(List, List, List)}. This is not run as part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.SignatureCacheBenchmark 200</pre>
+ *
+ * The argument is the number of signatures. Every case is run a few times so the JIT can warm up, the last run is the
+ * one to look at.
+ */
+public class SignatureCacheBenchmark {
+    static void print(String name, long start, int count) {
+        System.out.println(String.format("  %-28s %8.1f us/signature", name, (System.nanoTime() - start) / 1000.0 / count));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        List<byte[]> data = new ArrayList<byte[]>();
+        List<byte[]> sigs = new ArrayList<byte[]>();
+        List<byte[]> pubs = new ArrayList<byte[]>();
+        ECKey key = new ECKey();
+        for (int i = 0; i < count; i++) {
+            byte[] number = new byte[4];
+            Utils.uint32ToByteArrayBE(i, number, 0);
+            byte[] hash = Utils.singleDigest(number, 0, 4);
+            data.add(hash);
+            sigs.add(key.sign(hash));
+            pubs.add(key.getPubKey());
+        }
+        System.out.println("Verifying on " + WorkerPool.THREADS + " processors");
+        for (int run = 1; run <= 3; run++) {
+            System.out.println("Run " + run);
+            SignatureCache cache = new SignatureCache(count);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                cache.verify(data.get(i), sigs.get(i), pubs.get(i));
+            print("first time", start, count);
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                cache.verify(data.get(i), sigs.get(i), pubs.get(i));
+            print("cached", start, count);
+            System.out.println("  " + cache.getStats());
+            start = System.nanoTime();
+            new SignatureCache(count).verifyAll(data, sigs, pubs);
+            print("verifyAll, first time", start, count);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class SignatureCacheTest {
+    private static byte[] hash(int i) {
+        return Utils.singleDigest(new byte[] {(byte) i}, 0, 1);
+    }
+
+    @Test
+    public void cachesGoodSignatures() throws Exception {
+        SignatureCache cache = new SignatureCache(10);
+        ECKey key = new ECKey();
+        byte[] data = hash(1);
+        byte[] sig = key.sign(data);
+        assertTrue(cache.verify(data, sig, key.getPubKey()));
+        assertTrue(cache.verify(data, sig, key.getPubKey()));
+        SignatureCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0.5, stats.getHitRate(), 0);
+        assertTrue(stats.getAverageVerifyMicros() > 0);
+        assertEquals(1, stats.getSize());
+
+        // Bad signatures are checked every time and never remembered.
+        byte[] other = hash(2);
+        assertFalse(cache.verify(other, sig, key.getPubKey()));
+        assertFalse(cache.verify(other, sig, key.getPubKey()));
+        assertFalse(cache.verify(data, sig, new ECKey().getPubKey()));
+        assertEquals(4, cache.getStats().getMisses());
+        assertEquals(1, cache.getStats().getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getStats().getHits());
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        SignatureCache cache = new SignatureCache(3);
+        ECKey key = new ECKey();
+        for (int i = 0; i < 6; i++) {
+            byte[] data = hash(i);
+            assertTrue(cache.verify(data, key.sign(data), key.getPubKey()));
+        }
+        assertEquals(3, cache.getStats().getSize());
+    }
+
+    @Test
+    public void verifyAll() throws Exception {
+        List<byte[]> data = new ArrayList<byte[]>();
+        List<byte[]> sigs = new ArrayList<byte[]>();
+        List<byte[]> pubs = new ArrayList<byte[]>();
+        ECKey key = new ECKey();
+        for (int i = 0; i < 10; i++) {
+            data.add(hash(i));
+            sigs.add(key.sign(hash(i)));
+            pubs.add(key.getPubKey());
+        }
+        // Break every third one.
+        for (int i = 0; i < 10; i += 3)
+            data.set(i, hash(i + 100));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int slices : new int[] {1, 3, 4}) {
+                SignatureCache cache = new SignatureCache(100);
+                boolean[] results = cache.verifyAll(data, sigs, pubs, executor, slices);
+                for (int i = 0; i < 10; i++)
+                    assertEquals("signature " + i, i % 3 != 0, results[i]);
+                assertEquals(6, cache.getStats().getSize());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void throughECKey() throws Exception {
+        ECKey key = new ECKey();
+        byte[] data = hash(7);
+        byte[] sig = key.sign(data);
+        long hits = SignatureCache.getDefault().getStats().getHits();
+        assertTrue(key.verify(data, sig));
+        assertTrue(ECKey.verify(data, sig, key.getPubKey()));
+        assertEquals(hits + 1, SignatureCache.getDefault().getStats().getHits());
+    }
+}
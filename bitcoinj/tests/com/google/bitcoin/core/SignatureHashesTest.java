@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static com.google.bitcoin.core.TestUtils.createFakeTx;
+import static org.junit.Assert.*;
+
+public class SignatureHashesTest {
+    static final NetworkParameters params = NetworkParameters.unitTests();
+
+    /** Returns an unsigned transaction that spends one fake output to each of the wallet's keys. */
+    static Transaction unsignedSpend(Wallet wallet, int inputs) {
+        Transaction tx = new Transaction(params);
+        for (int i = 0; i < inputs; i++) {
+            ECKey key = new ECKey();
+            wallet.addKey(key);
+            Transaction funding = createFakeTx(params, Utils.toNanoCoins(1 + i, 0), key.toAddress(params));
+            tx.addInput(funding.getOutputs().get(0));
+        }
+        tx.addOutput(Utils.toNanoCoins(inputs, 0), new ECKey().toAddress(params));
+        return tx;
+    }
+
+    // The way signInputs used to get the hash for each input, by putting the connected script into the transaction.
+    static byte[] referenceHash(Transaction tx, int index) throws Exception {
+        TransactionInput input = tx.getInputs().get(index);
+        input.setScriptBytes(input.getOutpoint().getConnectedPubKeyScript());
+        byte[] hash = tx.hashTransactionForSignature(Transaction.SigHash.ALL, false);
+        input.setScriptBytes(TransactionInput.EMPTY_ARRAY);
+        return hash;
+    }
+
+    @Test
+    public void sameAsHashingTheTransaction() throws Exception {
+        for (int inputs : new int[] {1, 2, 7, 300}) {
+            Transaction tx = unsignedSpend(new Wallet(params), inputs);
+            byte[] before = tx.bitcoinSerialize();
+            SignatureHashes hashes = new SignatureHashes(tx, Transaction.SigHash.ALL, false);
+            for (int i = 0; i < inputs; i++) {
+                byte[] script = tx.getInputs().get(i).getOutpoint().getConnectedPubKeyScript();
+                assertArrayEquals(inputs + " inputs, input " + i, referenceHash(tx, i), hashes.hash(i, script));
+            }
+            assertArrayEquals(before, tx.bitcoinSerialize());
+        }
+    }
+
+    @Test
+    public void signInputs() throws Exception {
+        Wallet wallet = new Wallet(params);
+        Transaction tx = unsignedSpend(wallet, 9);
+        byte[][] expected = new byte[9][];
+        for (int i = 0; i < 9; i++)
+            expected[i] = referenceHash(tx, i);
+        tx.signInputs(Transaction.SigHash.ALL, wallet);
+        for (int i = 0; i < 9; i++) {
+            TransactionInput input = tx.getInputs().get(i);
+            byte[] script = input.getScriptBytes();
+            // The script pushes the signature, which ends with the hash type, then the public key.
+            byte[] signature = Arrays.copyOfRange(script, 1, script[0]);
+            assertEquals(1, script[script[0]]);
+            byte[] pubKey = input.getScriptSig().getPubKey();
+            assertArrayEquals(wallet.findKeyFromPubHash(input.getOutpoint().getConnectedPubKeyHash()).getPubKey(), pubKey);
+            assertTrue("input " + i, ECKey.verify(expected[i], signature, pubKey));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.core;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Feeds transactions through a wallet and reports how many it takes per second. Half of them are payments that stay
+ * pending, so the pending pool grows to that size. The other half arrive in blocks as a chain where each one spends
+ * the previous one, and are checked with {@link Wallet#isTransactionRelevant(Transaction, boolean)} first like the
+ * block chain does. Every transaction is checked for double spends against the whole pending pool. For comparison,
+ * the way that check used to work, scanning the inputs of every pending transaction, is timed on the full pool.
+ * This is not run as part of the unit tests. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.core.WalletBenchmark 100000</pre>
+ *
+ * The argument is the number of transactions. Every case is run a few times so the JIT can warm up, the last run is
+ * the one to look at.
+ */
+public class WalletBenchmark {
+    static final NetworkParameters params = NetworkParameters.unitTests();
+    static final BigInteger nanos = Utils.toNanoCoins(1, 0);
+
+    static Transaction payment(TransactionOutput from, Address to) {
+        Transaction tx = new Transaction(params);
+        tx.addOutput(new TransactionOutput(params, tx, nanos, to));
+        tx.addInput(from);
+        return tx;
+    }
+
+    // The value makes each previous transaction, and so each outpoint, different.
+    static TransactionOutput externalOutput(Address owner, int value) {
+        Transaction prevTx = new Transaction(params);
+        TransactionOutput prevOut = new TransactionOutput(params, prevTx, nanos.add(BigInteger.valueOf(value)), owner);
+        prevTx.addOutput(prevOut);
+        return prevOut;
+    }
+
+    static void print(String name, int count, long start) {
+        double seconds = (System.nanoTime() - start) / 1000000000.0;
+        System.out.println(String.format("  %-32s %7d tx in %7.3f s, %9.0f tx/s", name, count, seconds,
+                count / seconds));
+    }
+
+    // What findDoubleSpendAgainstPending used to do for every transaction.
+    static Transaction scanPending(Transaction tx, Wallet wallet) {
+        Set<TransactionOutPoint> outpoints = new HashSet<TransactionOutPoint>();
+        for (TransactionInput input : tx.getInputs())
+            outpoints.add(input.getOutpoint());
+        for (Transaction p : wallet.getPendingTransactions()) {
+            for (TransactionInput input : p.getInputs()) {
+                if (outpoints.contains(input.getOutpoint()))
+                    return p;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Logger.getLogger("").setLevel(Level.WARNING);
+        Address someoneElse = new ECKey().toAddress(params);
+        for (int run = 1; run <= 3; run++) {
+            System.out.println("Run " + run);
+            ECKey key = new ECKey();
+            Address me = key.toAddress(params);
+            Wallet wallet = new Wallet(params);
+            wallet.addKey(key);
+
+            List<Transaction> pending = new ArrayList<Transaction>();
+            for (int i = 0; i < count / 2; i++)
+                pending.add(payment(externalOutput(someoneElse, i), me));
+            List<Transaction> confirmed = new ArrayList<Transaction>();
+            TransactionOutput from = externalOutput(someoneElse, -1);
+            for (int i = 0; i < count - count / 2; i++) {
+                Transaction tx = payment(from, me);
+                confirmed.add(tx);
+                from = tx.getOutputs().get(0);
+            }
+            // Hash them up front, that isn't what's being timed.
+            for (Transaction tx : pending)
+                tx.getHash();
+            for (Transaction tx : confirmed)
+                tx.getHash();
+
+            long start = System.nanoTime();
+            for (Transaction tx : pending)
+                wallet.receivePending(tx);
+            print("receivePending", pending.size(), start);
+
+            start = System.nanoTime();
+            for (Transaction tx : confirmed) {
+                if (!wallet.isTransactionRelevant(tx, true))
+                    throw new IllegalStateException("Not relevant: " + tx);
+                wallet.receiveFromBlock(tx, null, BlockChain.NewBlockType.BEST_CHAIN);
+            }
+            print("receiveFromBlock", confirmed.size(), start);
+
+            int scans = Math.min(100, confirmed.size());
+            start = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                if (scanPending(confirmed.get(i), wallet) != null)
+                    throw new IllegalStateException("Double spend");
+            }
+            print("scanning " + wallet.getPendingTransactions().size() + " pending", scans, start);
+        }
+    }
+}
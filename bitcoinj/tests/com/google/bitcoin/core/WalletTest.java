@@ -263,6 +263,66 @@ public class WalletTest {
         assertEquals(BigInteger.ZERO.subtract(toNanoCoins(0, 10)), send2.getValue(wallet));
     }
 
+    @Test
+    public void balancesFollowKeys() throws Exception {
+        // A transaction paying us and a key we don't have yet.
+        BigInteger nanos = Utils.toNanoCoins(1, 0);
+        ECKey key2 = new ECKey();
+        Transaction tx1 = createFakeTx(params, nanos, myAddress);
+        tx1.addOutput(new TransactionOutput(params, tx1, Utils.toNanoCoins(0, 30), key2.toAddress(params)));
+        wallet.receiveFromBlock(tx1, null, BlockChain.NewBlockType.BEST_CHAIN);
+        assertEquals(nanos, wallet.getBalance());
+        wallet.addKey(key2);
+        assertEquals(Utils.toNanoCoins(1, 30), wallet.getBalance());
+        assertEquals(Utils.toNanoCoins(1, 30), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+        // Removing it behind the wallet's back is noticed by the next change.
+        wallet.keychain.remove(key2);
+        Transaction tx2 = createFakeTx(params, nanos, myAddress);
+        wallet.receivePending(tx2);
+        assertEquals(nanos, wallet.getBalance());
+        assertEquals(Utils.toNanoCoins(2, 0), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+    }
+
+    @Test
+    public void balanceWithoutLock() throws Exception {
+        wallet.receiveFromBlock(createFakeTx(params, Utils.toNanoCoins(1, 0), myAddress), null,
+                BlockChain.NewBlockType.BEST_CHAIN);
+        final BigInteger[] balance = new BigInteger[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                balance[0] = wallet.getBalance();
+            }
+        };
+        synchronized (wallet) {
+            reader.start();
+            reader.join(10000);
+        }
+        assertEquals(Utils.toNanoCoins(1, 0), balance[0]);
+    }
+
+    @Test
+    public void removeWalletTransaction() throws Exception {
+        Transaction t1 = createFakeTx(params, Utils.toNanoCoins(1, 0), myAddress);
+        Transaction t2 = createFakeTx(params, Utils.toNanoCoins(2, 0), myAddress);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, t1));
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.PENDING_INACTIVE, t2));
+        assertEquals(Utils.toNanoCoins(3, 0), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+        // Readers holding a snapshot from before a removal must not trip the consistency checks.
+        assertEquals(2, wallet.getTransactions(true, true).size());
+
+        assertTrue(wallet.removeWalletTransaction(t2.getHash()));
+        assertEquals(1, wallet.getTransactions(true, true).size());
+        assertFalse(wallet.removeWalletTransaction(t2.getHash()));
+        assertEquals(0, wallet.getPoolSize(WalletTransaction.Pool.PENDING));
+        assertEquals(0, wallet.getPoolSize(WalletTransaction.Pool.INACTIVE));
+        assertEquals(Utils.toNanoCoins(1, 0), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+
+        assertTrue(wallet.removeWalletTransaction(t1.getHash()));
+        assertEquals(BigInteger.ZERO, wallet.getBalance());
+        assertTrue(wallet.getTransactions(true, true).isEmpty());
+    }
+
     @Test
     public void transactions() throws Exception {
         // This test covers a bug in which Transaction.getValueSentFromMe was calculating incorrectly.
@@ -513,6 +573,49 @@ public class WalletTest {
         assertEquals(t2, called[1]); // replacement
     }
 
+    @Test
+    public void pendingDoubleSpends() throws Exception {
+        // Two pending transactions spending the same outpoint, which isn't ours. Each one stays findable as a double
+        // spend until it leaves the pending pool.
+        BigInteger nanos = Utils.toNanoCoins(1, 0);
+        Address someBadGuy = new ECKey().toAddress(params);
+        Transaction prevTx = new Transaction(params);
+        TransactionOutput prevOut = new TransactionOutput(params, prevTx, nanos, someBadGuy);
+        prevTx.addOutput(prevOut);
+        Transaction t1 = new Transaction(params);
+        t1.addOutput(new TransactionOutput(params, t1, nanos, myAddress));
+        t1.addInput(prevOut);
+        Transaction t2 = new Transaction(params);
+        t2.addOutput(new TransactionOutput(params, t2, nanos, someBadGuy));
+        t2.addInput(prevOut);
+        Transaction t3 = new Transaction(params);
+        t3.addOutput(new TransactionOutput(params, t3, Utils.toNanoCoins(0, 50), someBadGuy));
+        t3.addInput(prevOut);
+
+        assertFalse(wallet.isTransactionRelevant(t2, true));
+        wallet.receivePending(t1);
+        assertTrue(wallet.isTransactionRelevant(t2, true));
+        assertFalse(wallet.isTransactionRelevant(t2, false));
+        wallet.receivePending(t2);
+        assertEquals(2, wallet.getPoolSize(WalletTransaction.Pool.PENDING));
+
+        // The index is rebuilt when the wallet is loaded.
+        ByteArrayOutputStream bios = new ByteArrayOutputStream();
+        wallet.saveToFileStream(bios);
+        wallet = Wallet.loadFromFileStream(new ByteArrayInputStream(bios.toByteArray()));
+        t1 = wallet.getTransaction(t1.getHash());
+        t2 = wallet.getTransaction(t2.getHash());
+
+        // t1 confirms, t2 is still pending and still conflicts with t3.
+        wallet.receiveFromBlock(t1, null, BlockChain.NewBlockType.BEST_CHAIN);
+        assertEquals(1, wallet.getPoolSize(WalletTransaction.Pool.PENDING));
+        assertTrue(wallet.isTransactionRelevant(t3, true));
+        // Once t2 confirms too nothing pending spends the outpoint any more.
+        wallet.receiveFromBlock(t2, null, BlockChain.NewBlockType.BEST_CHAIN);
+        assertEquals(0, wallet.getPoolSize(WalletTransaction.Pool.PENDING));
+        assertFalse(wallet.isTransactionRelevant(t3, true));
+    }
+
     @Test
     public void transactionsList() throws Exception {
         // Check the wallet can give us an ordered list of all received transactions.
@@ -557,6 +660,51 @@ public class WalletTest {
         assertEquals(3, transactions.size());
     }
 
+    @Test
+    public void snapshots() throws Exception {
+        WalletSnapshot empty = wallet.getSnapshot();
+        assertSame(empty, wallet.getSnapshot());
+        assertEquals(0, empty.getTransactions(true, true).size());
+        Transaction tx1 = createFakeTx(params, Utils.toNanoCoins(1, 0), myAddress);
+        wallet.receiveFromBlock(tx1, null, BlockChain.NewBlockType.BEST_CHAIN);
+        Transaction tx2 = createFakeTx(params, Utils.toNanoCoins(2, 0), myAddress);
+        wallet.receivePending(tx2);
+
+        // The old snapshot doesn't change, the new one is shared until the wallet changes again.
+        assertEquals(0, empty.getTransactions(true, true).size());
+        final WalletSnapshot snapshot = wallet.getSnapshot();
+        assertTrue(snapshot.getVersion() > empty.getVersion());
+        assertSame(snapshot, wallet.getSnapshot());
+        assertSame(snapshot.getTransactions(true, false), wallet.getTransactions(true, false));
+        assertEquals(1, snapshot.getPoolSize(WalletTransaction.Pool.UNSPENT));
+        assertEquals(1, snapshot.getPoolSize(WalletTransaction.Pool.PENDING));
+        Set<WalletTransaction> walletTransactions = snapshot.getWalletTransactions();
+        assertEquals(2, walletTransactions.size());
+        for (WalletTransaction wtx : walletTransactions)
+            assertEquals(wtx.getTransaction() == tx1 ? WalletTransaction.Pool.UNSPENT : WalletTransaction.Pool.PENDING,
+                    wtx.getPool());
+        try {
+            wallet.getTransactions(true, true).clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+
+        // It can be read while somebody else holds the wallet lock.
+        final List<?>[] read = new List<?>[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                read[0] = wallet.getTransactionsByTime();
+            }
+        };
+        synchronized (wallet) {
+            reader.start();
+            reader.join(10000);
+        }
+        assertEquals(2, read[0].size());
+    }
+
     @Test
     public void keyCreationTime() throws Exception {
         wallet = new Wallet(params);
@@ -570,7 +718,33 @@ public class WalletTest {
         wallet.addKey(new ECKey());
         assertEquals(now + 60, wallet.getEarliestKeyCreationTime());
     }
-    
+
+    @Test
+    public void keyLookups() throws Exception {
+        ECKey key2 = new ECKey();
+        assertEquals(myKey, wallet.findKeyFromPubHash(myKey.getPubKeyHash()));
+        assertEquals(myKey, wallet.findKeyFromPubKey(myKey.getPubKey()));
+        assertEquals(myKey, wallet.findKeyFromPubHashCompressed(myKey.getCompressedPubKeyHash()));
+        assertNull(wallet.findKeyFromPubHash(key2.getPubKeyHash()));
+        assertFalse(wallet.isPubKeyMine(key2.getPubKey()));
+        // Keys added behind the wallets back are still found.
+        wallet.keychain.add(key2);
+        assertEquals(key2, wallet.findKeyFromPubHash(key2.getPubKeyHash()));
+        assertEquals(key2, wallet.findKeyFromPubHashCompressed(key2.getCompressedPubKeyHash()));
+        // And removed keys are forgotten, even if the keychain is refilled to the same size.
+        ECKey key3 = new ECKey();
+        wallet.keychain.clear();
+        wallet.addKey(key2);
+        wallet.addKey(key3);
+        assertNull(wallet.findKeyFromPubHash(myKey.getPubKeyHash()));
+        assertNull(wallet.findKeyFromPubKey(myKey.getPubKey()));
+        assertEquals(key3, wallet.findKeyFromPubHash(key3.getPubKeyHash()));
+        // Watching keys can't be found by compressed hash, but don't break the index either.
+        ECKey watching = new ECKey((byte[]) null, key3.getPubKey());
+        wallet.addKey(watching);
+        assertEquals(key2, wallet.findKeyFromPubHashCompressed(key2.getCompressedPubKeyHash()));
+    }
+
     @Test
     public void transactionAppearsInMigration() throws Exception {
         // Test migration from appearsIn to appearsInHashes
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.bitcoin.store;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.StoredBlock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times block store operations on large chains. This is not run as part of the unit tests as building the chains
+ * takes a while. Run it by hand:<p>
+ *
+ * <pre>java com.google.bitcoin.store.BlockStoreBenchmark bounded 200000 2000</pre>
+ *
+ * The arguments are the store type, the chain length and the number of random reads to time.
+ */
+public class BlockStoreBenchmark {
+    static final NetworkParameters params = NetworkParameters.unitTests();
+
+    /** Builds a chain of headers on top of the unit test genesis block, including the genesis block itself. */
+    static List<StoredBlock> buildChain(int length) throws Exception {
+        Address to = new ECKey().toAddress(params);
+        List<StoredBlock> chain = new ArrayList<StoredBlock>(length);
+        StoredBlock cursor = new StoredBlock(params.genesisBlock.cloneAsHeader(), params.genesisBlock.getWork(), 0);
+        chain.add(cursor);
+        for (int i = 1; i < length; i++) {
+            cursor = cursor.build(cursor.getHeader().createNextBlock(to).cloneAsHeader());
+            chain.add(cursor);
+        }
+        return chain;
+    }
+
+    /** Puts every block except the genesis block into the store and makes the last one the chain head. */
+    static void fill(BlockStore store, List<StoredBlock> chain) throws BlockStoreException {
+        for (int i = 1; i < chain.size(); i++)
+            store.put(chain.get(i));
+        store.setChainHead(chain.get(chain.size() - 1));
+    }
+
+    /** Returns the average time in microseconds of a get() for a randomly chosen block of the chain. */
+    static double timeRandomGets(BlockStore store, List<StoredBlock> chain, int samples) throws BlockStoreException {
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < samples; i++) {
+            StoredBlock block = chain.get(random.nextInt(chain.size()));
+            if (store.get(block.getHeader().getHash()) == null)
+                throw new RuntimeException("Block missing from store: " + block);
+        }
+        return (System.nanoTime() - start) / 1000.0 / samples;
+    }
+
+    static BlockStore open(String type, File file) throws BlockStoreException {
+        if (type.equals("bounded"))
+            return new BoundedOverheadBlockStore(params, file);
+        else if (type.equals("disk"))
+            return new DiskBlockStore(params, file);
+        else if (type.equals("spv"))
+            return new SPVBlockStore(params, file);
+        throw new IllegalArgumentException("Unknown store type " + type);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String type = args.length > 0 ? args[0] : "bounded";
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int samples = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        File file = File.createTempFile("bitcoinj-benchmark", null, null);
+        file.delete();
+        file.deleteOnExit();
+
+        long start = System.currentTimeMillis();
+        List<StoredBlock> chain = buildChain(length);
+        System.out.println(String.format("Built %d headers in %d ms", length, System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        fill(open(type, file), chain);
+        System.out.println(String.format("Stored them in %d ms", System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        BlockStore store = open(type, file);
+        System.out.println(String.format("Opened store in %d ms", System.currentTimeMillis() - start));
+        StoredBlock head = chain.get(chain.size() - 1);
+        // The SPV store only keeps the top of the chain. Dropping the rest also lets us see the heap it uses.
+        if (type.equals("spv"))
+            chain = new ArrayList<StoredBlock>(
+                    chain.subList(Math.max(0, chain.size() - SPVBlockStore.DEFAULT_CAPACITY), chain.size()));
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println(String.format("Heap used after open: %d KB", heap / 1024));
+
+        System.out.println(String.format("Random get(): %.1f us", timeRandomGets(store, chain, samples)));
+        if (!store.getChainHead().equals(head))
+            throw new RuntimeException("Wrong chain head");
+    }
+}
@@ -20,9 +20,13 @@ import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.NetworkParameters;
 import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.store.BoundedOverheadBlockStore;
+import com.google.bitcoin.core.Sha256Hash;
 import org.junit.Test;
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class BoundedOverheadBlockStoreTest {
     @Test
@@ -49,4 +53,70 @@ public class BoundedOverheadBlockStoreTest {
         // Check the chain head was stored correctly also.
         assertEquals(b1, store.getChainHead());
     }
+
+    @Test
+    public void testIndex() throws Exception {
+        File temp = File.createTempFile("bitcoinj-test", null, null);
+        temp.delete();
+        temp.deleteOnExit();
+        File indexFile = BoundedOverheadBlockStore.getIndexFile(temp);
+        indexFile.deleteOnExit();
+
+        NetworkParameters params = NetworkParameters.unitTests();
+        // Enough blocks that the index has to grow a couple of times.
+        List<StoredBlock> chain = BlockStoreBenchmark.buildChain(10000);
+        BoundedOverheadBlockStore store = new BoundedOverheadBlockStore(params, temp);
+        BlockStoreBenchmark.fill(store, chain);
+        checkChain(store, chain);
+        assertNull(store.get(new Sha256Hash("0000000000000000000000000000000000000000000000000000000000000001")));
+
+        // Reopening the store uses the existing index.
+        store = new BoundedOverheadBlockStore(params, temp);
+        checkChain(store, chain);
+
+        // A missing index is rebuilt.
+        indexFile.delete();
+        store = new BoundedOverheadBlockStore(params, temp);
+        checkChain(store, chain);
+
+        // So is a damaged one.
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        raf.setLength(100);
+        raf.close();
+        store = new BoundedOverheadBlockStore(params, temp);
+        checkChain(store, chain);
+
+        // Blocks added after the index was written are picked up. Simulate a crash before the index was updated by
+        // putting the last block on the end of the block file only.
+        File copy = new File(indexFile.getPath() + ".copy");
+        copy.deleteOnExit();
+        copyFile(indexFile, copy);
+        StoredBlock next = chain.get(chain.size() - 1);
+        next = next.build(next.getHeader().createNextBlock(new ECKey().toAddress(params)).cloneAsHeader());
+        store.put(next);
+        copyFile(copy, indexFile);
+        store = new BoundedOverheadBlockStore(params, temp);
+        assertEquals(next, store.get(next.getHeader().getHash()));
+        checkChain(store, chain);
+    }
+
+    private void checkChain(BoundedOverheadBlockStore store, List<StoredBlock> chain) throws Exception {
+        assertEquals(chain.get(chain.size() - 1), store.getChainHead());
+        // Go through the store in steps so that most blocks are not in the cache.
+        for (int i = 0; i < chain.size(); i += 37) {
+            StoredBlock block = chain.get(i);
+            assertEquals(block, store.get(block.getHeader().getHash()));
+        }
+    }
+
+    private void copyFile(File from, File to) throws Exception {
+        RandomAccessFile in = new RandomAccessFile(from, "r");
+        byte[] bytes = new byte[(int) in.length()];
+        in.readFully(bytes);
+        in.close();
+        RandomAccessFile out = new RandomAccessFile(to, "rw");
+        out.setLength(0);
+        out.write(bytes);
+        out.close();
+    }
 }
@@ -22,6 +22,7 @@ import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.store.DiskBlockStore;
 import org.junit.Test;
 import java.io.File;
+import java.util.List;
 import static org.junit.Assert.assertEquals;
 
 public class DiskBlockStoreTest {
@@ -76,4 +77,46 @@ public class DiskBlockStoreTest {
         // Check the chain head was stored correctly also.
         assertEquals(b1, store.getChainHead());
     }
+
+    @Test
+    public void testLoad() throws Exception {
+        File temp = File.createTempFile("bitcoinj-test", null, null);
+        temp.delete();
+        temp.deleteOnExit();
+
+        // Big enough to span several chunks and to give a rough idea of load times.
+        NetworkParameters params = NetworkParameters.unitTests();
+        List<StoredBlock> chain = BlockStoreBenchmark.buildChain(25000);
+        BlockStoreBenchmark.fill(new DiskBlockStore(params, temp), chain);
+
+        long start = System.currentTimeMillis();
+        DiskBlockStore store = new DiskBlockStore(params, temp);
+        System.out.println("Loaded " + chain.size() + " headers in " + (System.currentTimeMillis() - start) + " ms");
+        checkChain(store, chain);
+
+        // With a checkpoint the headers below it are not verified again.
+        StoredBlock checkpoint = chain.get(20000);
+        params.checkpoints.put(checkpoint.getHeight(), checkpoint.getHeader().getHash());
+        start = System.currentTimeMillis();
+        store = new DiskBlockStore(params, temp);
+        System.out.println("Loaded " + chain.size() + " headers with a checkpoint in " +
+                (System.currentTimeMillis() - start) + " ms");
+        checkChain(store, chain);
+
+        // Blocks can still be added after loading.
+        StoredBlock next = chain.get(chain.size() - 1);
+        next = next.build(next.getHeader().createNextBlock(new ECKey().toAddress(params)).cloneAsHeader());
+        store.put(next);
+        store.setChainHead(next);
+        store = new DiskBlockStore(params, temp);
+        assertEquals(next, store.getChainHead());
+    }
+
+    private void checkChain(DiskBlockStore store, List<StoredBlock> chain) throws Exception {
+        assertEquals(chain.get(chain.size() - 1), store.getChainHead());
+        for (StoredBlock block : chain) {
+            assertEquals(block, store.get(block.getHeader().getHash()));
+            assertEquals(block.getHeader().getHash(), store.getHashAtHeight(block.getHeight()));
+        }
+    }
 }
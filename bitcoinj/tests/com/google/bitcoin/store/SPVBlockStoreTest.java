@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.bitcoin.store;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.StoredBlock;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SPVBlockStoreTest {
+    private NetworkParameters params;
+    private File temp;
+
+    @Before
+    public void setUp() throws Exception {
+        params = NetworkParameters.unitTests();
+        temp = File.createTempFile("bitcoinj-test", null, null);
+        temp.delete();
+        temp.deleteOnExit();
+    }
+
+    @Test
+    public void testStorage() throws Exception {
+        Address to = new ECKey().toAddress(params);
+        SPVBlockStore store = new SPVBlockStore(params, temp);
+        // Check the first block in a new store is the genesis block.
+        StoredBlock genesis = store.getChainHead();
+        assertEquals(params.genesisBlock, genesis.getHeader());
+        assertEquals(genesis, store.getByHeight(0));
+
+        StoredBlock b1 = genesis.build(genesis.getHeader().createNextBlock(to).cloneAsHeader());
+        store.put(b1);
+        store.setChainHead(b1);
+        store.close();
+        // Check we can get it back out again if we rebuild the store object.
+        store = new SPVBlockStore(params, temp);
+        assertEquals(b1, store.get(b1.getHeader().getHash()));
+        assertEquals(b1, store.getChainHead());
+        assertEquals(b1, store.getByHeight(1));
+        assertNull(store.getByHeight(2));
+        // Header bytes can be read without parsing them.
+        ByteBuffer header = store.getHeaderBytes(b1.getHeader().getHash());
+        byte[] bytes = new byte[header.remaining()];
+        header.get(bytes);
+        assertTrue(Arrays.equals(b1.getHeader().bitcoinSerialize(), bytes));
+    }
+
+    @Test
+    public void testRing() throws Exception {
+        List<StoredBlock> chain = BlockStoreBenchmark.buildChain(250);
+        SPVBlockStore store = new SPVBlockStore(params, temp, 100);
+        for (int i = 1; i < chain.size(); i++) {
+            store.put(chain.get(i));
+            store.setChainHead(chain.get(i));
+        }
+        store.close();
+        store = new SPVBlockStore(params, temp, 200);
+        // The capacity of an existing store does not change and only the last blocks are kept.
+        assertEquals(100, store.getCapacity());
+        assertEquals(chain.get(249), store.getChainHead());
+        for (int i = 0; i < 150; i++) {
+            assertNull(store.get(chain.get(i).getHeader().getHash()));
+            assertNull(store.getByHeight(i));
+        }
+        for (int i = 150; i < 250; i++) {
+            assertEquals(chain.get(i), store.get(chain.get(i).getHeader().getHash()));
+            assertEquals(chain.get(i), store.getByHeight(i));
+        }
+    }
+
+    @Test
+    public void testReorg() throws Exception {
+        Address to = new ECKey().toAddress(params);
+        List<StoredBlock> chain = BlockStoreBenchmark.buildChain(20);
+        SPVBlockStore store = new SPVBlockStore(params, temp);
+        BlockStoreBenchmark.fill(store, chain);
+        // Fork at height 10 with a longer side chain and switch to it.
+        StoredBlock cursor = chain.get(10);
+        StoredBlock[] fork = new StoredBlock[15];
+        for (int i = 11; i < fork.length + 11; i++) {
+            cursor = cursor.build(cursor.getHeader().createNextBlock(to).cloneAsHeader());
+            fork[i - 11] = cursor;
+            store.put(cursor);
+        }
+        // Heights still refer to the old chain until the head moves.
+        assertEquals(chain.get(15), store.getByHeight(15));
+        store.setChainHead(cursor);
+        assertEquals(chain.get(10), store.getByHeight(10));
+        assertEquals(fork[4], store.getByHeight(15));
+        assertEquals(cursor, store.getByHeight(25));
+        // And back again to the old chain, which is shorter, so the top of the fork is no longer reachable by height.
+        store.setChainHead(chain.get(19));
+        assertEquals(chain.get(15), store.getByHeight(15));
+        assertNull(store.getByHeight(25));
+    }
+}
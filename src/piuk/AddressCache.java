@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package piuk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import piuk.blockchain.android.Constants;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.AddressFormatException;
+
+/**
+ * Hands out one Address per address string. The same few addresses come back again and again from the server, in
+ * transaction lists and websocket messages, and decoding one means base58 and a double SHA-256 checksum. An Address
+ * remembers the string it was made from, so printing a cached one costs nothing either.
+ */
+public class AddressCache {
+	private static final int MAX_SIZE = 2000;
+
+	// Least recently used first, so the oldest entry is dropped when full.
+	private static final Map<String, Address> cache = new LinkedHashMap<String, Address>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Address> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	private AddressCache() {
+	}
+
+	public static Address get(String address) throws AddressFormatException {
+		synchronized (cache) {
+			Address cached = cache.get(address);
+			if (cached != null)
+				return cached;
+		}
+
+		// Decode outside the lock, at worst two threads decode the same address once each.
+		Address decoded = new Address(Constants.NETWORK_PARAMETERS, address);
+
+		synchronized (cache) {
+			cache.put(address, decoded);
+		}
+
+		return decoded;
+	}
+}
@@ -19,7 +19,7 @@ package piuk;
 
 import com.google.bitcoin.core.AddressFormatException;
 import com.google.bitcoin.core.Base58;
-import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Digests;
 
 import java.io.Serializable;
 
@@ -51,7 +51,8 @@ public class BitcoinAddress implements Serializable {
 			addressBytes[0] = (byte) version;
 
 			System.arraycopy(hash160.getBytes(), 0, addressBytes, 1, length);
-			byte[] check = Utils.doubleDigest(addressBytes, 0, length + 1);
+			byte[] check = new byte[Digests.SHA256_LENGTH];
+			Digests.doubleSha256(addressBytes, 0, length + 1, check, 0);
 			System.arraycopy(check, 0, addressBytes, length + 1, 4);
 			
 			_toStringCache = Base58.encode(addressBytes);
@@ -62,7 +63,9 @@ public class BitcoinAddress implements Serializable {
 
 	//from pubKey
 	public BitcoinAddress(byte[] pubKey) {		
-		this.hash160  = new Hash(Utils.sha256hash160(pubKey));
+		byte[] hash = new byte[Digests.RIPEMD160_LENGTH];
+		Digests.sha256hash160(pubKey, 0, pubKey.length, hash, 0);
+		this.hash160  = new Hash(hash);
 		this.version = 0;
 	}
 
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package piuk;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads JSON one token at a time, in the style of android.util.JsonReader which isn't available before API 11. Nothing
+ * is built up along the way: numbers are read straight into primitives, hex strings straight into bytes, and object
+ * names that come up again and again are handed out from a small cache. So walking a large response costs little more
+ * than the objects the caller makes out of it.
+ */
+public class JSONPullParser {
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int DANGLING_NAME = 3;
+	private static final int NONEMPTY_OBJECT = 4;
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int pos;
+	private int limit;
+	private long consumed;
+
+	private int[] stack = new int[32];
+	private int depth = 1;
+
+	//The next token, or null if it hasn't been looked at yet. The value it starts is still unread
+	private Token peeked;
+	private boolean peekedBoolean;
+
+	//Holds strings and numbers while they are read
+	private char[] scratch = new char[64];
+	private int scratchLength;
+
+	private final String[] names = new String[256];
+
+	public JSONPullParser(Reader reader) {
+		this.reader = reader;
+		this.stack[0] = EMPTY_DOCUMENT;
+	}
+
+	public Token peek() throws IOException {
+		if (peeked != null)
+			return peeked;
+
+		int c;
+		switch (stack[depth - 1]) {
+		case EMPTY_DOCUMENT:
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			if (peekNonWhitespace() != -1)
+				throw syntaxError("Expected the end of the document");
+			return peeked = Token.END_DOCUMENT;
+		case EMPTY_ARRAY:
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			if (peekNonWhitespace() == ']') {
+				++pos;
+				return peeked = Token.END_ARRAY;
+			}
+			break;
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']')
+				return peeked = Token.END_ARRAY;
+			if (c != ',')
+				throw syntaxError("Expected , or ]");
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			c = nextNonWhitespace();
+			if (c == '}')
+				return peeked = Token.END_OBJECT;
+			if (stack[depth - 1] == NONEMPTY_OBJECT) {
+				if (c != ',')
+					throw syntaxError("Expected , or }");
+				c = nextNonWhitespace();
+			}
+			if (c != '"')
+				throw syntaxError("Expected a name");
+			stack[depth - 1] = DANGLING_NAME;
+			return peeked = Token.NAME;
+		case DANGLING_NAME:
+			if (peekNonWhitespace() != ':')
+				throw syntaxError("Expected :");
+			++pos;
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			break;
+		}
+
+		c = peekNonWhitespace();
+		switch (c) {
+		case '{':
+			++pos;
+			return peeked = Token.BEGIN_OBJECT;
+		case '[':
+			++pos;
+			return peeked = Token.BEGIN_ARRAY;
+		case '"':
+			++pos;
+			return peeked = Token.STRING;
+		case 't':
+			readLiteral("true");
+			peekedBoolean = true;
+			return peeked = Token.BOOLEAN;
+		case 'f':
+			readLiteral("false");
+			peekedBoolean = false;
+			return peeked = Token.BOOLEAN;
+		case 'n':
+			readLiteral("null");
+			return peeked = Token.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return peeked = Token.NUMBER;
+			throw syntaxError("Expected a value");
+		}
+	}
+
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		--depth;
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		--depth;
+	}
+
+	//Names are cached, so the same name read twice is the same String
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		readQuoted();
+
+		int hash = 0;
+		for (int ii = 0; ii < scratchLength; ++ii)
+			hash = 31 * hash + scratch[ii];
+
+		int slot = hash & (names.length - 1);
+		String name = names[slot];
+		if (name == null || !scratchEquals(name)) {
+			name = new String(scratch, 0, scratchLength);
+			names[slot] = name;
+		}
+
+		return name;
+	}
+
+	//Returns null for a JSON null
+	public String nextString() throws IOException {
+		if (peek() == Token.NULL) {
+			peeked = null;
+			return null;
+		}
+
+		expect(Token.STRING);
+		readQuoted();
+
+		return new String(scratch, 0, scratchLength);
+	}
+
+	//Decodes a string of hex digits
+	public byte[] nextHex() throws IOException {
+		expect(Token.STRING);
+		readQuoted();
+
+		if (scratchLength % 2 != 0)
+			throw syntaxError("Odd number of hex digits");
+
+		byte[] bytes = new byte[scratchLength / 2];
+		for (int ii = 0; ii < bytes.length; ++ii)
+			bytes[ii] = (byte) ((hexDigit(scratch[ii * 2]) << 4) | hexDigit(scratch[ii * 2 + 1]));
+
+		return bytes;
+	}
+
+	//Numbers with a fraction or exponent are truncated
+	public long nextLong() throws IOException {
+		expect(Token.NUMBER);
+		readNumber();
+
+		boolean negative = scratch[0] == '-';
+		long value = 0;
+		for (int ii = negative ? 1 : 0; ii < scratchLength; ++ii) {
+			char c = scratch[ii];
+			if (c < '0' || c > '9')
+				return (long) Double.parseDouble(new String(scratch, 0, scratchLength));
+			value = value * 10 + (c - '0');
+		}
+
+		//Too many digits to add up without overflowing
+		if (scratchLength > 18)
+			return Long.parseLong(new String(scratch, 0, scratchLength));
+
+		return negative ? -value : value;
+	}
+
+	public int nextInt() throws IOException {
+		return (int) nextLong();
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		return peekedBoolean;
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+	}
+
+	//Reads any value into the types json-simple uses: objects into maps, which keep their order, arrays into lists,
+	//whole numbers into Longs and other numbers into Doubles. For the parts of a document the caller doesn't know
+	public Object nextValue() throws IOException {
+		switch (peek()) {
+		case BEGIN_OBJECT:
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			beginObject();
+			while (hasNext()) {
+				String name = nextName();
+				map.put(name, nextValue());
+			}
+			endObject();
+			return map;
+		case BEGIN_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			beginArray();
+			while (hasNext())
+				list.add(nextValue());
+			endArray();
+			return list;
+		case STRING:
+			return nextString();
+		case NUMBER:
+			expect(Token.NUMBER);
+			readNumber();
+			String number = new String(scratch, 0, scratchLength);
+			if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0)
+				return Double.valueOf(number);
+			return Long.valueOf(number);
+		case BOOLEAN:
+			return nextBoolean();
+		case NULL:
+			nextNull();
+			return null;
+		default:
+			throw syntaxError("Expected a value but was " + peeked);
+		}
+	}
+
+	//Skips the next value, along with everything inside it
+	public void skipValue() throws IOException {
+		int count = 0;
+		do {
+			switch (peek()) {
+			case BEGIN_OBJECT:
+				beginObject();
+				++count;
+				break;
+			case BEGIN_ARRAY:
+				beginArray();
+				++count;
+				break;
+			case END_OBJECT:
+				endObject();
+				--count;
+				break;
+			case END_ARRAY:
+				endArray();
+				--count;
+				break;
+			case NAME:
+			case STRING:
+				peeked = null;
+				skipQuoted();
+				break;
+			case NUMBER:
+				peeked = null;
+				readNumber();
+				break;
+			case BOOLEAN:
+			case NULL:
+				peeked = null;
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("Unexpected end of document");
+			}
+		} while (count != 0);
+	}
+
+	private void expect(Token token) throws IOException {
+		if (peek() != token)
+			throw syntaxError("Expected " + token + " but was " + peeked);
+
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (depth == stack.length) {
+			int[] bigger = new int[depth * 2];
+			System.arraycopy(stack, 0, bigger, 0, depth);
+			stack = bigger;
+		}
+
+		stack[depth++] = scope;
+	}
+
+	//Returns the next character that isn't whitespace without reading it, or -1 at the end of the input
+	private int peekNonWhitespace() throws IOException {
+		while (pos < limit || fill()) {
+			char c = buffer[pos];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+				return c;
+			++pos;
+		}
+
+		return -1;
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		if (peekNonWhitespace() == -1)
+			throw syntaxError("Unexpected end of input");
+
+		return buffer[pos++];
+	}
+
+	private boolean fill() throws IOException {
+		consumed += limit;
+		pos = 0;
+		limit = reader.read(buffer, 0, buffer.length);
+
+		if (limit > 0)
+			return true;
+
+		limit = 0;
+		return false;
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill())
+			throw syntaxError("Unexpected end of input");
+
+		return buffer[pos++];
+	}
+
+	private void readLiteral(String literal) throws IOException {
+		for (int ii = 0; ii < literal.length(); ++ii) {
+			if (read() != literal.charAt(ii))
+				throw syntaxError("Expected " + literal);
+		}
+	}
+
+	//Reads the rest of a string whose opening quote has been read into the scratch buffer
+	private void readQuoted() throws IOException {
+		scratchLength = 0;
+
+		while (true) {
+			//Copy runs of plain characters straight out of the buffer
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos];
+				if (c == '"' || c == '\\')
+					break;
+				++pos;
+			}
+			append(buffer, start, pos - start);
+
+			if (pos == limit) {
+				if (!fill())
+					throw syntaxError("Unexpected end of input");
+				continue;
+			}
+
+			int c = buffer[pos++];
+			if (c == '"')
+				return;
+			if (c == '\\')
+				appendEscape();
+		}
+	}
+
+	private void skipQuoted() throws IOException {
+		while (true) {
+			int c = read();
+			if (c == '"')
+				return;
+			if (c == '\\')
+				read();
+		}
+	}
+
+	private void appendEscape() throws IOException {
+		int c = read();
+		switch (c) {
+		case 'b': c = '\b'; break;
+		case 'f': c = '\f'; break;
+		case 'n': c = '\n'; break;
+		case 'r': c = '\r'; break;
+		case 't': c = '\t'; break;
+		case 'u':
+			c = 0;
+			for (int ii = 0; ii < 4; ++ii)
+				c = (c << 4) | hexDigit(read());
+			break;
+		}
+
+		ensureScratch(1);
+		scratch[scratchLength++] = (char) c;
+	}
+
+	private void readNumber() throws IOException {
+		scratchLength = 0;
+
+		while (pos < limit || fill()) {
+			char c = buffer[pos];
+			if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E')
+				break;
+			ensureScratch(1);
+			scratch[scratchLength++] = c;
+			++pos;
+		}
+
+		if (scratchLength == 0 || (scratchLength == 1 && scratch[0] == '-'))
+			throw syntaxError("Expected a number");
+	}
+
+	private void append(char[] chars, int offset, int length) {
+		ensureScratch(length);
+		System.arraycopy(chars, offset, scratch, scratchLength, length);
+		scratchLength += length;
+	}
+
+	private void ensureScratch(int extra) {
+		if (scratchLength + extra > scratch.length) {
+			char[] bigger = new char[Math.max(scratch.length * 2, scratchLength + extra)];
+			System.arraycopy(scratch, 0, bigger, 0, scratchLength);
+			scratch = bigger;
+		}
+	}
+
+	private boolean scratchEquals(String string) {
+		if (string.length() != scratchLength)
+			return false;
+
+		for (int ii = 0; ii < scratchLength; ++ii) {
+			if (string.charAt(ii) != scratch[ii])
+				return false;
+		}
+
+		return true;
+	}
+
+	private int hexDigit(int c) throws IOException {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+
+		throw syntaxError("Expected a hex digit");
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at character " + (consumed + pos));
+	}
+}
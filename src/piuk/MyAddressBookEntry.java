@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package piuk;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONStreamAware;
+
+/**
+ * A labelled address that isn't one of the wallet's own keys, as stored under "address_book" in the wallet payload.
+ */
+public class MyAddressBookEntry implements JSONAware, JSONStreamAware {
+	private final String addr;
+	private String label;
+
+	//Any other fields the entry was saved with, null if there were none
+	private final Map<String, Object> other;
+
+	public MyAddressBookEntry(String addr, String label) {
+		this(addr, label, null);
+	}
+
+	private MyAddressBookEntry(String addr, String label, Map<String, Object> other) {
+		this.addr = addr;
+		this.label = label;
+		this.other = other;
+	}
+
+	//Reads an entry object from the payload, keeping any fields it doesn't know about
+	public static MyAddressBookEntry fromJSON(JSONPullParser parser) throws IOException {
+		String addr = null;
+		String label = null;
+		Map<String, Object> other = null;
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+
+			if (name.equals("addr")) {
+				addr = parser.nextString();
+			} else if (name.equals("label")) {
+				label = parser.nextString();
+			} else {
+				if (other == null)
+					other = new LinkedHashMap<String, Object>();
+
+				other.put(name, parser.nextValue());
+			}
+		}
+		parser.endObject();
+
+		return new MyAddressBookEntry(addr, label, other);
+	}
+
+	public String getAddress() {
+		return addr;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public void setLabel(String label) {
+		this.label = label;
+	}
+
+	public void writeJSONString(Writer out) throws IOException {
+		out.write('{');
+
+		boolean first = MyWalletKey.writeField(out, true, "addr", addr);
+		first = MyWalletKey.writeField(out, first, "label", label);
+
+		if (other != null) {
+			for (Map.Entry<String, Object> entry : other.entrySet())
+				first = MyWalletKey.writeField(out, first, entry.getKey(), entry.getValue());
+		}
+
+		out.write('}');
+	}
+
+	public String toJSONString() {
+		StringWriter out = new StringWriter();
+
+		try {
+			writeJSONString(out);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return out.toString();
+	}
+}
@@ -148,8 +148,8 @@ public class MyBlockChain extends BlockChain implements WebSocketEventHandler {
 		try {
 			String message = "{\"op\":\"blocks_sub\"}{\"op\":\"wallet_sub\",\"guid\":\""+remoteWallet.getGUID()+"\"}";
 
-			for (Map<String, Object> key : this.remoteWallet.getKeysMap()) {				
-				message += "{\"op\":\"addr_sub\", \"addr\":\""+key.get("addr")+"\"}";
+			for (MyWalletKey key : this.remoteWallet.getKeys()) {				
+				message += "{\"op\":\"addr_sub\", \"addr\":\""+key.getAddress()+"\"}";
 			}
 
 			_websocket.send(message);
@@ -257,18 +257,13 @@ public class MyBlockChain extends BlockChain implements WebSocketEventHandler {
 
 				this.latestBlock = new StoredBlock(block, BigInteger.ZERO, blockHeight);
 
-				List<MyTransaction> transactions = remoteWallet.getMyTransactions();
 				List<Number> txIndexes = (List<Number>) x.get("txIndexes");
 				for (Number txIndex : txIndexes) {
-					for (MyTransaction tx : transactions) {
+					MyTransaction tx = remoteWallet.getBitcoinJWallet().getTransactionByTxIndex(txIndex.intValue());
 
-						MyTransactionConfidence confidence = (MyTransactionConfidence) tx.getConfidence();
-
-						if (tx.txIndex == txIndex.intValue() && confidence.height != blockHeight) {
-							confidence.height = blockHeight;
-							confidence.runListeners(); 
-						}
-					}
+					//Runs the confidence listeners if the height changed
+					if (tx != null)
+						tx.setHeight(blockHeight);
 				}
 
 				for (PeerEventListener listener : listeners) {
@@ -18,6 +18,7 @@ public class MyECKey extends ECKey {
 	private String label;
 	private MyWallet wallet;
 	private ECKey _key;
+	private transient Address _address;
 	
 	public int getTag() {
 		return tag;
@@ -36,11 +37,17 @@ public class MyECKey extends ECKey {
 	}
 
 	public MyECKey(String addr, String base58, MyWallet wallet) {
+		this(addr, base58, wallet, null);
+	}
+
+	//key is the already decoded private key, or null to decode it the first time it is needed
+	public MyECKey(String addr, String base58, MyWallet wallet, ECKey key) {
 		super((BigInteger)null, null);
 
 		this.base58 = base58;
 		this.addr = addr;
 		this.wallet = wallet;
+		this._key = key;
 	}
 
 	private ECKey getInternalKey() {
@@ -92,12 +99,14 @@ public class MyECKey extends ECKey {
 
 	@Override
 	public Address toAddress(NetworkParameters params) {
-		try {
-			return new Address(params, addr);
-		} catch (AddressFormatException e) {
-			e.printStackTrace();
+		if (_address == null) {
+			try {
+				_address = AddressCache.get(addr);
+			} catch (AddressFormatException e) {
+				e.printStackTrace();
+			}
 		}
 
-		return null;
+		return _address;
 	}
 }
\ No newline at end of file
@@ -25,17 +25,22 @@ import com.google.bitcoin.core.Transaction.SigHash;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
-import org.json.simple.JSONValue;
+import org.apache.commons.io.input.TeeInputStream;
+import piuk.JSONPullParser.Token;
 import piuk.MyBlockChain.MyBlock;
 import piuk.blockchain.android.Constants;
 
 import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 @SuppressWarnings("unchecked")
@@ -46,16 +51,10 @@ public class MyRemoteWallet extends MyWallet {
 	boolean _isNew = false;
 	StoredBlock _multiAddrBlock;
 	long lastMultiAddress;
+	private RemoteSaveScheduler saveScheduler;
 
 	public boolean isAddressMine(String address) {		
-		for (Map<String, Object> map : this.getKeysMap()) {
-			String addr = (String) map.get("addr");
-
-			if (address.equals(addr))
-				return true;
-		}
-
-		return false;
+		return isMine(address);
 	}
 
 	public static class RemoteBitcoinJWallet extends Wallet {
@@ -65,22 +64,96 @@ public class MyRemoteWallet extends MyWallet {
 			super(params);
 		}
 
-		public BigInteger final_balance = BigInteger.ZERO;
+		//Read by the UI without taking the wallet lock
+		public volatile BigInteger final_balance = BigInteger.ZERO;
 		public BigInteger total_received = BigInteger.ZERO;
 		public BigInteger total_sent = BigInteger.ZERO;
 		public int n_tx = 0;
 
+		//blockchain.info tx_index -> transaction, kept in step with the wallet pools
+		private final Map<Integer, MyTransaction> transactionsByTxIndex = new HashMap<Integer, MyTransaction>();
+
+		public synchronized MyTransaction getTransactionByTxIndex(int txIndex) {
+			return transactionsByTxIndex.get(txIndex);
+		}
+
+		@Override
+		public synchronized void addWalletTransaction(WalletTransaction wtx) {
+			super.addWalletTransaction(wtx);
+
+			if (wtx.getTransaction() instanceof MyTransaction) {
+				MyTransaction tx = (MyTransaction) wtx.getTransaction();
+
+				transactionsByTxIndex.put(tx.getTxIndex(), tx);
+			}
+		}
+
+		//Removes the transactions whose tx_index isn't one of the given ones and returns them
+		public synchronized List<MyTransaction> retainTxIndexes(Set<Integer> txIndexes) {
+			List<MyTransaction> removed = new ArrayList<MyTransaction>();
+
+			//Every given tx_index is known, so the same number means the same transactions
+			if (transactionsByTxIndex.size() == txIndexes.size())
+				return removed;
+
+			Iterator<MyTransaction> it = transactionsByTxIndex.values().iterator();
+			while (it.hasNext()) {
+				MyTransaction tx = it.next();
+
+				if (!txIndexes.contains(tx.getTxIndex())) {
+					it.remove();
+
+					removeWalletTransaction(tx.getHash());
+
+					removed.add(tx);
+				}
+			}
+
+			return removed;
+		}
+
+		@Override
+		public synchronized void clearTransactions(int fromHeight) {
+			super.clearTransactions(fromHeight);
+
+			transactionsByTxIndex.clear();
+		}
+
 		@Override
-		public synchronized BigInteger getBalance() {
+		public BigInteger getBalance() {
 			return final_balance;
 		}
 
 		@Override
-		public synchronized BigInteger getBalance(BalanceType balanceType) {
+		public BigInteger getBalance(BalanceType balanceType) {
 			return final_balance;
 		}
 	}
 
+	//What a refresh from multiaddr changed
+	public static class MultiAddrDiff {
+		public final List<MyTransaction> added = new ArrayList<MyTransaction>();
+		public final List<MyTransaction> removed = new ArrayList<MyTransaction>();
+
+		//Known transactions whose height, double spend flag or result changed in place
+		public final List<MyTransaction> changed = new ArrayList<MyTransaction>();
+	}
+
+	public interface MultiAddrListener {
+		//Only called when transactions were added or removed
+		public void onTransactionsChanged(MultiAddrDiff diff);
+	}
+
+	private final List<MultiAddrListener> multiAddrListeners = new CopyOnWriteArrayList<MultiAddrListener>();
+
+	public void addMultiAddrListener(MultiAddrListener listener) {
+		multiAddrListeners.add(listener);
+	}
+
+	public void removeMultiAddrListener(MultiAddrListener listener) {
+		multiAddrListeners.remove(listener);
+	}
+
 	public boolean isNew() {
 		return _isNew;
 	}
@@ -113,7 +186,20 @@ public class MyRemoteWallet extends MyWallet {
 		this._isNew = false;
 	}
 
-	private static String fetchURL(String URL) throws Exception {			
+	//Reads a response body while the connection is still open
+	private interface ResponseHandler<T> {
+		public T handle(InputStream in) throws Exception;
+	}
+
+	private static String fetchURL(String URL) throws Exception {
+		return fetchURL(URL, new ResponseHandler<String>() {
+			public String handle(InputStream in) throws Exception {
+				return IOUtils.toString(in, "UTF-8");
+			}
+		});
+	}
+
+	private static <T> T fetchURL(String URL, ResponseHandler<T> handler) throws Exception {			
 		URL url = new URL(URL);
 
 		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
@@ -130,7 +216,7 @@ public class MyRemoteWallet extends MyWallet {
 			connection.connect();
 
 			if (connection.getResponseCode() == 200)
-				return IOUtils.toString(connection.getInputStream(), "UTF-8");
+				return handler.handle(connection.getInputStream());
 			else if (connection.getResponseCode() == 500 && (connection.getContentType() == null || connection.getContentType().equals("text/plain")))
 				throw new Exception("Error From Server: " +  IOUtils.toString(connection.getErrorStream(), "UTF-8"));
 			else
@@ -206,68 +292,362 @@ public class MyRemoteWallet extends MyWallet {
 		return transactions;
 	}
 
-	public void parseMultiAddr(String response) throws Exception {
+	//What a multiaddr response changes, read in full before any of it is applied to the wallet
+	private static class MultiAddrResponse {
+		StoredBlock latestBlock;
+
+		//Left null when the response doesn't have them
+		BigInteger finalBalance;
+		BigInteger totalSent;
+		BigInteger totalReceived;
+		Integer nTx;
+
+		//New transactions by tx_index, in the order of the response
+		final Map<Integer, MyTransaction> added = new LinkedHashMap<Integer, MyTransaction>();
+		final List<TransactionUpdate> updates = new ArrayList<TransactionUpdate>();
+		final Set<Integer> txIndexes = new HashSet<Integer>();
+
+		MyTransaction newestTransaction;
+	}
+
+	//The new height, double spend flag and result of a transaction the wallet already has
+	private static class TransactionUpdate {
+		final MyTransaction tx;
+		final int height;
+		final boolean double_spend;
+		final BigInteger result;
+
+		TransactionUpdate(MyTransaction tx, int height, boolean double_spend, BigInteger result) {
+			this.tx = tx;
+			this.height = height;
+			this.double_spend = double_spend;
+			this.result = result;
+		}
+	}
+
+	//Merges the response into the transactions already in the wallet by tx_index. Known transactions are updated in
+	//place rather than rebuilt, and listeners only hear about transactions that were added or removed. The response is
+	//read straight from the stream and copied to cache as it goes, if cache isn't null. Nothing in the wallet changes
+	//until the whole response has been read, so a response that breaks off part way leaves the wallet as it was
+	public MultiAddrDiff parseMultiAddr(InputStream in, OutputStream cache) throws Exception {
+
+		if (cache != null)
+			in = new TeeInputStream(in, cache);
+
+		JSONPullParser parser = new JSONPullParser(new InputStreamReader(in, "UTF-8"));
+
+		RemoteBitcoinJWallet _wallet = getBitcoinJWallet();
+
+		MultiAddrResponse response = new MultiAddrResponse();
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+
+			if (name.equals("info") && parser.peek() == Token.BEGIN_OBJECT) {
+				readInfo(parser, response);
+			} else if (name.equals("wallet") && parser.peek() == Token.BEGIN_OBJECT) {
+				readWalletTotals(parser, response);
+			} else if (name.equals("txs") && parser.peek() == Token.BEGIN_ARRAY) {
+				parser.beginArray();
+				while (parser.hasNext()) {
+					MyTransaction tx = readTransaction(parser, _wallet, response);
 
-		_wallet.clearTransactions(0);
+					response.txIndexes.add(tx.getTxIndex());
+
+					if (response.newestTransaction == null)
+						response.newestTransaction = tx;
+				}
+				parser.endArray();
+			} else {
+				parser.skipValue();
+			}
+		}
+		parser.endObject();
+
+		//Read to the end so the cache gets all of it
+		if (parser.peek() != Token.END_DOCUMENT)
+			throw new Exception("Unexpected data after multiaddr response");
+
+		return applyMultiAddr(_wallet, response);
+	}
+
+	private MultiAddrDiff applyMultiAddr(RemoteBitcoinJWallet _wallet, MultiAddrResponse response) throws ScriptException {
+		MultiAddrDiff diff = new MultiAddrDiff();
 
 		BigInteger previousBalance = _wallet.final_balance;
 
-		Map<String, Object> top = (Map<String, Object>) JSONValue.parse(response);
+		if (response.latestBlock != null)
+			this._multiAddrBlock = response.latestBlock;
 
-		Map<String, Object> info_obj = (Map<String, Object>) top.get("info");
+		if (response.finalBalance != null)
+			_wallet.final_balance = response.finalBalance;
+		if (response.totalSent != null)
+			_wallet.total_sent = response.totalSent;
+		if (response.totalReceived != null)
+			_wallet.total_received = response.totalReceived;
+		if (response.nTx != null)
+			_wallet.n_tx = response.nTx;
 
-		Map<String, Object> block_obj = (Map<String, Object>) info_obj.get("latest_block");
+		for (MyTransaction tx : response.added.values()) {
+			_wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.SPENT, tx));
 
-		if (block_obj != null) {
-			Sha256Hash hash = new Sha256Hash(Hex.decode((String)block_obj.get("hash")));
-			int blockIndex = ((Number)block_obj.get("block_index")).intValue();
-			int blockHeight = ((Number)block_obj.get("height")).intValue();
-			long time = ((Number)block_obj.get("time")).longValue();
+			diff.added.add(tx);
+		}
 
-			MyBlock block = new MyBlock(Constants.NETWORK_PARAMETERS);
-			block.hash = hash;
-			block.blockIndex = blockIndex;
-			block.time = time;
+		for (TransactionUpdate update : response.updates) {
+			//Runs the confidence listeners if the height or double spend flag changed
+			if (update.tx.update(update.height, update.double_spend, update.result) && !diff.changed.contains(update.tx))
+				diff.changed.add(update.tx);
+		}
 
-			this._multiAddrBlock = new StoredBlock(block, BigInteger.ZERO, blockHeight);
+		diff.removed.addAll(_wallet.retainTxIndexes(response.txIndexes));
+
+		BigInteger newBalance = _wallet.final_balance;
+
+		MyTransaction newestTransaction = response.newestTransaction;
+
+		boolean notified = false;
+		if (newestTransaction != null && newBalance.compareTo(previousBalance) != 0) {
+			if (newestTransaction.getValue(_wallet).compareTo(BigInteger.ZERO) > 0)
+				_wallet.invokeOnCoinsReceived(newestTransaction, previousBalance, newBalance);
+			else
+				_wallet.invokeOnCoinsSent(newestTransaction, previousBalance, newBalance);
+
+			notified = true;
 		}
 
-		Map<String, Object> wallet_obj = (Map<String, Object>) top.get("wallet");
+		if (diff.added.size() > 0 || diff.removed.size() > 0) {
+			for (MultiAddrListener listener : multiAddrListeners) {
+				listener.onTransactionsChanged(diff);
+			}
 
-		RemoteBitcoinJWallet _wallet = getBitcoinJWallet();
+			//The coins received and sent events already run the onChange listeners
+			if (!notified)
+				_wallet.invokeOnChange();
+		}
 
-		_wallet.final_balance = BigInteger.valueOf(((Number)wallet_obj.get("final_balance")).longValue());
-		_wallet.total_sent = BigInteger.valueOf(((Number)wallet_obj.get("total_sent")).longValue());
-		_wallet.total_received = BigInteger.valueOf(((Number)wallet_obj.get("total_received")).longValue());
-		_wallet.n_tx = ((Number)wallet_obj.get("n_tx")).intValue();
-
-		List<Map<String, Object>> transactions = (List<Map<String, Object>>) top.get("txs");
-
-		WalletTransaction newestTransaction = null;
-		if (transactions != null) {
-			for (Map<String, Object> transactionDict : transactions) {
-				WalletTransaction tx = MyTransaction.fromJSONDict(transactionDict);
-				
-				if (tx == null)
-					continue;
-				
-				if (newestTransaction == null)
-					newestTransaction = tx;
-				
-				_wallet.addWalletTransaction(tx);
+		return diff;
+	}
+
+	private static void readInfo(JSONPullParser parser, MultiAddrResponse response) throws Exception {
+		parser.beginObject();
+		while (parser.hasNext()) {
+			if (parser.nextName().equals("latest_block") && parser.peek() == Token.BEGIN_OBJECT) {
+				MyBlock block = new MyBlock(Constants.NETWORK_PARAMETERS);
+				int blockHeight = 0;
+
+				parser.beginObject();
+				while (parser.hasNext()) {
+					String name = parser.nextName();
+
+					if (parser.peek() == Token.NULL)
+						parser.skipValue();
+					else if (name.equals("hash"))
+						block.hash = new Sha256Hash(parser.nextHex());
+					else if (name.equals("block_index"))
+						block.blockIndex = parser.nextInt();
+					else if (name.equals("height"))
+						blockHeight = parser.nextInt();
+					else if (name.equals("time"))
+						block.time = parser.nextLong();
+					else
+						parser.skipValue();
+				}
+				parser.endObject();
+
+				response.latestBlock = new StoredBlock(block, BigInteger.ZERO, blockHeight);
+			} else {
+				parser.skipValue();
 			}
 		}
+		parser.endObject();
+	}
+
+	private static void readWalletTotals(JSONPullParser parser, MultiAddrResponse response) throws Exception {
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+
+			if (parser.peek() == Token.NULL)
+				parser.skipValue();
+			else if (name.equals("final_balance"))
+				response.finalBalance = BigInteger.valueOf(parser.nextLong());
+			else if (name.equals("total_sent"))
+				response.totalSent = BigInteger.valueOf(parser.nextLong());
+			else if (name.equals("total_received"))
+				response.totalReceived = BigInteger.valueOf(parser.nextLong());
+			else if (name.equals("n_tx"))
+				response.nTx = parser.nextInt();
+			else
+				parser.skipValue();
+		}
+		parser.endObject();
+	}
 
-		BigInteger newBalance = _wallet.final_balance;
+	//Reads one transaction of a multiaddr response. For one the wallet already has only the new height, double spend
+	//flag and result are kept, and if its tx_index comes before its inputs and outputs they are skipped rather than
+	//read. The wallet itself is only looked at here, not changed
+	private static MyTransaction readTransaction(JSONPullParser parser, RemoteBitcoinJWallet wallet, MultiAddrResponse response) throws Exception {
+		byte[] hash = null;
+		Integer txIndex = null;
+		MyTransaction existing = null;
+		int height = 0;
+		boolean double_spend = false;
+		BigInteger result = null;
+		long time = 0;
+		List<MyTransactionInput> inputs = null;
+		List<MyTransactionOutput> outputs = null;
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+
+			if (parser.peek() == Token.NULL) {
+				parser.skipValue();
+			} else if (name.equals("hash")) {
+				hash = parser.nextHex();
+			} else if (name.equals("tx_index")) {
+				txIndex = parser.nextInt();
+
+				//A transaction listed twice is only added once
+				existing = wallet.getTransactionByTxIndex(txIndex);
+				if (existing == null)
+					existing = response.added.get(txIndex);
+			} else if (name.equals("block_height")) {
+				height = parser.nextInt();
+			} else if (name.equals("double_spend")) {
+				double_spend = parser.nextBoolean();
+			} else if (name.equals("result")) {
+				result = BigInteger.valueOf(parser.nextLong());
+			} else if (name.equals("time")) {
+				time = parser.nextLong();
+			} else if (name.equals("inputs") && existing == null) {
+				inputs = readInputs(parser);
+			} else if (name.equals("out") && existing == null) {
+				outputs = readOutputs(parser);
+			} else {
+				parser.skipValue();
+			}
+		}
+		parser.endObject();
+
+		if (txIndex == null || hash == null)
+			throw new Exception("Transaction without a hash or tx_index");
+
+		if (existing != null) {
+			response.updates.add(new TransactionUpdate(existing, height, double_spend, result));
+
+			return existing;
+		}
+
+		MyTransaction tx = new MyTransaction(Constants.NETWORK_PARAMETERS, 1, new Sha256Hash(hash));
+
+		tx.confidence.update(height, double_spend);
+
+		tx.txIndex = txIndex;
 
-		if (_wallet.getTransactionsByTime() != null && _wallet.getTransactionsByTime().size() > 0) {
-			if (newBalance.compareTo(previousBalance) != 0) {
-				if (newestTransaction.getTransaction().getValue(getBitcoinJWallet()).compareTo(BigInteger.ZERO) > 0)
-					_wallet.invokeOnCoinsReceived(newestTransaction.getTransaction(), previousBalance, newBalance);
+		tx.result = result == null ? BigInteger.ZERO : result;
+
+		tx.time = new Date(time * 1000);
+
+		if (inputs != null) {
+			for (MyTransactionInput input : inputs)
+				tx.addInput(input);
+		}
+
+		if (outputs != null) {
+			for (MyTransactionOutput output : outputs)
+				tx.addOutput(output);
+		}
+
+		response.added.put(txIndex, tx);
+
+		return tx;
+	}
+
+	private static List<MyTransactionInput> readInputs(JSONPullParser parser) throws Exception {
+		List<MyTransactionInput> inputs = new ArrayList<MyTransactionInput>();
+
+		parser.beginArray();
+		while (parser.hasNext()) {
+			parser.beginObject();
+			while (parser.hasNext()) {
+				//Inputs without a previous output, coinbases, are left out
+				if (parser.nextName().equals("prev_out") && parser.peek() == Token.BEGIN_OBJECT)
+					inputs.add(readPrevOut(parser));
 				else
-					_wallet.invokeOnCoinsSent(newestTransaction.getTransaction(), previousBalance, newBalance);
+					parser.skipValue();
 			}
+			parser.endObject();
 		}
+		parser.endArray();
+
+		return inputs;
+	}
+
+	private static MyTransactionInput readPrevOut(JSONPullParser parser) throws Exception {
+		int txOutputN = 0;
+		String addr = null;
+		BigInteger value = null;
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+
+			if (parser.peek() == Token.NULL)
+				parser.skipValue();
+			else if (name.equals("n"))
+				txOutputN = parser.nextInt();
+			else if (name.equals("addr"))
+				addr = parser.nextString();
+			else if (name.equals("value"))
+				value = BigInteger.valueOf(parser.nextLong());
+			else
+				parser.skipValue();
+		}
+		parser.endObject();
+
+		TransactionOutPoint outpoint = new TransactionOutPoint(Constants.NETWORK_PARAMETERS, txOutputN, (Transaction)null);
+
+		MyTransactionInput input = new MyTransactionInput(Constants.NETWORK_PARAMETERS, null, null, outpoint);
+
+		if (addr != null)
+			input.address = AddressCache.get(addr).toString();
+
+		input.value = value;
+
+		return input;
+	}
+
+	private static List<MyTransactionOutput> readOutputs(JSONPullParser parser) throws Exception {
+		List<MyTransactionOutput> outputs = new ArrayList<MyTransactionOutput>();
+
+		parser.beginArray();
+		while (parser.hasNext()) {
+			String addr = null;
+			BigInteger value = null;
+
+			parser.beginObject();
+			while (parser.hasNext()) {
+				String name = parser.nextName();
+
+				if (parser.peek() == Token.NULL)
+					parser.skipValue();
+				else if (name.equals("addr"))
+					addr = parser.nextString();
+				else if (name.equals("value"))
+					value = BigInteger.valueOf(parser.nextLong());
+				else
+					parser.skipValue();
+			}
+			parser.endObject();
+
+			outputs.add(new MyTransactionOutput(Constants.NETWORK_PARAMETERS, null, value, AddressCache.get(addr)));
+		}
+		parser.endArray();
+
+		return outputs;
 	}
 
 	public boolean isUptoDate(long time) {
@@ -280,22 +660,51 @@ public class MyRemoteWallet extends MyWallet {
 		}
 	}
 
-	public synchronized String doMultiAddr() throws Exception {
+	//Downloads and merges the transactions, copying the response to cache as it's read if that isn't null
+	public synchronized MultiAddrDiff doMultiAddr(final OutputStream cache) throws Exception {
 		String url =  WebROOT + "multiaddr?active=" + StringUtils.join(getActiveAddresses(), "|")+ "&archived=" + StringUtils.join(getArchivedAddresses(), "|");
 		
-		String response = fetchURL(url);
-
-		parseMultiAddr(response);
+		MultiAddrDiff diff = fetchURL(url, new ResponseHandler<MultiAddrDiff>() {
+			public MultiAddrDiff handle(InputStream in) throws Exception {
+				return parseMultiAddr(in, cache);
+			}
+		});
 
 		lastMultiAddress = System.currentTimeMillis();
 
-		return response;
+		return diff;
 	}
 
 	public synchronized boolean remoteSave() throws Exception {
 		return remoteSave(null);
 	}
 
+	public synchronized RemoteSaveScheduler getSaveScheduler() {
+		if (saveScheduler == null)
+			saveScheduler = new RemoteSaveScheduler(this);
+
+		return saveScheduler;
+	}
+
+	//Save along with any other changes made around the same time, callback can be null
+	public void remoteSaveSoon(RemoteSaveScheduler.Callback callback) {
+		getSaveScheduler().requestSave(callback);
+	}
+
+	//Save straight away, along with anything still waiting to be saved, callback can be null
+	public void remoteSaveNow(RemoteSaveScheduler.Callback callback) {
+		RemoteSaveScheduler scheduler = getSaveScheduler();
+
+		scheduler.requestSave(callback);
+		scheduler.flush();
+	}
+
+	//Start saving anything still waiting to be saved
+	public synchronized void flushRemoteSaves() {
+		if (saveScheduler != null)
+			saveScheduler.flush();
+	}
+
 	public interface SendProgress {
 		//Return false to cancel
 		public boolean onReady(Transaction tx, BigInteger fee, long priority);
@@ -329,9 +738,9 @@ public class MyRemoteWallet extends MyWallet {
 
 						String addr = script.getAddress().toString();
 
-						Map<String, Object> keyMap = findKey(addr);
+						MyWalletKey walletKey = findKey(addr);
 
-						if (keyMap.get("priv") == null) {
+						if (!walletKey.hasPriv()) {
 							if (alreadyAskedFor.add(addr)) {
 								ECKey key = progress.onPrivateKeyMissing(addr);
 
@@ -487,42 +896,72 @@ public class MyRemoteWallet extends MyWallet {
 
 		StringBuffer buffer =  new StringBuffer(WebROOT + "unspent?");
 
-		for (Map<String, Object> map : this.getKeysMap()) {
-			String addr = (String) map.get("addr");
-
-			//Only include active addresses
-			if (map.get("tag") == null || (Long)map.get("tag") == 0)
-				buffer.append("&addr[]="+addr);
+		//Only include active addresses
+		for (String addr : getActiveAddresses()) {
+			buffer.append("&addr[]="+addr);
 		}
 
-		List<MyTransactionOutPoint> outputs = new ArrayList<MyTransactionOutPoint>();
-
-		String response = fetchURL(buffer.toString());
-
-		Map<String, Object> root = (Map<String, Object>) JSONValue.parse(response);
-
-		List<Map<String, Object>> outputsRoot = (List<Map<String, Object>>) root.get("unspent_outputs");
+		return fetchURL(buffer.toString(), new ResponseHandler<List<MyTransactionOutPoint>>() {
+			public List<MyTransactionOutPoint> handle(InputStream in) throws Exception {
+				return readUnspentOutputs(new JSONPullParser(new InputStreamReader(in, "UTF-8")));
+			}
+		});
+	}
 
-		for (Map<String, Object> outDict : outputsRoot) {
+	private static List<MyTransactionOutPoint> readUnspentOutputs(JSONPullParser parser) throws Exception {
+		List<MyTransactionOutPoint> outputs = new ArrayList<MyTransactionOutPoint>();
 
-			byte[] hashBytes = Hex.decode((String)outDict.get("tx_hash"));
+		parser.beginObject();
+		while (parser.hasNext()) {
+			if (!parser.nextName().equals("unspent_outputs") || parser.peek() != Token.BEGIN_ARRAY) {
+				parser.skipValue();
+				continue;
+			}
 
-			ArrayUtils.reverse(hashBytes);
+			parser.beginArray();
+			while (parser.hasNext()) {
+				byte[] hashBytes = null;
+				int txOutputN = 0;
+				BigInteger value = null;
+				byte[] scriptBytes = null;
+				int confirmations = 0;
+
+				parser.beginObject();
+				while (parser.hasNext()) {
+					String name = parser.nextName();
+
+					if (parser.peek() == Token.NULL)
+						parser.skipValue();
+					else if (name.equals("tx_hash"))
+						hashBytes = parser.nextHex();
+					else if (name.equals("tx_output_n"))
+						txOutputN = parser.nextInt();
+					else if (name.equals("value"))
+						value = BigInteger.valueOf(parser.nextLong());
+					else if (name.equals("script"))
+						scriptBytes = parser.nextHex();
+					else if (name.equals("confirmations"))
+						confirmations = parser.nextInt();
+					else
+						parser.skipValue();
+				}
+				parser.endObject();
 
-			Sha256Hash txHash = new Sha256Hash(hashBytes);
+				if (hashBytes == null || value == null || scriptBytes == null)
+					throw new Exception("Incomplete unspent output");
 
-			int txOutputN = ((Number)outDict.get("tx_output_n")).intValue();
-			BigInteger value = BigInteger.valueOf(((Number)outDict.get("value")).longValue());
-			byte[] scriptBytes = Hex.decode((String)outDict.get("script"));
-			int confirmations = ((Number)outDict.get("confirmations")).intValue();
+				ArrayUtils.reverse(hashBytes);
 
-			//Contrstuct the output
-			MyTransactionOutPoint outPoint = new MyTransactionOutPoint(txHash, txOutputN, value, scriptBytes);
+				//Contrstuct the output
+				MyTransactionOutPoint outPoint = new MyTransactionOutPoint(new Sha256Hash(hashBytes), txOutputN, value, scriptBytes);
 
-			outPoint.setConfirmations(confirmations);
+				outPoint.setConfirmations(confirmations);
 
-			outputs.add(outPoint);
+				outputs.add(outPoint);
+			}
+			parser.endArray();
 		}
+		parser.endObject();
 
 		return outputs;
 	}
@@ -565,7 +1004,7 @@ public class MyRemoteWallet extends MyWallet {
 
 		MyRemoteWallet tempWallet = new MyRemoteWallet(payload, temporyPassword);
 
-		this.root = tempWallet.root;
+		load(tempWallet);
 
 		this.temporySecondPassword = null;
 
@@ -43,17 +43,26 @@ public class MyTransaction extends Transaction implements Serializable {
 	Sha256Hash hash;
 	Date time;
 
-	int height;
-	boolean double_spend;
+	//Holds the block height and double spend flag, one instance for the life of the transaction
+	final MyTransactionConfidence confidence;
 	
 	int txIndex;
 	public BigInteger result;
 
     @Override
-    public synchronized TransactionConfidence getConfidence() {
-    	return new MyTransactionConfidence(this, height, double_spend);
+    public TransactionConfidence getConfidence() {
+    	return confidence;
     }
 
+	public int getHeight() {
+		return confidence.getHeight();
+	}
+
+	//Returns true if the height changed
+	public boolean setHeight(int height) {
+		return confidence.update(height, confidence.isDoubleSpend());
+	}
+
     @Override
 	public int hashCode() {
 		final int prime = 31;
@@ -85,11 +94,16 @@ public class MyTransaction extends Transaction implements Serializable {
 		super(params, version, hash);
 		
 		this.hash = hash;
+		this.confidence = new MyTransactionConfidence(this, 0, false);
 	}
 	
 	public void setTxIndex(int txIndex) {
 		this.txIndex = txIndex;
 	}
+
+	public int getTxIndex() {
+		return txIndex;
+	}
 	
 	@Override
     public Date getUpdateTime() {
@@ -106,6 +120,33 @@ public class MyTransaction extends Transaction implements Serializable {
 		return hash;
 	}
 	
+	private static int heightOf(Map<String, Object> transactionDict) {
+		if (transactionDict.get("block_height") != null)
+			return ((Number)transactionDict.get("block_height")).intValue();
+
+		return 0;
+	}
+
+	private static boolean isDoubleSpend(Map<String, Object> transactionDict) {
+		if (transactionDict.get("double_spend") != null)
+			return ((Boolean)transactionDict.get("double_spend")).booleanValue();
+
+		return false;
+	}
+
+	//Brings the transaction up to date with the fields that can change once it has been seen. A null result is left
+	//as it is. Returns true if anything changed
+	public boolean update(int height, boolean double_spend, BigInteger result) {
+		boolean changed = confidence.update(height, double_spend);
+
+		if (result != null && !result.equals(this.result)) {
+			this.result = result;
+			changed = true;
+		}
+
+		return changed;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static WalletTransaction fromJSONDict(Map<String, Object> transactionDict) throws Exception {
 		
@@ -115,23 +156,14 @@ public class MyTransaction extends Transaction implements Serializable {
 		if (transactionDict.get("result") != null)
 			result = BigInteger.valueOf(((Number)transactionDict.get("result")).longValue());
 		
-		int height = 0;
-		boolean double_spend = false;
-		
-		if (transactionDict.get("block_height") != null) {
-			height = ((Number)transactionDict.get("block_height")).intValue();
-		}
-		if (transactionDict.get("double_spend") != null) {
-			double_spend = ((Boolean)transactionDict.get("double_spend")).booleanValue();
-		}
+		int height = heightOf(transactionDict);
+		boolean double_spend = isDoubleSpend(transactionDict);
 		
 		int txIndex = ((Number)transactionDict.get("tx_index")).intValue();
 
 		MyTransaction tx = new MyTransaction(Constants.NETWORK_PARAMETERS, 1, hash);
 		
-		tx.height = height;
-		
-		tx.double_spend = double_spend;
+		tx.confidence.update(height, double_spend);
 		
 		tx.txIndex = txIndex;
 		
@@ -160,7 +192,7 @@ public class MyTransaction extends Transaction implements Serializable {
 			MyTransactionInput input = new MyTransactionInput(Constants.NETWORK_PARAMETERS, null, null, outpoint);
 			
 			if ((String)prev_out_dict.get("addr") != null)
-				input.address = new Address(Constants.NETWORK_PARAMETERS, (String)prev_out_dict.get("addr")).toString();
+				input.address = AddressCache.get((String)prev_out_dict.get("addr")).toString();
 			
 			if ((Number)prev_out_dict.get("value") != null)
 				input.value = BigInteger.valueOf(((Number)prev_out_dict.get("value")).longValue());
@@ -174,7 +206,7 @@ public class MyTransaction extends Transaction implements Serializable {
 
 			BigInteger value = BigInteger.valueOf(((Number)outDict.get("value")).longValue());
 			
-			Address addr = new Address(Constants.NETWORK_PARAMETERS, (String)outDict.get("addr"));
+			Address addr = AddressCache.get((String)outDict.get("addr"));
 			
 			MyTransactionOutput output = new MyTransactionOutput(Constants.NETWORK_PARAMETERS, null, value, addr);
 
@@ -16,14 +16,38 @@ public class MyTransactionConfidence extends TransactionConfidence {
 		this.double_spend = double_spend;
 	}
 	
+	public synchronized int getHeight() {
+		return height;
+	}
+
+	public synchronized boolean isDoubleSpend() {
+		return double_spend;
+	}
+
+	//Mutate in place so listeners attached to this object see the change
+	//Returns true and runs the listeners if anything changed
+	public boolean update(int height, boolean double_spend) {
+		synchronized (this) {
+			if (this.height == height && this.double_spend == double_spend)
+				return false;
+
+			this.height = height;
+			this.double_spend = double_spend;
+		}
+
+		runListeners();
+
+		return true;
+	}
+
     @Override
 	public synchronized int getAppearedAtChainHeight() {
     	return height;
     }
 
     @Override
-	public synchronized void setAppearedAtChainHeight(int appearedAtChainHeight) {
-    	this.height = appearedAtChainHeight;
+	public void setAppearedAtChainHeight(int appearedAtChainHeight) {
+    	update(appearedAtChainHeight, isDoubleSpend());
     }
     
     @Override
@@ -25,7 +25,7 @@ public class MyTransactionInput extends TransactionInput {
 	@Override
 	public Address getFromAddress() {
 		try {
-			return new Address(params, address);
+			return AddressCache.get(address);
 		} catch (AddressFormatException e) {
 			e.printStackTrace();
 		}
@@ -23,7 +23,7 @@ public class MyTransactionOutput extends TransactionOutput {
 	
 	public Address getToAddress() {
 		try {
-			return new Address(params, address);
+			return AddressCache.get(address);
 		} catch (AddressFormatException e) {
 			e.printStackTrace();
 		}
@@ -19,21 +19,26 @@
 package piuk;
 
 import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
 import com.google.bitcoin.bouncycastle.util.encoders.Hex;
+import com.google.bitcoin.core.AddressFormatException;
 import com.google.bitcoin.core.Base58;
 import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.NetworkParameters;
 import com.google.bitcoin.core.Wallet;
 import org.apache.commons.lang.ArrayUtils;
 import org.json.simple.JSONValue;
-import org.json.simple.parser.JSONParser;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
@@ -44,82 +49,201 @@ import java.util.*;
 public class MyWallet {
 	private static final int AESBlockSize = 4;
 	private static final int PBKDF2Iterations = 10;
-	public Map<String, Object> root;
 	public String temporyPassword;
 	public String temporySecondPassword;
 
+	private String guid;
+	private String sharedKey;
+	private boolean doubleEncrypted;
+	private String dpasswordhash;
+	private List<MyWalletKey> keys = new ArrayList<MyWalletKey>();
+	private List<MyAddressBookEntry> addressBook = new ArrayList<MyAddressBookEntry>();
+
+	//Top level fields of the payload this client doesn't use, written back as they were
+	private Map<String, Object> other = new LinkedHashMap<String, Object>();
+
+	//Lookup tables from address and hash160 to the entries in keys
+	private Map<String, MyWalletKey> keysByAddress = new HashMap<String, MyWalletKey>();
+	private Map<Hash, MyWalletKey> keysByHash160 = new HashMap<Hash, MyWalletKey>();
+
+	//Worked out when first asked for after the keys or their tags change
+	private volatile String[] activeAddresses;
+	private volatile String[] archivedAddresses;
+
 	public static final NetworkParameters params = NetworkParameters.prodNet();
 
 	public MyWallet(String base64Payload, String password) throws Exception {
-		this.root = decryptPayload(base64Payload, password);
+		Reader reader = decryptPayload(base64Payload, password);
 
-		if (root == null)
+		if (reader == null)
 			throw new Exception("Error Decrypting Wallet");
+
+		try {
+			load(new JSONPullParser(reader));
+		} finally {
+			reader.close();
+		}
 	}
 
 	//Create a new Wallet 
 	public MyWallet() throws Exception {
-		this.root = new HashMap<String, Object>();
+		this.guid = UUID.randomUUID().toString();
+		this.sharedKey = UUID.randomUUID().toString();
+
+		addKey(new ECKey(), "New");
+	}
+
+	//Reads the typed fields of the payload straight from the parser, the rest of it is kept as it is
+	private void load(JSONPullParser parser) throws IOException {
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+
+			if (name.equals("guid")) {
+				this.guid = parser.nextString();
+			} else if (name.equals("sharedKey")) {
+				this.sharedKey = parser.nextString();
+			} else if (name.equals("double_encryption")) {
+				this.doubleEncrypted = Boolean.TRUE.equals(parser.nextValue());
+			} else if (name.equals("dpasswordhash")) {
+				this.dpasswordhash = parser.nextString();
+			} else if (name.equals("keys") && parser.peek() == JSONPullParser.Token.BEGIN_ARRAY) {
+				this.keys = new ArrayList<MyWalletKey>();
+
+				parser.beginArray();
+				while (parser.hasNext())
+					keys.add(MyWalletKey.fromJSON(parser));
+				parser.endArray();
+			} else if (name.equals("address_book") && parser.peek() == JSONPullParser.Token.BEGIN_ARRAY) {
+				this.addressBook = new ArrayList<MyAddressBookEntry>();
+
+				parser.beginArray();
+				while (parser.hasNext())
+					addressBook.add(MyAddressBookEntry.fromJSON(parser));
+				parser.endArray();
+			} else {
+				other.put(name, parser.nextValue());
+			}
+		}
+		parser.endObject();
 
-		root.put("guid", UUID.randomUUID().toString());
-		root.put("sharedKey", UUID.randomUUID().toString());
+		if (parser.peek() != JSONPullParser.Token.END_DOCUMENT)
+			throw new IOException("Unexpected data after the wallet");
+
+		rebuildKeyIndex();
+	}
+
+	//Take over the contents of another wallet, for when the payload is replaced
+	protected void load(MyWallet wallet) {
+		this.guid = wallet.guid;
+		this.sharedKey = wallet.sharedKey;
+		this.doubleEncrypted = wallet.doubleEncrypted;
+		this.dpasswordhash = wallet.dpasswordhash;
+		this.keys = wallet.keys;
+		this.addressBook = wallet.addressBook;
+		this.other = wallet.other;
+
+		rebuildKeyIndex();
+	}
 
-		List<Map<String, Object>> keys = new ArrayList<Map<String, Object>>();
-		List<Map<String, Object>> address_book = new ArrayList<Map<String, Object>>();
+	private Map<String, Object> toJSON() {
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+
+		root.put("guid", guid);
+		root.put("sharedKey", sharedKey);
+
+		if (doubleEncrypted)
+			root.put("double_encryption", true);
+
+		if (dpasswordhash != null)
+			root.put("dpasswordhash", dpasswordhash);
+
+		root.putAll(other);
 
 		root.put("keys", keys);
-		root.put("address_book", address_book);
+		root.put("address_book", addressBook);
 
-		addKey(new ECKey(), "New");
+		return root;
 	}
 
-	@SuppressWarnings("unchecked")
-	public List<Map<String, Object>> getKeysMap() {
-		return (List<Map<String, Object>>) root.get("keys");
+	public List<MyWalletKey> getKeys() {
+		return Collections.unmodifiableList(keys);
 	}
 
+	private void rebuildKeyIndex() {
+		keysByAddress.clear();
+		keysByHash160.clear();
+
+		for (MyWalletKey key : keys) {
+			indexKey(key);
+		}
+
+		keysChanged();
+	}
+
+	private void indexKey(MyWalletKey key) {
+		if (key.getAddress() != null)
+			keysByAddress.put(key.getAddress(), key);
+
+		if (key.getHash160() != null)
+			keysByHash160.put(key.getHash160(), key);
+	}
+
+	private void keysChanged() {
+		activeAddresses = null;
+		archivedAddresses = null;
+	}
+
+	//The returned array is shared, don't modify it
 	public String[] getActiveAddresses() {
-		List<String> list = new ArrayList<String>();
-		for (Map<String, Object> map : getKeysMap()) {
-			if (map.get("tag") == null || (Long)map.get("tag") == 0)
-				list.add((String) map.get("addr"));
-		} 
-		return list.toArray(new String[list.size()]);
+		String[] addresses = activeAddresses;
+
+		if (addresses == null) {
+			List<String> list = new ArrayList<String>();
+			for (MyWalletKey key : keys) {
+				if (key.isActive())
+					list.add(key.getAddress());
+			}
+			activeAddresses = addresses = list.toArray(new String[list.size()]);
+		}
+
+		return addresses;
 	}
-	
+
+	//The returned array is shared, don't modify it
 	public String[] getArchivedAddresses() {
-		List<String> list = new ArrayList<String>();
-		for (Map<String, Object> map : getKeysMap()) {
-			if (map.get("tag") != null && (Long)map.get("tag") == 2)
-				list.add((String) map.get("addr"));
+		String[] addresses = archivedAddresses;
+
+		if (addresses == null) {
+			List<String> list = new ArrayList<String>();
+			for (MyWalletKey key : keys) {
+				if (key.isArchived())
+					list.add(key.getAddress());
+			}
+			archivedAddresses = addresses = list.toArray(new String[list.size()]);
 		}
-		return list.toArray(new String[list.size()]);
-	}
 
-	@SuppressWarnings("unchecked")
-	public List<Map<String, Object>> getAddressBookMap() {
-		return (List<Map<String, Object>>) root.get("address_book");
+		return addresses;
 	}
 
+	public List<MyAddressBookEntry> getAddressBook() {
+		return Collections.unmodifiableList(addressBook);
+	}
 
 	public boolean isDoubleEncrypted() {
-		Object double_encryption = root.get("double_encryption");
-		if (double_encryption != null)
-			return (Boolean)double_encryption;
-		else
-			return false;
+		return doubleEncrypted;
 	}
 
 	public String getGUID() {
-		return (String)root.get("guid");
+		return guid;
 	}
 
 	public String getSharedKey() {
-		return (String)root.get("sharedKey");
+		return sharedKey;
 	}
 
 	public String getDPasswordHash() {
-		return (String)root.get("dpasswordhash");
+		return dpasswordhash;
 	}
 
 	public void setTemporyPassword(String password) {
@@ -131,11 +255,11 @@ public class MyWallet {
 	}
 
 	public String toJSONString() {
-		return JSONValue.toJSONString(root);
+		return JSONValue.toJSONString(toJSON());
 	}
 
 	public String getPayload() throws Exception {
-		return encrypt(toJSONString(), this.temporyPassword);
+		return encryptPayload(toJSON(), this.temporyPassword);
 	}
 
 	public ECKey decodePK(String base58Priv) throws Exception {
@@ -147,98 +271,79 @@ public class MyWallet {
 			base58Priv = decryptPK(base58Priv, getSharedKey(), this.temporySecondPassword);
 		} 
 
+		return new ECKey(decodePrivateKey(base58Priv));
+	}
+
+	private static BigInteger decodePrivateKey(String base58Priv) throws AddressFormatException {
 		byte[] privBytes = Base58.decode(base58Priv);
 
 		//Prppend a zero byte to make the biginteger unsigned
 		byte[] appendZeroByte = ArrayUtils.addAll(new byte[1], privBytes);
 
-		ECKey ecKey = new ECKey(new BigInteger(appendZeroByte));
-
-		return ecKey;
+		return new BigInteger(appendZeroByte);
 	}
 
 	public Map<String, String> getLabelMap() {
 		Map<String, String> _labelMap = new HashMap<String, String>();
 
-		List<Map<String, Object>> addressBook = this.getAddressBookMap();
-
-		if (addressBook != null) {
-			for (Map<String, Object> addr_book : addressBook) {
-				_labelMap.put((String)addr_book.get("addr"), (String)addr_book.get("label"));
-			}
+		for (MyAddressBookEntry entry : addressBook) {
+			_labelMap.put(entry.getAddress(), entry.getLabel());
 		}
 
-		if (this.getKeysMap() != null) {
-			for (Map<String, Object> key_map : this.getKeysMap()) {
-				String label = (String)key_map.get("label");
-
-				if (label != null)
-					_labelMap.put((String)key_map.get("addr"), label);
-			}
+		for (MyWalletKey key : keys) {
+			if (key.getLabel() != null)
+				_labelMap.put(key.getAddress(), key.getLabel());
 		}
 
 		return _labelMap;
 	}
 
-	public Map<String, Object> findAddressBookEntry(String address) {
-		List<Map<String, Object>> addressBook = this.getAddressBookMap();
-
-		if (addressBook != null) {
-			for (Map<String, Object> addr_book : addressBook) {
-				if (addr_book.get("addr").equals(address))
-					return addr_book;
-			}
+	public MyAddressBookEntry findAddressBookEntry(String address) {
+		for (MyAddressBookEntry entry : addressBook) {
+			if (entry.getAddress().equals(address))
+				return entry;
 		}
 
 		return null;
 	}
-	public Map<String, Object> findKey(String address) {
-		for (Map<String, Object> key : this.getKeysMap()) {
-			String addr = (String) key.get("addr");
 
-			if (addr.equals(address))
-				return key;
-		}
-		return null;
+	public MyWalletKey findKey(String address) {
+		return keysByAddress.get(address);
 	}
 
-	public boolean isMine(String address) {
-		for (Map<String, Object> key : this.getKeysMap()) {
-			String addr = (String) key.get("addr");
+	public MyWalletKey findKey(Hash hash160) {
+		return keysByHash160.get(hash160);
+	}
 
-			if (addr.equals(address))
-				return true;
-		}
+	public boolean isMine(String address) {
+		return keysByAddress.containsKey(address);
+	}
 
-		return false;
+	public boolean isMine(Hash hash160) {
+		return keysByHash160.containsKey(hash160);
 	}
 
 	public void setTag(String address, long tag) {
-		if (this.isMine(address)) {
-			findKey(address).put("tag", tag);
+		MyWalletKey key = findKey(address);
+
+		if (key != null) {
+			key.setTag((int) tag);
+
+			keysChanged();
 		}
 	}
 	
 	public void addLabel(String address, String label) {
-		if (this.isMine(address)) {
-			findKey(address).put("label", label);
+		MyWalletKey key = findKey(address);
+
+		if (key != null) {
+			key.setLabel(label);
 		} else {
-			Map<String, Object> entry = findAddressBookEntry(address);
+			MyAddressBookEntry entry = findAddressBookEntry(address);
 			if (entry != null) {
-				entry.put("label", label);
+				entry.setLabel(label);
 			} else {
-				List<Map<String, Object>> addressBook = this.getAddressBookMap();
-
-				if (addressBook == null) {
-					addressBook = new ArrayList<Map<String, Object>>();
-					root.put("address_book", addressBook);
-				}
-
-				HashMap<String, Object> map = new HashMap<String, Object>();
-				map.put("addr", address);
-				map.put("label", label);
-
-				addressBook.add(map);
+				addressBook.add(new MyAddressBookEntry(address, label));
 			}
 		}
 
@@ -248,25 +353,52 @@ public class MyWallet {
 
 		wallet.keychain.clear();
 
-		for (Map<String, Object> key : this.getKeysMap()) {
+		//Without a second password the private keys can be read straight away, so derive all the public keys at once
+		//on every core rather than one at a time as they get used. A key that can't be decoded here is left for MyECKey
+		//to decode when it's used, so it only affects itself
+		ECKey[] decodedKeys = new ECKey[keys.size()];
+		if (!isDoubleEncrypted()) {
+			List<BigInteger> privs = new ArrayList<BigInteger>();
+			List<Integer> decodedIndexes = new ArrayList<Integer>();
+
+			for (int ii = 0; ii < keys.size(); ++ii) {
+				MyWalletKey key = keys.get(ii);
+
+				if (!key.hasPriv())
+					continue;
+
+				try {
+					privs.add(decodePrivateKey(key.getPriv()));
+					decodedIndexes.add(ii);
+				} catch (AddressFormatException e) {
+					e.printStackTrace();
+				}
+			}
 
-			String base58Priv = (String) key.get("priv");
-			String addr = (String) key.get("addr");
+			try {
+				List<ECKey> derived = ECKey.fromPrivateKeys(privs);
 
-			if (base58Priv == null) {
-				continue;
+				for (int ii = 0; ii < derived.size(); ++ii)
+					decodedKeys[decodedIndexes.get(ii)] = derived.get(ii);
+			} catch (RuntimeException e) {
+				//A private key out of range for the curve. Leave them all to be decoded one at a time
+				e.printStackTrace();
 			}
+		}
 
-			MyECKey encoded_key = new MyECKey(addr, base58Priv, this);
+		for (int ii = 0; ii < keys.size(); ++ii) {
+			MyWalletKey key = keys.get(ii);
 
-			if (key.get("label") != null)
-				encoded_key.setLabel((String) key.get("label"));
+			if (!key.hasPriv()) {
+				continue;
+			}
 
-			if (key.get("tag") != null) {
-				Long tag = (Long) key.get("tag");
+			MyECKey encoded_key = new MyECKey(key.getAddress(), key.getPriv(), this, decodedKeys[ii]);
 
-				encoded_key.setTag((int)(long)tag);
-			}
+			if (key.getLabel() != null)
+				encoded_key.setLabel(key.getLabel());
+
+			encoded_key.setTag(key.getTag());
 
 			wallet.addKey(encoded_key);
 		}
@@ -282,30 +414,30 @@ public class MyWallet {
 	}
 
 	public boolean addKey(ECKey key, String label) throws Exception {
-		Map<String, Object> map = new HashMap<String, Object>();
-
 		String base58Priv = new String(Base58.encode(key.getPrivKeyBytes()));
 
-		map.put("addr", key.toAddress(params).toString());
-
 		if (label != null) {
 			if (label.length() == 0 || label.length() > 255)
 				throw new Exception("Label must be between 0 & 255 characters");
-
-			map.put("label", label);
 		}
 
+		String priv;
 		if (this.isDoubleEncrypted()) {
 			if (temporySecondPassword == null)
 				throw new Exception("You must provide a second password");
 
-			map.put("priv", encryptPK(base58Priv, getSharedKey(), temporySecondPassword));
-
+			priv = encryptPK(base58Priv, getSharedKey(), temporySecondPassword);
 		} else {
-			map.put("priv", base58Priv);
+			priv = base58Priv;
 		}
 
-		getKeysMap().add(map);
+		MyWalletKey walletKey = new MyWalletKey(key.toAddress(params).toString(), new Hash(key.getPubKeyHash()), priv, label);
+
+		keys.add(walletKey);
+
+		indexKey(walletKey);
+
+		keysChanged();
 
 		return true;
 	}
@@ -337,21 +469,10 @@ public class MyWallet {
 
 		//Sperate the IV and cipher data
 		byte[] iv = Arrays.copyOfRange(cipherdata, 0, AESBlockSize * 4);
-		byte[] input = Arrays.copyOfRange(cipherdata, AESBlockSize * 4, cipherdata.length);
 
-		IvParameterSpec ivspec = new IvParameterSpec(iv);
+		Cipher cipher = newCipher(Cipher.DECRYPT_MODE, password, iv);
 
-		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-		KeySpec spec = new PBEKeySpec(password.toCharArray(), iv, PBKDF2Iterations, 256);
-		SecretKey tmp = factory.generateSecret(spec);
-
-		SecretKey secret = new SecretKeySpec(tmp.getEncoded(), "AES");
-
-		byte[] output = null;
-
-		Cipher cipher = Cipher.getInstance("AES/CBC/ISO10126Padding");
-		cipher.init(Cipher.DECRYPT_MODE, secret, ivspec);
-		output = cipher.doFinal(input);
+		byte[] output = cipher.doFinal(cipherdata, iv.length, cipherdata.length - iv.length);
 
 		return new String(output, "UTF-8");
 	}
@@ -362,29 +483,40 @@ public class MyWallet {
 		if (password == null)
 			throw new Exception("You must provide an ecryption password");
 
-		//Use secure random to generate a 16 byte iv
-		SecureRandom random = new SecureRandom();
-		byte iv[] = new byte[AESBlockSize*4];
-		random.nextBytes(iv);
+		byte[] iv = newIV();
+
+		Cipher cipher = newCipher(Cipher.ENCRYPT_MODE, password, iv);
 
 		byte[] textbytes = text.getBytes("UTF-8");
 
+		//Append to IV to the output
+		byte[] ivAppended = Arrays.copyOf(iv, iv.length + cipher.getOutputSize(textbytes.length));
+
+		int length = iv.length + cipher.doFinal(textbytes, 0, textbytes.length, ivAppended, iv.length);
+
+		return new String(Base64.encode(ivAppended, 0, length, Base64.NO_WRAP), "UTF-8");
+	}
+
+	private static byte[] newIV() {
+		//Use secure random to generate a 16 byte iv
+		byte[] iv = new byte[AESBlockSize * 4];
+
+		new SecureRandom().nextBytes(iv);
+
+		return iv;
+	}
+
+	private static Cipher newCipher(int mode, String password, byte[] iv) throws Exception {
 		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
 		KeySpec spec = new PBEKeySpec(password.toCharArray(), iv, PBKDF2Iterations, 256);
 		SecretKey tmp = factory.generateSecret(spec);
 
-		IvParameterSpec ivspec = new IvParameterSpec(iv);
-
 		SecretKey secret = new SecretKeySpec(tmp.getEncoded(), "AES");
-		Cipher cipher = Cipher.getInstance("AES/CBC/ISO10126Padding");
-		cipher.init(Cipher.ENCRYPT_MODE, secret, ivspec);
-
-		byte[] output = cipher.doFinal(textbytes);
 
-		//Append to IV to the output
-		byte[] ivAppended = ArrayUtils.addAll(iv, output);
+		Cipher cipher = Cipher.getInstance("AES/CBC/ISO10126Padding");
+		cipher.init(mode, secret, new IvParameterSpec(iv));
 
-		return new String(Base64.encode(ivAppended, Base64.NO_WRAP), "UTF-8");
+		return cipher;
 	}
 
 	//Decrypt a double encrypted private key
@@ -397,26 +529,76 @@ public class MyWallet {
 		return encrypt(key, sharedKey + password);
 	}
 
-	//Decrypt a Wallet file and parse the JSON
-	@SuppressWarnings("unchecked")
-	public static Map<String, Object> decryptPayload(String payload, String password) throws Exception {
+	//Decrypt a Wallet file, returning a reader of its JSON or null if there's nothing to decrypt
+	//The payload is decoded and decrypted a few kilobytes at a time as the reader is read, so the wallet is parsed
+	//straight into its keys without a full copy of it ever being made along the way
+	private static Reader decryptPayload(String payload, String password) throws Exception {
 		if (payload == null || payload.length() == 0 || password == null || password.length() == 0)
 			return null;
 
-		String decrypted = decrypt(payload, password);
+		InputStream in = new Base64InputStream(new AsciiInputStream(payload), Base64.NO_WRAP);
 
-		if (decrypted == null || decrypted.length() == 0)
-			return null;
+		byte[] iv = new byte[AESBlockSize * 4];
 
-		JSONParser parser = new JSONParser();
-       
-		try {
-			return (Map<String, Object>) parser.parse(decrypted);
-		} catch (Exception e) {
-			System.out.println(decrypted);
-			
-			throw e;
-		}
+		new DataInputStream(in).readFully(iv);
+
+		return new InputStreamReader(new CipherInputStream(in, newCipher(Cipher.DECRYPT_MODE, password, iv)), "UTF-8");
+	}
+
+	//Serialize, encrypt and encode a Wallet the same way in reverse
+	public static String encryptPayload(Map<String, Object> root, String password) throws Exception {
+		if (password == null)
+			throw new Exception("You must provide an ecryption password");
+
+		byte[] iv = newIV();
+
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+		OutputStream out = new Base64OutputStream(encoded, Base64.NO_WRAP);
+
+		out.write(iv);
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new CipherOutputStream(out, newCipher(Cipher.ENCRYPT_MODE, password, iv)), "UTF-8"));
+
+		JSONValue.writeJSONString(root, writer);
+
+		//Flushes the final block and the last few characters of base64
+		writer.close();
+
+		return encoded.toString("US-ASCII");
 	}
 
+	//Reads a string of ASCII characters as bytes without copying it
+	private static class AsciiInputStream extends InputStream {
+		private final String string;
+		private int position;
+
+		public AsciiInputStream(String string) {
+			this.string = string;
+		}
+
+		@Override
+		public int read() {
+			if (position == string.length())
+				return -1;
+
+			return string.charAt(position++) & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) {
+			if (length == 0)
+				return 0;
+
+			if (position == string.length())
+				return -1;
+
+			int count = Math.min(length, string.length() - position);
+
+			for (int ii = 0; ii < count; ++ii)
+				buffer[offset + ii] = (byte) string.charAt(position++);
+
+			return count;
+		}
+	}
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package piuk;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+
+import com.google.bitcoin.core.AddressFormatException;
+
+/**
+ * One key of a MyWallet, as stored under "keys" in the wallet payload. The address is decoded once when the key is
+ * loaded, and the private key is kept as the bytes of its encoded form, base58 or double encrypted, and only turned
+ * back into a string when it is used. Written back to the same JSON it was read from.
+ */
+public class MyWalletKey implements JSONAware, JSONStreamAware {
+	public static final int TAG_ACTIVE = 0;
+	public static final int TAG_ARCHIVED = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String addr;
+	private final Hash hash160;
+	private final byte[] priv;
+	private String label;
+	private int tag;
+
+	//Any other fields the key was saved with, null if there were none
+	private final Map<String, Object> other;
+
+	public MyWalletKey(String addr, Hash hash160, String priv, String label) {
+		this(addr, hash160, priv, label, TAG_ACTIVE, null);
+	}
+
+	private MyWalletKey(String addr, Hash hash160, String priv, String label, int tag, Map<String, Object> other) {
+		this.addr = addr;
+		this.hash160 = hash160;
+		this.priv = priv == null ? null : priv.getBytes(UTF8);
+		this.label = label;
+		this.tag = tag;
+		this.other = other;
+	}
+
+	//Reads a key object from the payload, keeping any fields it doesn't know about
+	public static MyWalletKey fromJSON(JSONPullParser parser) throws IOException {
+		String addr = null;
+		String priv = null;
+		String label = null;
+		int tag = TAG_ACTIVE;
+		Map<String, Object> other = null;
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+
+			if (name.equals("addr")) {
+				addr = parser.nextString();
+			} else if (name.equals("priv")) {
+				priv = parser.nextString();
+			} else if (name.equals("label")) {
+				label = parser.nextString();
+			} else if (name.equals("tag") && parser.peek() == JSONPullParser.Token.NUMBER) {
+				tag = parser.nextInt();
+			} else {
+				if (other == null)
+					other = new LinkedHashMap<String, Object>();
+
+				other.put(name, parser.nextValue());
+			}
+		}
+		parser.endObject();
+
+		Hash hash160 = null;
+		if (addr != null) {
+			try {
+				hash160 = new BitcoinAddress(addr).getHash160();
+			} catch (AddressFormatException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return new MyWalletKey(addr, hash160, priv, label, tag, other);
+	}
+
+	public String getAddress() {
+		return addr;
+	}
+
+	//Null if the address could not be decoded
+	public Hash getHash160() {
+		return hash160;
+	}
+
+	public boolean hasPriv() {
+		return priv != null;
+	}
+
+	//Base58, or base64 if the wallet is double encrypted. Null for watch only keys
+	public String getPriv() {
+		return priv == null ? null : new String(priv, UTF8);
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public void setLabel(String label) {
+		this.label = label;
+	}
+
+	public int getTag() {
+		return tag;
+	}
+
+	public void setTag(int tag) {
+		this.tag = tag;
+	}
+
+	public boolean isActive() {
+		return tag == TAG_ACTIVE;
+	}
+
+	public boolean isArchived() {
+		return tag == TAG_ARCHIVED;
+	}
+
+	public void writeJSONString(Writer out) throws IOException {
+		out.write('{');
+
+		boolean first = writeField(out, true, "addr", addr);
+		first = writeField(out, first, "priv", getPriv());
+		first = writeField(out, first, "label", label);
+
+		if (tag != TAG_ACTIVE)
+			first = writeField(out, first, "tag", Long.valueOf(tag));
+
+		if (other != null) {
+			for (Map.Entry<String, Object> entry : other.entrySet())
+				first = writeField(out, first, entry.getKey(), entry.getValue());
+		}
+
+		out.write('}');
+	}
+
+	public String toJSONString() {
+		StringWriter out = new StringWriter();
+
+		try {
+			writeJSONString(out);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return out.toString();
+	}
+
+	//Writes "name":value, after a comma unless it's the first field. Null values are left out
+	static boolean writeField(Writer out, boolean first, String name, Object value) throws IOException {
+		if (value == null)
+			return first;
+
+		if (!first)
+			out.write(',');
+
+		out.write('"');
+		out.write(JSONValue.escape(name));
+		out.write("\":");
+
+		JSONValue.writeJSONString(value, out);
+
+		return false;
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package piuk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects requests to save a MyRemoteWallet to the server and runs one save for each batch of them. Every save
+ * encrypts and uploads the whole wallet, so labelling a few hundred addresses shouldn't mean a few hundred saves.<p>
+ *
+ * A save runs once no request has come in for QUIET_MILLIS, but no later than MAX_WAIT_MILLIS after the first request
+ * of the batch, or straight away once MAX_BATCH requests are waiting. Saves run one at a time on a single thread, and
+ * anything that changes while one is uploading goes into the next. Every request of a batch gets the same result.
+ * Call flush() for changes that can't wait, such as a new key, or when the app may be about to go away.
+ */
+public class RemoteSaveScheduler {
+	public static final long QUIET_MILLIS = 1000;
+	public static final long MAX_WAIT_MILLIS = 5000;
+	public static final int MAX_BATCH = 100;
+
+	public interface Callback {
+		//Called on the save thread
+		public void onSaved();
+		public void onError(Exception e);
+	}
+
+	private final MyRemoteWallet wallet;
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Wallet save");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Runnable saveTask = new Runnable() {
+		public void run() {
+			save();
+		}
+	};
+
+	//Guarded by this
+	private int requests;
+	private List<Callback> callbacks = new ArrayList<Callback>();
+	private long firstRequestTime;
+	private long lastRequestTime;
+	private ScheduledFuture<?> scheduledSave;
+
+	private volatile long saveCount;
+	private volatile long lastSaveMillis;
+	private volatile long totalSaveMillis;
+
+	public RemoteSaveScheduler(MyRemoteWallet wallet) {
+		this.wallet = wallet;
+	}
+
+	//Callback can be null
+	public synchronized void requestSave(Callback callback) {
+		long now = System.currentTimeMillis();
+
+		if (requests == 0)
+			firstRequestTime = now;
+
+		lastRequestTime = now;
+
+		++requests;
+
+		if (callback != null)
+			callbacks.add(callback);
+
+		long delay = 0;
+		if (requests < MAX_BATCH)
+			delay = Math.max(0, Math.min(lastRequestTime + QUIET_MILLIS, firstRequestTime + MAX_WAIT_MILLIS) - now);
+
+		//A save that has already started takes whatever is waiting, so a late cancel does no harm
+		if (scheduledSave != null)
+			scheduledSave.cancel(false);
+
+		scheduledSave = executor.schedule(saveTask, delay, TimeUnit.MILLISECONDS);
+	}
+
+	//Start a save of anything waiting now instead of at the end of the batch
+	public synchronized void flush() {
+		if (requests == 0)
+			return;
+
+		if (scheduledSave != null)
+			scheduledSave.cancel(false);
+
+		scheduledSave = executor.schedule(saveTask, 0, TimeUnit.MILLISECONDS);
+	}
+
+	private void save() {
+		List<Callback> batch;
+
+		synchronized (this) {
+			if (requests == 0)
+				return;
+
+			batch = callbacks;
+
+			callbacks = new ArrayList<Callback>();
+			requests = 0;
+			scheduledSave = null;
+		}
+
+		long start = System.currentTimeMillis();
+
+		Exception error = null;
+		try {
+			wallet.remoteSave();
+		} catch (Exception e) {
+			e.printStackTrace();
+
+			error = e;
+		}
+
+		lastSaveMillis = System.currentTimeMillis() - start;
+		totalSaveMillis += lastSaveMillis;
+		++saveCount;
+
+		for (Callback callback : batch) {
+			try {
+				if (error == null)
+					callback.onSaved();
+				else
+					callback.onError(error);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	//The number of requests waiting for the next save
+	public synchronized int getQueueDepth() {
+		return requests;
+	}
+
+	public long getSaveCount() {
+		return saveCount;
+	}
+
+	//How long the last save took to encrypt and upload, in milliseconds
+	public long getLastSaveMillis() {
+		return lastSaveMillis;
+	}
+
+	public long getAverageSaveMillis() {
+		long count = saveCount;
+
+		return count == 0 ? 0 : totalSaveMillis / count;
+	}
+}
@@ -31,9 +31,11 @@ import org.apache.commons.io.IOUtils;
 import piuk.BitcoinAddress;
 import piuk.Hash;
 import piuk.MyRemoteWallet;
+import piuk.RemoteSaveScheduler;
 import piuk.blockchain.R;
 import piuk.blockchain.android.util.ErrorReporter;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -183,6 +185,13 @@ public class WalletApplication extends Application
 		connect();
 	}
 
+	//Start uploading any batched label changes instead of waiting out the batch, the process may not be around for it.
+	//Called from AbstractWalletActivity.onPause
+	public void flushRemoteSaves() {
+		if (remoteWallet != null)
+			remoteWallet.flushRemoteSaves();
+	}
+
 	public Wallet getWallet() {
 		return remoteWallet.getBitcoinJWallet();
 	}
@@ -250,17 +259,30 @@ public class WalletApplication extends Application
 		}
 	}
 
-	public synchronized void writeMultiAddrCache(String repsonse) {
-		try {
-			FileOutputStream file = openFileOutput(remoteWallet.getGUID() + Constants.MULTIADDR_FILENAME, Constants.WALLET_MODE);
+	//Downloads the transactions and writes the response to the cache as it's parsed. It goes to a temporary file
+	//first so a failed download doesn't leave half a cache behind. Only the rename holds the lock, the download can
+	//take a while on a slow connection and each download has its own temporary file
+	public void downloadMultiAddr() throws Exception {
+		String filename = remoteWallet.getGUID() + Constants.MULTIADDR_FILENAME;
 
+		File tmp = File.createTempFile(filename, ".tmp", getFilesDir());
 
-			file.write(repsonse.getBytes());
+		try {
+			FileOutputStream file = new FileOutputStream(tmp);
 
-			file.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			try {
+				remoteWallet.doMultiAddr(file);
+			} finally {
+				file.close();
+			}
+
+			synchronized (this) {
+				if (!tmp.renameTo(getFileStreamPath(filename)))
+					throw new IOException("Could not replace the multiaddr cache");
+			}
+		} finally {
+			//Only still there if the download or the rename failed
+			tmp.delete();
 		}
 	}
 
@@ -279,7 +301,7 @@ public class WalletApplication extends Application
 		new Thread(new Runnable() {
 			public void run() {
 				try {				
-					writeMultiAddrCache(remoteWallet.doMultiAddr());
+					downloadMultiAddr();
 
 					handler.post(new Runnable() 	{
 						public void run() {
@@ -430,39 +452,34 @@ public class WalletApplication extends Application
 				remoteWallet.setTag(address, tag);
 			}
 		
-			new Thread(){
-				@Override
-				public void run() {
-					try {
-						remoteWallet.remoteSave();
-
-						handler.post(new Runnable()
+			//A new key is saved straight away, it may already be shown as a receive address
+			remoteWallet.remoteSaveNow(new RemoteSaveScheduler.Callback() {
+				public void onSaved() {
+					handler.post(new Runnable()
+					{
+						public void run()
 						{
-							public void run()
-							{
-								callback.onSavedAddress(address);
-								
-								notifyWidgets();
-							}
-						});
-
-					} catch (Exception e) {
-						e.printStackTrace();
+							callback.onSavedAddress(address);
+							
+							notifyWidgets();
+						}
+					});
+				}
 
-						writeException(e);
+				public void onError(Exception e) {
+					writeException(e);
 
-						handler.post(new Runnable()
+					handler.post(new Runnable()
+					{
+						public void run()
 						{
-							public void run()
-							{
-								callback.onError();
-								
-								Toast.makeText(WalletApplication.this, R.string.toast_error_syncing_wallet, Toast.LENGTH_LONG).show();
-							}
-						});
-					}
+							callback.onError();
+							
+							Toast.makeText(WalletApplication.this, R.string.toast_error_syncing_wallet, Toast.LENGTH_LONG).show();
+						}
+					});
 				}
-			}.start();
+			});
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -477,26 +494,21 @@ public class WalletApplication extends Application
 		try {
 			remoteWallet.addLabel(address, label);
 
-			new Thread(){
-				@Override
-				public void run() {
-					try {
-						remoteWallet.remoteSave();
-					} catch (Exception e) {
-						e.printStackTrace();
+			remoteWallet.remoteSaveSoon(new RemoteSaveScheduler.Callback() {
+				public void onSaved() { }
 
-						writeException(e);
+				public void onError(Exception e) {
+					writeException(e);
 
-						handler.post(new Runnable()
+					handler.post(new Runnable()
+					{
+						public void run()
 						{
-							public void run()
-							{
-								Toast.makeText(WalletApplication.this, R.string.toast_error_syncing_wallet, Toast.LENGTH_LONG).show();
-							}
-						});
-					}
+							Toast.makeText(WalletApplication.this, R.string.toast_error_syncing_wallet, Toast.LENGTH_LONG).show();
+						}
+					});
 				}
-			}.start();
+			});
 		} catch (Exception e) {
 			e.printStackTrace();
 
@@ -509,9 +521,11 @@ public class WalletApplication extends Application
 			//Restore the multi address cache
 			FileInputStream multiaddrCacheFile = openFileInput(remoteWallet.getGUID() +  Constants.MULTIADDR_FILENAME);
 
-			String multiAddr =  IOUtils.toString(multiaddrCacheFile);
-
-			remoteWallet.parseMultiAddr(multiAddr);
+			try {
+				remoteWallet.parseMultiAddr(multiaddrCacheFile, null);
+			} finally {
+				multiaddrCacheFile.close();
+			}
 
 			return true;
 
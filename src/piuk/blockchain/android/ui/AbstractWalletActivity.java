@@ -59,6 +59,14 @@ public abstract class AbstractWalletActivity extends FragmentActivity
 		actionBar.setSecondaryTitle(Constants.TEST ? "[testnet]" : null);
 	}
 
+	@Override
+	protected void onPause()
+	{
+		application.flushRemoteSaves();
+
+		super.onPause();
+	}
+
 	protected WalletApplication getWalletApplication()
 	{
 		return application;